@@ -22,6 +22,8 @@ import static org.jboss.logging.Logger.Level.ERROR;
 import static org.jboss.logging.Logger.Level.FATAL;
 import static org.jboss.logging.Logger.Level.INFO;
 
+import java.util.List;
+
 import org.jboss.logging.Logger;
 import org.jboss.logging.annotations.Cause;
 import org.jboss.logging.annotations.LogMessage;
@@ -113,7 +115,11 @@ public interface MSCLogger {
     String requiredDependency(ServiceName dependentName, ServiceName dependencyName);
 
     @Message(id = 18, value="Dependency cycle found: %s")
-    String dependencyCycle(ServiceName[] cycle);
+    String dependencyCycle(List<ServiceName> cycle);
+
+    @LogMessage(level = ERROR)
+    @Message(id = 19, value = "Processing of transactional object \"%s\" caused an exception")
+    void objectProcessingFailed(@Cause Throwable cause, Object object);
 
     // jump to 100...
 
@@ -130,9 +136,6 @@ public interface MSCLogger {
     @Message(id = 102, value = "%s must be at most ERROR")
     IllegalArgumentException illegalSeverity(final String parameterName);
 
-    @Message(id = 103, value = "Too many active transactions")
-    IllegalStateException tooManyActiveTransactions();
-
     @Message(id = 104, value = "%s and %s flags are mutually exclusive")
     IllegalStateException mutuallyExclusiveFlags(final String flag1, final String flag2);
 
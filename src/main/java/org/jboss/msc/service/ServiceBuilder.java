@@ -52,6 +52,16 @@ public interface ServiceBuilder<T> {
      */
     ServiceBuilder<T> setMode(ServiceMode mode) throws IllegalStateException;
 
+    /**
+     * Marks the service as blocking, i.e., its start or stop may block for a long time.  Blocking services are started
+     * and stopped by the blocking executor of the container, if it has one, so that they do not hold up other tasks.
+     *
+     * @param blocking {@code true} if the service is blocking
+     * @return a reference to this object
+     * @throws IllegalStateException if {@link #install()} has been called.
+     */
+    ServiceBuilder<T> setBlocking(boolean blocking) throws IllegalStateException;
+
     /**
      * Sets the service instance.
      * 
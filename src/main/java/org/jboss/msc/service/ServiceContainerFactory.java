@@ -18,6 +18,9 @@
 
 package org.jboss.msc.service;
 
+import java.util.concurrent.Executor;
+
+import org.jboss.msc._private.MSCLogger;
 import org.jboss.msc.txn.ServiceContainerImpl;
 
 /**
@@ -46,7 +49,21 @@ public final class ServiceContainerFactory {
      * @return a reference to this object
      */
     public ServiceContainer newServiceContainer() {
-        return new ServiceContainerImpl();
+        return new ServiceContainerImpl(null);
+    }
+
+    /**
+     * Creates new service container running blocking services on a dedicated executor.
+     *
+     * @param blockingExecutor the executor running the start and stop of services marked as blocking
+     * @return a reference to this object
+     * @see ServiceBuilder#setBlocking(boolean)
+     */
+    public ServiceContainer newServiceContainer(final Executor blockingExecutor) {
+        if (blockingExecutor == null) {
+            throw MSCLogger.SERVICE.methodParameterIsNull("blockingExecutor");
+        }
+        return new ServiceContainerImpl(blockingExecutor);
     }
 
 }
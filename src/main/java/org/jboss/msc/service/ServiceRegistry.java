@@ -18,6 +18,8 @@
 
 package org.jboss.msc.service;
 
+import java.util.Set;
+
 import org.jboss.msc.txn.Transaction;
 
 /**
@@ -46,6 +48,32 @@ public interface ServiceRegistry {
      */
     Service<?> getService(ServiceName serviceName);
 
+    /**
+     * Gets a consistent, read-only view of the services of this registry as of the last committed transaction.  Taking
+     * and reading the view never blocks, nor does it block the running transactions.
+     *
+     * @return the view
+     */
+    ServiceRegistrySnapshot getSnapshot();
+
+    /**
+     * Gets the services which transitively depend on a service, as of the last committed transaction.  These are the
+     * services which stop if the service stops.  Results are kept until a transaction installs or removes services.
+     *
+     * @param serviceName the service name, or one of its aliases
+     * @return the names of the dependent services, empty if the service is not installed
+     */
+    Set<ServiceName> getTransitiveDependents(ServiceName serviceName);
+
+    /**
+     * Gets the services a service transitively depends on, as of the last committed transaction.  Dependencies missing
+     * from the registry are left out.  Results are kept until a transaction installs or removes services.
+     *
+     * @param serviceName the service name, or one of its aliases
+     * @return the names of the services depended on, empty if the service is not installed
+     */
+    Set<ServiceName> getTransitiveDependencies(ServiceName serviceName);
+
     /**
      * Disables a service, causing this service to stop if it is {@code UP}.
      *
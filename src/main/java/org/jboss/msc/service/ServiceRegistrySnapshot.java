@@ -0,0 +1,56 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.service;
+
+import java.util.Set;
+
+/**
+ * A read-only view of the services of a registry, as committed at the point in time the view was taken.  The view is
+ * consistent: it reflects every transaction committed before it was taken, and none of the transactions committed or
+ * running afterwards.  Reading it never blocks, even while other transactions hold the services locked.
+ * <p>
+ * Views are meant to be short-lived: the older a view, the more committed history it keeps reachable.
+ *
+ * @see ServiceRegistry#getSnapshot()
+ */
+public interface ServiceRegistrySnapshot {
+
+    /**
+     * Gets the names of the installed services, including their aliases.
+     *
+     * @return the service names
+     */
+    Set<ServiceName> getServiceNames();
+
+    /**
+     * Gets a service, returning {@code null} if it was not installed.
+     *
+     * @param serviceName the service name
+     * @return the service corresponding to {@code serviceName}, or {@code null} if it was not installed
+     */
+    Service<?> getService(ServiceName serviceName);
+
+    /**
+     * Gets the state of a service, returning {@code null} if it was not installed.
+     *
+     * @param serviceName the service name
+     * @return the state of the service corresponding to {@code serviceName}, or {@code null} if it was not installed
+     */
+    ServiceState getState(ServiceName serviceName);
+}
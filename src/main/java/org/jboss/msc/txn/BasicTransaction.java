@@ -25,8 +25,8 @@ import java.util.concurrent.Executor;
  */
 public final class BasicTransaction extends Transaction {
 
-    BasicTransaction(final TransactionController controller, final Executor taskExecutor, final Problem.Severity maxSeverity) {
-        super(controller, taskExecutor, maxSeverity);
+    BasicTransaction(final TransactionController controller, final Executor taskExecutor, final Problem.Severity maxSeverity, final DispatchPolicy dispatchPolicy) {
+        super(controller, taskExecutor, maxSeverity, dispatchPolicy);
     }
 
 }
@@ -17,10 +17,13 @@
  */
 package org.jboss.msc.txn;
 
-import java.util.HashSet;
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.jboss.msc._private.MSCLogger;
@@ -28,6 +31,14 @@ import org.jboss.msc.service.ServiceName;
 
 /**
  * Task that checks for dependency cycles.
+ * <p>
+ * Services are kept in a topological order of their dependencies, dependents before dependencies, which is maintained
+ * incrementally as services are installed (Pearce-Kelly).  A dependency that agrees with the order is accepted at
+ * once.  Otherwise only the services whose order lies between the dependent and the dependency are searched and
+ * reordered, and the dependency closes a cycle if the dependent is reachable from it.  The order is shared by all
+ * registries, as dependencies can cross registries, and is never reverted: removing services or dependencies leaves it
+ * valid.  Validations of all transactions contend on the lock of the order, so this task always runs on the transaction
+ * executor, never on the thread calling prepare.
  * 
  * @author <a href="mailto:frainone@redhat.com">Flavia Rainone</a>
  *
@@ -36,6 +47,23 @@ final class CheckDependencyCycleTask implements Validatable {
 
     static final AttachmentKey<CheckDependencyCycleTask> key = AttachmentKey.create();
 
+    /**
+     * The order of services that were not checked yet.
+     */
+    static final long UNORDERED = Long.MAX_VALUE;
+
+    // guards the dependency order of all services
+    private static final Object ORDER_LOCK = new Object();
+    // the order of the last checked service, each new service is placed before all others
+    private static long lowestOrder = 0;
+
+    private static final Comparator<ServiceControllerImpl<?>> BY_ORDER = new Comparator<ServiceControllerImpl<?>>() {
+        @Override
+        public int compare(final ServiceControllerImpl<?> service1, final ServiceControllerImpl<?> service2) {
+            return service1.dependencyOrder < service2.dependencyOrder ? -1 : service1.dependencyOrder == service2.dependencyOrder ? 0 : 1;
+        }
+    };
+
     /**
      * Schedule a check for dependency cycles involving {@code service}. The check is performed during transaction
      * validation.
@@ -44,14 +72,32 @@ final class CheckDependencyCycleTask implements Validatable {
      * @param transaction the active transaction
      */
     static void checkDependencyCycle(ServiceControllerImpl<?> service, Transaction transaction) {
-        final CheckDependencyCycleTask task;
-        if (transaction.hasAttachment(key)) {
-            task = transaction.getAttachment(key);
-        } else {
+        getTask(transaction).services.add(service);
+    }
+
+    /**
+     * Schedule a check for dependency cycles involving any of {@code services}, as a single addition to the services
+     * checked during transaction validation.
+     *
+     * @param services    the services to be verified
+     * @param transaction the active transaction
+     */
+    static void checkDependencyCycles(List<ServiceControllerImpl<?>> services, Transaction transaction) {
+        getTask(transaction).services.addAll(services);
+    }
+
+    private static CheckDependencyCycleTask getTask(Transaction transaction) {
+        CheckDependencyCycleTask task = transaction.getAttachmentIfPresent(key);
+        if (task == null) {
             task = new CheckDependencyCycleTask();
-            transaction.getTaskFactory().newTask().setValidatable(task).release();
+            final CheckDependencyCycleTask appearing = transaction.putAttachmentIfAbsent(key, task);
+            if (appearing != null) {
+                task = appearing;
+            } else {
+                transaction.getTaskFactory().newTask().setValidatable(task).release();
+            }
         }
-        task.checkService(service);
+        return task;
     }
 
     private final List<ServiceControllerImpl<?>> services;
@@ -60,44 +106,155 @@ final class CheckDependencyCycleTask implements Validatable {
         services = new CopyOnWriteArrayList<ServiceControllerImpl<?>>();
     }
 
-    private void checkService(ServiceControllerImpl<?> service) {
-        services.add(service);
-    }
-
     @Override
     public void validate(ValidateContext context) {
         try {
-            final Set<ServiceControllerImpl<?>> checkedServices = new HashSet<ServiceControllerImpl<?>>();
-            final LinkedHashMap<ServiceName, ServiceControllerImpl<?>> pathTrace = new LinkedHashMap<ServiceName, ServiceControllerImpl<?>>();
-            for (ServiceControllerImpl<?> service: services) {
-                if (checkedServices.contains(service)) {
-                    continue;
+            synchronized (ORDER_LOCK) {
+                for (ServiceControllerImpl<?> service: services) {
+                    if (service.getPrimaryRegistration().getController() != service) {
+                        // removed meanwhile
+                        continue;
+                    }
+                    // placed before all others, the dependencies of the service agree with the order
+                    service.dependencyOrder = --lowestOrder;
+                    // the dependents of the service, which were checked already, do not
+                    for (ServiceControllerImpl<?> dependent: getDependents(service)) {
+                        final List<ServiceControllerImpl<?>> cycle = addDependency(dependent, service);
+                        if (cycle != null) {
+                            final List<ServiceName> cycleNames = new ArrayList<ServiceName>(cycle.size());
+                            for (ServiceControllerImpl<?> cycleService: cycle) {
+                                cycleNames.add(cycleService.getServiceName());
+                            }
+                            context.addProblem(MSCLogger.SERVICE.dependencyCycle(cycleNames));
+                        }
+                    }
                 }
-                final ServiceName serviceName = service.getPrimaryRegistration().getServiceName();
-                pathTrace.put(serviceName, service);
-                verifyCycle(service, pathTrace, checkedServices, context);
-                checkedServices.add(service);
-                pathTrace.remove(serviceName);
             }
         } finally {
             context.complete();
         }
     }
 
-    private void verifyCycle(ServiceControllerImpl<?> service, LinkedHashMap<ServiceName, ServiceControllerImpl<?>> pathTrace, Set<ServiceControllerImpl<?>> checkedServices, ValidateContext context) {
+    /**
+     * Adds to the order the dependency of {@code dependent} on {@code dependency}.
+     * 
+     * @param dependent  the dependent service
+     * @param dependency the dependency service
+     * @return the cycle closed by the dependency, starting with {@code dependent}, or {@code null} if there is none
+     */
+    private static List<ServiceControllerImpl<?>> addDependency(final ServiceControllerImpl<?> dependent, final ServiceControllerImpl<?> dependency) {
+        assert Thread.holdsLock(ORDER_LOCK);
+        final long dependentOrder = dependent.dependencyOrder;
+        final long dependencyOrder = dependency.dependencyOrder;
+        if (dependentOrder < dependencyOrder) {
+            return null;
+        }
+        if (dependent == dependency) {
+            return Collections.<ServiceControllerImpl<?>>singletonList(dependent);
+        }
+        // the services the dependency depends on, placed before the dependent, mapped to the service they were reached from
+        final Map<ServiceControllerImpl<?>, ServiceControllerImpl<?>> forward = new IdentityHashMap<ServiceControllerImpl<?>, ServiceControllerImpl<?>>();
+        final List<ServiceControllerImpl<?>> stack = new ArrayList<ServiceControllerImpl<?>>();
+        forward.put(dependency, null);
+        stack.add(dependency);
+        while (!stack.isEmpty()) {
+            final ServiceControllerImpl<?> service = stack.remove(stack.size() - 1);
+            for (ServiceControllerImpl<?> next: getDependencies(service)) {
+                if (next == dependent) {
+                    return getCycle(dependent, service, forward);
+                }
+                if (next.dependencyOrder < dependentOrder && !forward.containsKey(next)) {
+                    forward.put(next, service);
+                    stack.add(next);
+                }
+            }
+        }
+        // the services depending on the dependent, placed after the dependency
+        final Map<ServiceControllerImpl<?>, ServiceControllerImpl<?>> backward = new IdentityHashMap<ServiceControllerImpl<?>, ServiceControllerImpl<?>>();
+        backward.put(dependent, null);
+        stack.add(dependent);
+        while (!stack.isEmpty()) {
+            final ServiceControllerImpl<?> service = stack.remove(stack.size() - 1);
+            for (ServiceControllerImpl<?> next: getDependents(service)) {
+                if (next.dependencyOrder > dependencyOrder && !backward.containsKey(next)) {
+                    backward.put(next, service);
+                    stack.add(next);
+                }
+            }
+        }
+        reorder(new ArrayList<ServiceControllerImpl<?>>(backward.keySet()), new ArrayList<ServiceControllerImpl<?>>(forward.keySet()));
+        return null;
+    }
+
+    /**
+     * Moves the dependents before the dependencies, reusing the positions they occupy.
+     */
+    private static void reorder(final List<ServiceControllerImpl<?>> dependents, final List<ServiceControllerImpl<?>> dependencies) {
+        Collections.sort(dependents, BY_ORDER);
+        Collections.sort(dependencies, BY_ORDER);
+        final long[] orders = new long[dependents.size() + dependencies.size()];
+        int i = 0;
+        for (ServiceControllerImpl<?> service: dependents) {
+            orders[i++] = service.dependencyOrder;
+        }
+        for (ServiceControllerImpl<?> service: dependencies) {
+            orders[i++] = service.dependencyOrder;
+        }
+        Arrays.sort(orders);
+        i = 0;
+        for (ServiceControllerImpl<?> service: dependents) {
+            service.dependencyOrder = orders[i++];
+        }
+        for (ServiceControllerImpl<?> service: dependencies) {
+            service.dependencyOrder = orders[i++];
+        }
+    }
+
+    private static List<ServiceControllerImpl<?>> getCycle(final ServiceControllerImpl<?> dependent, final ServiceControllerImpl<?> last, final Map<ServiceControllerImpl<?>, ServiceControllerImpl<?>> forward) {
+        final List<ServiceControllerImpl<?>> cycle = new ArrayList<ServiceControllerImpl<?>>();
+        for (ServiceControllerImpl<?> service = last; service != null; service = forward.get(service)) {
+            cycle.add(service);
+        }
+        cycle.add(dependent);
+        Collections.reverse(cycle);
+        return cycle;
+    }
+
+    /**
+     * Gets the checked services {@code service} depends on.
+     */
+    private static List<ServiceControllerImpl<?>> getDependencies(final ServiceControllerImpl<?> service) {
+        final List<ServiceControllerImpl<?>> dependencies = new ArrayList<ServiceControllerImpl<?>>();
         for (DependencyImpl<?> dependency: service.getDependencies()) {
             final ServiceControllerImpl<?> dependencyController = dependency.getDependencyRegistration().getController();
-            if (dependencyController != null && !checkedServices.contains(dependencyController)) {
-                if (pathTrace.containsValue(dependencyController)) {
-                    final ServiceName[] cycle = pathTrace.keySet().toArray(new ServiceName[pathTrace.size()]);
-                    context.addProblem(MSCLogger.SERVICE.dependencyCycle(cycle));
-                    return;
+            if (dependencyController != null && dependencyController.dependencyOrder != UNORDERED) {
+                dependencies.add(dependencyController);
+            }
+        }
+        return dependencies;
+    }
+
+    /**
+     * Gets the checked services depending on {@code service}, through any of its registrations.
+     */
+    private static List<ServiceControllerImpl<?>> getDependents(final ServiceControllerImpl<?> service) {
+        final List<ServiceControllerImpl<?>> dependents = new ArrayList<ServiceControllerImpl<?>>();
+        addDependents(service.getPrimaryRegistration(), dependents);
+        for (Registration registration: service.getAliasRegistrations()) {
+            addDependents(registration, dependents);
+        }
+        return dependents;
+    }
+
+    private static void addDependents(final Registration registration, final List<ServiceControllerImpl<?>> dependents) {
+        final IncomingDependencies incomingDependencies = registration.getIncomingDependencies();
+        for (int i = 0, slots = incomingDependencies.slots(); i < slots; i++) {
+            final DependencyImpl<?> incomingDependency = incomingDependencies.get(i);
+            if (incomingDependency != null) {
+                final ServiceControllerImpl<?> dependent = incomingDependency.dependent;
+                if (dependent != null && dependent.dependencyOrder != UNORDERED) {
+                    dependents.add(dependent);
                 }
-                final ServiceName dependencyName = dependency.getDependencyRegistration().getServiceName();
-                pathTrace.put(dependencyName, dependencyController);
-                verifyCycle(dependencyController, pathTrace, checkedServices, context);
-                checkedServices.add(dependencyController);
-                pathTrace.remove(dependencyName);
             }
         }
     }
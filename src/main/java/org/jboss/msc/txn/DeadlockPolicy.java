@@ -0,0 +1,158 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.msc.txn;
+
+import static org.jboss.msc._private.MSCLogger.TXN;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Policies deciding how a transaction waiting for another one is kept from deadlocking.
+ * <p>
+ * The policy of a {@link TransactionController} applies to every wait between transactions created by it, such as the
+ * waits for locks held by other transactions.  A wait given up by the policy fails with a {@link DeadlockException}.
+ * The prevention policies compare the age of the transactions, as given by their start time, and never maintain a
+ * wait-for graph: they give up more waits than detection does, but their cost does not depend on the waits already
+ * registered.
+ */
+public abstract class DeadlockPolicy {
+
+    /**
+     * Waits are registered in a wait-for graph, and a wait is only given up if it closes a cycle of waits.
+     */
+    public static final DeadlockPolicy DETECTION = new DeadlockPolicy() {
+        void waitFor(final Transaction dependent, final Transaction dependency) throws DeadlockException, InterruptedException {
+            Transactions.waitFor(dependent, dependency);
+        }
+
+        Transactions.Wait suspend(final Transaction dependent, final Transaction dependency, final Runnable abortTask) throws DeadlockException {
+            return Transactions.suspendFor(dependent, dependency, abortTask);
+        }
+    };
+
+    /**
+     * An older transaction waits for a younger one, a younger transaction never waits for an older one: its wait is
+     * given up at once.
+     */
+    public static final DeadlockPolicy WAIT_DIE = new DeadlockPolicy() {
+        void waitFor(final Transaction dependent, final Transaction dependency) throws DeadlockException, InterruptedException {
+            Transactions.waitOrDie(dependent, dependency);
+        }
+
+        Transactions.Wait suspend(final Transaction dependent, final Transaction dependency, final Runnable abortTask) throws DeadlockException {
+            return Transactions.suspendOrDie(dependent, dependency, abortTask);
+        }
+    };
+
+    /**
+     * A younger transaction waits for an older one.  An older transaction wounds the younger one it waits for: the
+     * waits of the younger transaction are given up, the current ones and the following ones, so that it finishes.
+     */
+    public static final DeadlockPolicy WOUND_WAIT = new DeadlockPolicy() {
+        void waitFor(final Transaction dependent, final Transaction dependency) throws DeadlockException, InterruptedException {
+            Transactions.woundOrWait(dependent, dependency);
+        }
+
+        Transactions.Wait suspend(final Transaction dependent, final Transaction dependency, final Runnable abortTask) throws DeadlockException {
+            return Transactions.woundOrSuspend(dependent, dependency, abortTask);
+        }
+    };
+
+    DeadlockPolicy() {
+    }
+
+    /**
+     * Get the policy giving up every wait which lasted longer than the given time.  No deadlock is detected, a deadlock
+     * lasts until one of its waits times out.  Tasks waiting for a lock under this policy block their thread, as there
+     * is no thread to time out the wait of a suspended task.
+     *
+     * @param timeout the maximum time to wait for another transaction
+     * @param unit the unit of {@code timeout}
+     * @return the policy
+     */
+    public static DeadlockPolicy timeout(final long timeout, final TimeUnit unit) {
+        if (unit == null) {
+            throw TXN.methodParameterIsNull("unit");
+        }
+        if (timeout <= 0L) {
+            throw TXN.methodParameterIsInvalid("timeout");
+        }
+        final long timeoutNanos = unit.toNanos(timeout);
+        return new DeadlockPolicy() {
+            void waitFor(final Transaction dependent, final Transaction dependency) throws DeadlockException, InterruptedException {
+                Transactions.waitFor(dependent, dependency, timeoutNanos);
+            }
+
+            boolean canSuspend() {
+                return false;
+            }
+
+            Transactions.Wait suspend(final Transaction dependent, final Transaction dependency, final Runnable abortTask) throws DeadlockException {
+                // no thread could time out a suspended wait, block the current one instead
+                boolean interrupted = false;
+                try {
+                    for (;;) {
+                        try {
+                            Transactions.waitFor(dependent, dependency, timeoutNanos);
+                            return null;
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                    }
+                } finally {
+                    if (interrupted) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Cause {@code dependent} to wait for {@code dependency} to terminate, unless this policy gives up the wait.
+     *
+     * @param dependent the waiting transaction
+     * @param dependency the transaction waited for
+     * @throws DeadlockException if the wait was given up
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    abstract void waitFor(Transaction dependent, Transaction dependency) throws DeadlockException, InterruptedException;
+
+    /**
+     * Determine whether this policy can register waits of suspended tasks.
+     *
+     * @return {@code true} if {@link #suspend} does not block the current thread
+     */
+    boolean canSuspend() {
+        return true;
+    }
+
+    /**
+     * Register a wait of {@code dependent} for {@code dependency} which does not block the current thread, unless this
+     * policy gives up the wait.  The wait lasts until {@link Transactions#resume(Transactions.Wait) resumed}.  A policy
+     * which {@link #canSuspend() cannot suspend} waits blocks instead, and returns {@code null} once {@code dependency}
+     * terminated.
+     *
+     * @param dependent the waiting transaction
+     * @param dependency the transaction waited for
+     * @param abortTask the task to run if the wait is given up later on
+     * @return the wait, or {@code null} if one of the transactions terminated in the meantime
+     * @throws DeadlockException if the wait was given up
+     */
+    abstract Transactions.Wait suspend(Transaction dependent, Transaction dependency, Runnable abortTask) throws DeadlockException;
+}
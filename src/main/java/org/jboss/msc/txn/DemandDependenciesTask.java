@@ -17,6 +17,9 @@
  */
 package org.jboss.msc.txn;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Task for demanding dependencies.
  * 
@@ -67,14 +70,20 @@ class DemandDependenciesTask implements Executable<Void> {
     }
 
     @Override
-    public void execute(ExecuteContext<Void> context) {
+    public void execute(final ExecuteContext<Void> context) {
         assert context instanceof TaskFactory;
-        try {
-            for (DependencyImpl<?> dependency: service.getDependencies()) {
-                dependency.demand(transaction, (TaskFactory)context);
-            }
-        } finally {
-            context.complete();
+        final List<TransactionalObject> locks = new ArrayList<TransactionalObject>();
+        for (DependencyImpl<?> dependency: service.getDependencies()) {
+            dependency.collectDemandLocks(locks);
         }
+        // lock beforehand without holding this thread while the dependencies are locked by other transactions
+        TransactionalObject.lockWriteAll(transaction, (TaskFactory)context, locks, new TransactionalObject.LockedWork(context) {
+            @Override
+            void run() {
+                for (DependencyImpl<?> dependency: service.getDependencies()) {
+                    dependency.demand(transaction, (TaskFactory)context);
+                }
+            }
+        });
     }
 }
@@ -20,6 +20,8 @@ package org.jboss.msc.txn;
 
 import static org.jboss.msc._private.MSCLogger.SERVICE;
 
+import java.util.List;
+
 import org.jboss.msc._private.MSCLogger;
 import org.jboss.msc.service.Dependency;
 import org.jboss.msc.service.DependencyFlag;
@@ -57,6 +59,11 @@ class DependencyImpl<T> implements Dependency<T> {
      * The incoming dependency.
      */
     protected ServiceControllerImpl<?> dependent;
+    /**
+     * The slot of this dependency in the incoming dependencies of its registration, or -1 if it is not there.  Guarded
+     * by the monitor of the registration.
+     */
+    int incomingSlot = -1;
 
     /**
      * Creates a simple dependency to {@code dependencyRegistration}.
@@ -159,6 +166,21 @@ class DependencyImpl<T> implements Dependency<T> {
         }
     }
 
+    /**
+     * Collects the objects locked by demanding or undemanding this dependency, so that they can be locked beforehand.
+     * 
+     * @param objects the list to add the objects to
+     */
+    void collectDemandLocks(List<TransactionalObject> objects) {
+        if (propagateDemand) {
+            objects.add(dependencyRegistration);
+            final ServiceControllerImpl<?> controller = dependencyRegistration.getController();
+            if (controller != null) {
+                objects.add(controller);
+            }
+        }
+    }
+
     /**
      * Removes demand for this dependency to be satisfied.
      * 
@@ -0,0 +1,258 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.msc.txn;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jboss.msc.service.ServiceName;
+
+import org.jboss.msc.txn.TransactionalObject.Epoch;
+
+/**
+ * An immutable index of the committed dependency graph of a registry, as of an epoch.
+ * <p>
+ * Nodes are the {@link Registration#getId() ids} of the registrations.  A registration having a service points to the
+ * registrations its service depends on, an alias registration points to the primary registration of its service.  The
+ * edges are kept in compressed sparse row form, one pair of arrays per direction: the edges of node {@code i} are the
+ * entries of the row array from {@code offsets[i]} to {@code offsets[i + 1]}.  Dependencies on registrations of other
+ * registries are left out.
+ */
+final class DependencyIndex {
+
+    private static final int[] NO_EDGES = new int[0];
+
+    // registrations by id, null for the ids of registrations discarded or not committed yet
+    private final Registration[] registrations;
+    // whether the registration of each id is the primary registration of a committed service
+    private final boolean[] services;
+    private final int[] dependencyOffsets;
+    private final int[] dependencies;
+    private final int[] dependentOffsets;
+    private final int[] dependents;
+    // the registry changes counted when the index was built
+    private final int changes;
+    // transitive dependents and dependencies computed so far, by service id
+    private final ConcurrentMap<Integer, Set<ServiceName>> transitiveDependents = new ConcurrentHashMap<Integer, Set<ServiceName>>();
+    private final ConcurrentMap<Integer, Set<ServiceName>> transitiveDependencies = new ConcurrentHashMap<Integer, Set<ServiceName>>();
+
+    private DependencyIndex(final Registration[] registrations, final boolean[] services, final int[] dependencyOffsets, final int[] dependencies,
+            final int[] dependentOffsets, final int[] dependents, final int changes) {
+        this.registrations = registrations;
+        this.services = services;
+        this.dependencyOffsets = dependencyOffsets;
+        this.dependencies = dependencies;
+        this.dependentOffsets = dependentOffsets;
+        this.dependents = dependents;
+        this.changes = changes;
+    }
+
+    /**
+     * Builds the index of the graph committed as of {@code epoch}.
+     *
+     * @param registrations the registrations of the registry
+     * @param epoch         the epoch
+     * @param changes       the registry changes counted before {@code epoch} was read
+     * @return the index
+     */
+    static DependencyIndex build(final Iterable<Registration> registrations, final Epoch epoch, final int changes) {
+        int size = 0;
+        for (Registration registration: registrations) {
+            size = Math.max(size, registration.getId() + 1);
+        }
+        final Registration[] byId = new Registration[size];
+        for (Registration registration: registrations) {
+            // a registration just added has no id yet, and no committed service either
+            final int id = registration.getId();
+            if (id >= 0 && id < size) {
+                byId[id] = registration;
+            }
+        }
+        final boolean[] services = new boolean[size];
+        final Edges edges = new Edges();
+        for (int id = 0; id < size; id++) {
+            final ServiceControllerImpl<?> controller = getController(byId[id], epoch);
+            if (controller == null) {
+                continue;
+            }
+            final Registration primaryRegistration = controller.getPrimaryRegistration();
+            if (primaryRegistration != byId[id]) {
+                if (contains(byId, primaryRegistration)) {
+                    edges.add(id, primaryRegistration.getId());
+                }
+                continue;
+            }
+            services[id] = true;
+            for (DependencyImpl<?> dependency: controller.getDependencies()) {
+                final Registration dependencyRegistration = dependency.getDependencyRegistration();
+                if (contains(byId, dependencyRegistration)) {
+                    edges.add(id, dependencyRegistration.getId());
+                }
+            }
+        }
+        final int[] dependencyOffsets = new int[size + 1];
+        final int[] dependencies = new int[edges.size];
+        toRows(edges.sources, edges.targets, edges.size, dependencyOffsets, dependencies);
+        final int[] dependentOffsets = new int[size + 1];
+        final int[] dependents = new int[edges.size];
+        toRows(edges.targets, edges.sources, edges.size, dependentOffsets, dependents);
+        return new DependencyIndex(byId, services, dependencyOffsets, dependencies, dependentOffsets, dependents, changes);
+    }
+
+    private static ServiceControllerImpl<?> getController(final Registration registration, final Epoch epoch) {
+        if (registration == null) {
+            return null;
+        }
+        final ServiceControllerImpl<?> controller = (ServiceControllerImpl<?>) registration.getVersion(epoch);
+        // the controller of a removed service has no version
+        return controller == null || controller.getVersion(epoch) == null ? null : controller;
+    }
+
+    private static boolean contains(final Registration[] byId, final Registration registration) {
+        final int id = registration.getId();
+        return id >= 0 && id < byId.length && byId[id] == registration;
+    }
+
+    // counting sort of the edges by source
+    private static void toRows(final int[] sources, final int[] targets, final int edges, final int[] offsets, final int[] row) {
+        for (int i = 0; i < edges; i++) {
+            offsets[sources[i] + 1] ++;
+        }
+        for (int i = 1; i < offsets.length; i++) {
+            offsets[i] += offsets[i - 1];
+        }
+        final int[] next = Arrays.copyOf(offsets, offsets.length - 1);
+        for (int i = 0; i < edges; i++) {
+            row[next[sources[i]]++] = targets[i];
+        }
+    }
+
+    /**
+     * Gets the id of a registration.
+     *
+     * @param registration the registration
+     * @return the id, or {@code -1} if the registration is not covered by this index
+     */
+    private int getId(final Registration registration) {
+        return contains(registrations, registration) ? registration.getId() : -1;
+    }
+
+    int getChanges() {
+        return changes;
+    }
+
+    /**
+     * Gets the services which transitively depend on the service of a registration.
+     *
+     * @param registration the primary or an alias registration of the service
+     * @return the names of the dependent services, empty if the registration has no service
+     */
+    Set<ServiceName> getTransitiveDependents(final Registration registration) {
+        return getClosure(registration, dependentOffsets, dependents, transitiveDependents);
+    }
+
+    /**
+     * Gets the services the service of a registration transitively depends on.
+     *
+     * @param registration the primary or an alias registration of the service
+     * @return the names of the services depended on, empty if the registration has no service
+     */
+    Set<ServiceName> getTransitiveDependencies(final Registration registration) {
+        return getClosure(registration, dependencyOffsets, dependencies, transitiveDependencies);
+    }
+
+    private Set<ServiceName> getClosure(final Registration registration, final int[] offsets, final int[] row, final ConcurrentMap<Integer, Set<ServiceName>> closures) {
+        int id = getId(registration);
+        if (id >= 0 && !services[id]) {
+            // an alias registration points to the primary registration of its service only
+            id = dependencyOffsets[id] < dependencyOffsets[id + 1] ? dependencies[dependencyOffsets[id]] : -1;
+        }
+        if (id < 0) {
+            return Collections.emptySet();
+        }
+        Set<ServiceName> closure = closures.get(id);
+        if (closure == null) {
+            closure = computeClosure(id, offsets, row);
+            closures.putIfAbsent(id, closure);
+        }
+        return closure;
+    }
+
+    // breadth first search, one bit per id, the ids reached by each step are merged a word at a time
+    private Set<ServiceName> computeClosure(final int id, final int[] offsets, final int[] row) {
+        final int words = (registrations.length + 63) >>> 6;
+        final long[] reached = new long[words];
+        long[] frontier = new long[words];
+        long[] next = new long[words];
+        reached[id >>> 6] = frontier[id >>> 6] = 1L << id;
+        boolean expanding = true;
+        while (expanding) {
+            for (int word = 0; word < words; word++) {
+                for (long bits = frontier[word]; bits != 0; bits &= bits - 1) {
+                    final int node = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    for (int edge = offsets[node]; edge < offsets[node + 1]; edge++) {
+                        next[row[edge] >>> 6] |= 1L << row[edge];
+                    }
+                }
+            }
+            expanding = false;
+            for (int word = 0; word < words; word++) {
+                next[word] &= ~reached[word];
+                reached[word] |= next[word];
+                expanding |= next[word] != 0;
+            }
+            final long[] expanded = frontier;
+            frontier = next;
+            next = expanded;
+            Arrays.fill(next, 0);
+        }
+        reached[id >>> 6] &= ~(1L << id);
+        final Set<ServiceName> closure = new HashSet<ServiceName>();
+        for (int word = 0; word < words; word++) {
+            for (long bits = reached[word]; bits != 0; bits &= bits - 1) {
+                final int node = (word << 6) + Long.numberOfTrailingZeros(bits);
+                if (services[node]) {
+                    closure.add(registrations[node].getServiceName());
+                }
+            }
+        }
+        return Collections.unmodifiableSet(closure);
+    }
+
+    /**
+     * Edges collected while building, as parallel arrays of sources and targets.
+     */
+    private static final class Edges {
+        private int[] sources = NO_EDGES;
+        private int[] targets = NO_EDGES;
+        private int size;
+
+        private void add(final int source, final int target) {
+            if (size == sources.length) {
+                sources = Arrays.copyOf(sources, Math.max(16, size << 1));
+                targets = Arrays.copyOf(targets, sources.length);
+            }
+            sources[size] = source;
+            targets[size++] = target;
+        }
+    }
+}
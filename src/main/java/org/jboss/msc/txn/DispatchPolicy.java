@@ -0,0 +1,40 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.txn;
+
+/**
+ * Policies deciding where the work triggered from a user thread runs.
+ * <p>
+ * A user thread is a thread calling into a transaction or task, such as {@link TransactionController#prepare} or
+ * {@link ExecuteContext#complete()}.  Work triggered by such a call must not block the caller, so the default policy
+ * hands it to the transaction executor.
+ */
+public enum DispatchPolicy {
+    /**
+     * All work triggered from a user thread is run by the transaction executor.
+     */
+    EXECUTOR,
+    /**
+     * Completion listeners, and internal task parts which never block, are run directly on the calling thread.
+     * User task parts are still run by the transaction executor.  This saves several executor hand-offs per
+     * transaction, which dominate the cost of small transactions.
+     */
+    DIRECT_WHEN_CHEAP,
+    ;
+}
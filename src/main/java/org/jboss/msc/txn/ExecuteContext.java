@@ -58,4 +58,12 @@ public interface ExecuteContext<T> extends TransactionalContext, ReportableConte
      * @throws IllegalStateException if this context is not accepting new tasks
      */
     TaskBuilder<Void> newTask() throws IllegalStateException;
+
+    /**
+     * Adds a graph of tasks to {@code transaction}, installed together when the graph is released.
+     *
+     * @return the builder for the graph
+     * @throws IllegalStateException if this context is not accepting new tasks
+     */
+    TaskGraphBuilder newTaskGraph() throws IllegalStateException;
 }
@@ -0,0 +1,354 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.txn;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.jboss.msc._private.MSCLogger;
+
+/**
+ * A linear chain of steps run as a single task.
+ * <p>
+ * Each step behaves as if it were a separate task depending on the previous step only: it is executed as soon as the
+ * previous step completed, in the same scheduled unit and without an executor hop.  Every step keeps its own result and
+ * problems through the controller returned by {@link #addStep(Executable, Object)}.  The validatable, committable and
+ * revertible parts of the steps are run in the order a chain of tasks would run them: validation and commit in step
+ * order, rollback in reverse order and only for the steps which completed.
+ * <p>
+ * A step may have an executor of its own, for work that may block for a long time.  Such a step is handed to its
+ * executor, and the following step is handed back to the executor of the task, so that the other steps never run on
+ * the executor of a blocking step.
+ */
+final class FusedTask implements Executable<Void>, Validatable, Revertible, Committable {
+
+    private static final Object NO_RESULT = new Object();
+
+    private final Transaction transaction;
+    private final List<Step<?>> steps = new ArrayList<Step<?>>(3);
+    private boolean validatable;
+    private boolean revertible;
+    private boolean committable;
+    private volatile int completedSteps;
+
+    FusedTask(final Transaction transaction) {
+        this.transaction = transaction;
+    }
+
+    /**
+     * Add a step to the end of the chain.  If the step implements any of {@link Validatable}, {@link Revertible} or
+     * {@link Committable}, the corresponding part is run for this step.
+     *
+     * @param executable the step
+     * @return the controller of the step, for retrieving its result once it completed
+     */
+    <T> TaskController<T> addStep(final Executable<T> executable) {
+        return addStep(executable, executable);
+    }
+
+    /**
+     * Add a step to the end of the chain.
+     *
+     * @param executable the step
+     * @param traits the object implementing the validatable, revertible and committable parts of the step, if any
+     * @return the controller of the step, for retrieving its result once it completed
+     */
+    <T> TaskController<T> addStep(final Executable<T> executable, final Object traits) {
+        return addStep(executable, traits, null);
+    }
+
+    /**
+     * Add a step to the end of the chain, executed by the given executor.
+     *
+     * @param executable the step
+     * @param traits the object implementing the validatable, revertible and committable parts of the step, if any
+     * @param executor the executor running the step, or {@code null} to run it on the executor of the task
+     * @return the controller of the step, for retrieving its result once it completed
+     */
+    <T> TaskController<T> addStep(final Executable<T> executable, final Object traits, final Executor executor) {
+        final Step<T> step = new Step<T>(executable, traits, executor);
+        validatable |= step.validatable != null;
+        revertible |= step.revertible != null;
+        committable |= step.committable != null;
+        steps.add(step);
+        return step;
+    }
+
+    /**
+     * Create the builder of the task running this chain.  The task only gets the parts some step actually has.
+     *
+     * @param taskFactory the task factory
+     * @return the task builder
+     */
+    TaskBuilder<Void> newTask(final TaskFactory taskFactory) {
+        return taskFactory.newTask(this).setValidatable(validatable ? this : null).setRevertible(revertible ? this : null).setCommittable(committable ? this : null);
+    }
+
+    @Override
+    public void execute(final ExecuteContext<Void> context) {
+        execute(0, context);
+    }
+
+    private void execute(final int index, final ExecuteContext<Void> context) {
+        completedSteps = index;
+        if (index == steps.size()) {
+            context.complete();
+            return;
+        }
+        final Step<?> step = steps.get(index);
+        // the previous step ran on its own executor, or on the executor of the task
+        final Executor previousExecutor = index == 0 ? null : steps.get(index - 1).executor;
+        if (step.executor == previousExecutor) {
+            step.execute(index, context);
+            return;
+        }
+        final Runnable command = new Runnable() {
+            public void run() {
+                step.execute(index, context);
+            }
+        };
+        try {
+            (step.executor != null ? step.executor : ((TaskFactory) context).getExecutor()).execute(command);
+        } catch (RejectedExecutionException e) {
+            // the step still has to run, the calling thread runs it
+            command.run();
+        }
+    }
+
+    @Override
+    public void validate(final ValidateContext context) {
+        validate(0, context);
+    }
+
+    private void validate(final int index, final ValidateContext context) {
+        int i = index;
+        while (i < steps.size() && steps.get(i).validatable == null) i++;
+        if (i == steps.size()) {
+            context.complete();
+            return;
+        }
+        steps.get(i).validate(i, context);
+    }
+
+    @Override
+    public void commit(final CommitContext context) {
+        commit(0, context);
+    }
+
+    private void commit(final int index, final CommitContext context) {
+        int i = index;
+        while (i < steps.size() && steps.get(i).committable == null) i++;
+        if (i == steps.size()) {
+            context.complete();
+            return;
+        }
+        final Step<?> step = steps.get(i);
+        final int next = i + 1;
+        try {
+            step.committable.commit(new CommitContext() {
+                public void complete() {
+                    commit(next, context);
+                }
+            });
+        } catch (Throwable t) {
+            MSCLogger.TASK.taskCommitFailed(t, step.committable);
+        }
+    }
+
+    @Override
+    public void rollback(final RollbackContext context) {
+        rollback(completedSteps - 1, context);
+    }
+
+    private void rollback(final int index, final SimpleWorkContext context) {
+        int i = index;
+        while (i >= 0 && steps.get(i).revertible == null) i--;
+        if (i < 0) {
+            context.complete();
+            return;
+        }
+        final Step<?> step = steps.get(i);
+        final int next = i - 1;
+        try {
+            step.revertible.rollback(new RollbackContext() {
+                public void complete() {
+                    rollback(next, context);
+                }
+            });
+        } catch (Throwable t) {
+            MSCLogger.TASK.taskRollbackFailed(t, step.revertible);
+        }
+    }
+
+    /**
+     * A step of the chain, which is also the controller handed out for it.
+     */
+    private final class Step<T> implements TaskController<T> {
+        private final Executable<T> executable;
+        private final Validatable validatable;
+        private final Revertible revertible;
+        private final Committable committable;
+        private final Executor executor;
+        @SuppressWarnings("unchecked")
+        private volatile T result = (T) NO_RESULT;
+
+        private Step(final Executable<T> executable, final Object traits, final Executor executor) {
+            this.executable = executable;
+            this.executor = executor;
+            validatable = traits instanceof Validatable ? (Validatable) traits : null;
+            revertible = traits instanceof Revertible ? (Revertible) traits : null;
+            committable = traits instanceof Committable ? (Committable) traits : null;
+        }
+
+        public Transaction getTransaction() {
+            return transaction;
+        }
+
+        public T getResult() throws IllegalStateException {
+            final T result = this.result;
+            if (result == NO_RESULT) {
+                throw new IllegalStateException("No result is available");
+            }
+            return result;
+        }
+
+        private void execute(final int index, final ExecuteContext<Void> context) {
+            final class StepContextImpl extends StepContext implements ExecuteContext<T>, TaskFactory {
+                StepContextImpl() {
+                    super(context);
+                }
+
+                @Override
+                public void complete(final T result) {
+                    if (completedSteps != index) {
+                        throw new IllegalStateException("Task may not be completed now");
+                    }
+                    Step.this.result = result;
+                    FusedTask.this.execute(index + 1, context);
+                }
+
+                @Override
+                public void complete() {
+                    complete(null);
+                }
+
+                @Override
+                public boolean isCancelRequested() {
+                    return context.isCancelRequested();
+                }
+
+                @Override
+                public void cancelled() {
+                    if (! context.isCancelRequested()) {
+                        // let the task report the illegal cancellation
+                        context.cancelled();
+                        return;
+                    }
+                    // the preceding steps would have been reverted as separate tasks, revert them before cancelling
+                    rollback(index - 1, new SimpleWorkContext() {
+                        public void complete() {
+                            context.cancelled();
+                        }
+                    });
+                }
+
+                @Override
+                public <N> TaskBuilder<N> newTask(final Executable<N> task) throws IllegalStateException {
+                    return context.newTask(task);
+                }
+
+                @Override
+                public TaskBuilder<Void> newTask() throws IllegalStateException {
+                    return context.newTask();
+                }
+
+                @Override
+                public TaskGraphBuilder newTaskGraph() throws IllegalStateException {
+                    return context.newTaskGraph();
+                }
+
+                @Override
+                public Executor getExecutor() {
+                    return executor != null ? executor : ((TaskFactory) context).getExecutor();
+                }
+            }
+            try {
+                executable.execute(new StepContextImpl());
+            } catch (Throwable t) {
+                MSCLogger.TASK.taskExecutionFailed(t, executable);
+                context.addProblem(new Problem(this, t, Problem.Severity.CRITICAL));
+            }
+        }
+
+        private void validate(final int index, final ValidateContext context) {
+            final class StepContextImpl extends StepContext implements ValidateContext {
+                StepContextImpl() {
+                    super(context);
+                }
+
+                @Override
+                public void complete() {
+                    FusedTask.this.validate(index + 1, context);
+                }
+            }
+            try {
+                validatable.validate(new StepContextImpl());
+            } catch (Throwable t) {
+                MSCLogger.TASK.taskValidationFailed(t, validatable);
+            }
+        }
+
+        /**
+         * Base of the contexts handed to a step, reporting problems on behalf of the step.
+         */
+        private abstract class StepContext implements ReportableContext {
+            private final ReportableContext context;
+
+            StepContext(final ReportableContext context) {
+                this.context = context;
+            }
+
+            public void addProblem(final Problem reason) {
+                context.addProblem(reason);
+            }
+
+            public void addProblem(final Problem.Severity severity, final String message) {
+                addProblem(new Problem(Step.this, message, severity));
+            }
+
+            public void addProblem(final Problem.Severity severity, final String message, final Throwable cause) {
+                addProblem(new Problem(Step.this, message, cause, severity));
+            }
+
+            public void addProblem(final String message, final Throwable cause) {
+                addProblem(new Problem(Step.this, message, cause));
+            }
+
+            public void addProblem(final String message) {
+                addProblem(new Problem(Step.this, message));
+            }
+
+            public void addProblem(final Throwable cause) {
+                addProblem(new Problem(Step.this, cause));
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.msc.txn;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The incoming dependencies of a registration.
+ * <p>
+ * Dependencies are kept in slots of fixed size chunks.  Every dependency remembers its slot, so adding and removing
+ * are constant time, and the slots of removed dependencies are reused by the next additions.  Chunks are never copied
+ * nor released: readers iterate over the slots without locking and without allocating, skipping the empty ones, and see
+ * the dependencies added and removed meanwhile or not.
+ * <p>
+ * Modifications must hold the monitor of the registration.
+ */
+final class IncomingDependencies {
+
+    private static final int CHUNK_SHIFT = 5;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    @SuppressWarnings("unchecked")
+    private static final AtomicReferenceArray<DependencyImpl<?>>[] NO_CHUNKS = new AtomicReferenceArray[0];
+    private static final int[] NO_SLOTS = new int[0];
+
+    // the chunks, created on first use and replaced by a larger array once all are used
+    private volatile AtomicReferenceArray<DependencyImpl<?>>[] chunks = NO_CHUNKS;
+    // the number of slots ever used, readers never look past it
+    private volatile int slots;
+    // the free slots below the number of slots ever used
+    private int[] freeSlots = NO_SLOTS;
+    private int freeCount;
+    private int size;
+
+    /**
+     * Adds a dependency.
+     *
+     * @param dependency the dependency
+     * @return {@code true} if the dependency was added, {@code false} if it was already present
+     */
+    boolean add(final DependencyImpl<?> dependency) {
+        if (dependency.incomingSlot >= 0) {
+            return false;
+        }
+        final int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+            chunks[slot >>> CHUNK_SHIFT].set(slot & CHUNK_MASK, dependency);
+        } else {
+            slot = slots;
+            final int chunk = slot >>> CHUNK_SHIFT;
+            AtomicReferenceArray<DependencyImpl<?>>[] chunks = this.chunks;
+            if (chunk == chunks.length) {
+                chunks = grow(chunks);
+            }
+            if (chunks[chunk] == null) {
+                chunks[chunk] = new AtomicReferenceArray<DependencyImpl<?>>(CHUNK_SIZE);
+            }
+            chunks[chunk].set(slot & CHUNK_MASK, dependency);
+            // publish the slot once it is filled
+            slots = slot + 1;
+        }
+        dependency.incomingSlot = slot;
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes a dependency.
+     *
+     * @param dependency the dependency
+     * @return {@code true} if the dependency was removed, {@code false} if it was not present
+     */
+    boolean remove(final DependencyImpl<?> dependency) {
+        final int slot = dependency.incomingSlot;
+        if (slot < 0) {
+            return false;
+        }
+        chunks[slot >>> CHUNK_SHIFT].set(slot & CHUNK_MASK, null);
+        dependency.incomingSlot = -1;
+        if (freeCount == freeSlots.length) {
+            final int[] freeSlots = new int[Math.max(CHUNK_SIZE, this.freeSlots.length << 1)];
+            System.arraycopy(this.freeSlots, 0, freeSlots, 0, freeCount);
+            this.freeSlots = freeSlots;
+        }
+        freeSlots[freeCount++] = slot;
+        size--;
+        return true;
+    }
+
+    boolean contains(final DependencyImpl<?> dependency) {
+        return dependency.incomingSlot >= 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gets the number of slots to iterate over.
+     *
+     * @return the number of slots
+     */
+    int slots() {
+        return slots;
+    }
+
+    /**
+     * Gets the dependency in a slot.
+     *
+     * @param slot the slot, lower than {@link #slots()}
+     * @return the dependency, or {@code null} if the slot is empty
+     */
+    DependencyImpl<?> get(final int slot) {
+        return chunks[slot >>> CHUNK_SHIFT].get(slot & CHUNK_MASK);
+    }
+
+    @SuppressWarnings("unchecked")
+    private AtomicReferenceArray<DependencyImpl<?>>[] grow(final AtomicReferenceArray<DependencyImpl<?>>[] chunks) {
+        final AtomicReferenceArray<DependencyImpl<?>>[] newChunks = new AtomicReferenceArray[Math.max(1, chunks.length << 1)];
+        System.arraycopy(chunks, 0, newChunks, 0, chunks.length);
+        this.chunks = newChunks;
+        return newChunks;
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.txn;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable hash map, structured as a hash array mapped trie.  Adding a mapping copies the path from the root to the
+ * mapping only, every other node is shared with the original map: keeping an old version of the map is just keeping its
+ * reference.  Lookups and iterations read immutable nodes and never lock.
+ * <p>
+ * Each node maps 5 bits of the key hash: the entries and the sub-nodes of a node are stored in a single array, entries
+ * from the start and sub-nodes from the end, indexed by the rank of their bit in the node bitmaps.  Keys whose hashes
+ * are equal are kept in a collision node once all 32 bits are used.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+final class PersistentHashMap<K, V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    // a bitmap node per 5 bits of hash, plus a collision node
+    private static final int MAX_DEPTH = (32 + BITS - 1) / BITS + 1;
+
+    private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<Object, Object>(new BitmapNode(0, 0, new Object[0]));
+
+    private final Node root;
+
+    private PersistentHashMap(final Node root) {
+        this.root = root;
+    }
+
+    /**
+     * Gets the empty map.
+     *
+     * @return the empty map
+     */
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    /**
+     * Gets the value mapped to {@code key}.
+     *
+     * @param key the key
+     * @return the value, or {@code null} if there is none
+     */
+    @SuppressWarnings("unchecked")
+    V get(final K key) {
+        return (V) root.get(key, hash(key), 0);
+    }
+
+    /**
+     * Gets a map with the mappings of this map plus the mapping of {@code key} to {@code value}.  This map is left
+     * unchanged.
+     *
+     * @param key the key
+     * @param value the value
+     * @return the resulting map
+     */
+    PersistentHashMap<K, V> with(final K key, final V value) {
+        final Node root = this.root.with(key, value, hash(key), 0);
+        return root == this.root ? this : new PersistentHashMap<K, V>(root);
+    }
+
+    /**
+     * Gets the values of this map, in no particular order.
+     *
+     * @return the values
+     */
+    Iterable<V> values() {
+        return new Iterable<V>() {
+            public Iterator<V> iterator() {
+                return new ValueIterator<V>(root);
+            }
+        };
+    }
+
+    private static int hash(final Object key) {
+        final int h = key.hashCode();
+        // spread the high bits to the first levels
+        return h ^ (h >>> 16);
+    }
+
+    private static Node merge(final Object key1, final Object value1, final int hash1, final Object key2, final Object value2, final int hash2, final int shift) {
+        if (shift >= 32) {
+            return new CollisionNode(new Object[] {key1, value1, key2, value2});
+        }
+        final int position1 = (hash1 >>> shift) & MASK;
+        final int position2 = (hash2 >>> shift) & MASK;
+        if (position1 == position2) {
+            return new BitmapNode(0, 1 << position1, new Object[] {merge(key1, value1, hash1, key2, value2, hash2, shift + BITS)});
+        }
+        final int dataMap = 1 << position1 | 1 << position2;
+        return position1 < position2 ? new BitmapNode(dataMap, 0, new Object[] {key1, value1, key2, value2}) : new BitmapNode(dataMap, 0, new Object[] {key2, value2, key1, value1});
+    }
+
+    private static int bit(final int hash, final int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private static int index(final int bitmap, final int bit) {
+        return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    private abstract static class Node {
+
+        abstract Object get(Object key, int hash, int shift);
+
+        abstract Node with(Object key, Object value, int hash, int shift);
+
+        abstract int entryCount();
+
+        abstract Object value(int index);
+
+        abstract int nodeCount();
+
+        abstract Node node(int index);
+    }
+
+    private static final class BitmapNode extends Node {
+        // positions holding an entry, and positions holding a sub-node
+        private final int dataMap;
+        private final int nodeMap;
+        private final Object[] array;
+
+        BitmapNode(final int dataMap, final int nodeMap, final Object[] array) {
+            this.dataMap = dataMap;
+            this.nodeMap = nodeMap;
+            this.array = array;
+        }
+
+        Object get(final Object key, final int hash, final int shift) {
+            final int bit = bit(hash, shift);
+            if ((dataMap & bit) != 0) {
+                final int index = index(dataMap, bit);
+                return key.equals(array[2 * index]) ? array[2 * index + 1] : null;
+            }
+            if ((nodeMap & bit) != 0) {
+                return node(index(nodeMap, bit)).get(key, hash, shift + BITS);
+            }
+            return null;
+        }
+
+        Node with(final Object key, final Object value, final int hash, final int shift) {
+            final int bit = bit(hash, shift);
+            if ((dataMap & bit) != 0) {
+                final int index = index(dataMap, bit);
+                final Object currentKey = array[2 * index];
+                if (key.equals(currentKey)) {
+                    if (array[2 * index + 1] == value) {
+                        return this;
+                    }
+                    final Object[] array = this.array.clone();
+                    array[2 * index + 1] = value;
+                    return new BitmapNode(dataMap, nodeMap, array);
+                }
+                // two keys share this position from now on, push them down into a new sub-node
+                final Node node = merge(currentKey, array[2 * index + 1], hash(currentKey), key, value, hash, shift + BITS);
+                return withNodeForEntry(bit, index, node);
+            }
+            if ((nodeMap & bit) != 0) {
+                final int index = index(nodeMap, bit);
+                final Node node = node(index);
+                final Node newNode = node.with(key, value, hash, shift + BITS);
+                if (newNode == node) {
+                    return this;
+                }
+                final Object[] array = this.array.clone();
+                array[array.length - 1 - index] = newNode;
+                return new BitmapNode(dataMap, nodeMap, array);
+            }
+            final int index = index(dataMap, bit);
+            final Object[] array = new Object[this.array.length + 2];
+            System.arraycopy(this.array, 0, array, 0, 2 * index);
+            array[2 * index] = key;
+            array[2 * index + 1] = value;
+            System.arraycopy(this.array, 2 * index, array, 2 * index + 2, this.array.length - 2 * index);
+            return new BitmapNode(dataMap | bit, nodeMap, array);
+        }
+
+        private Node withNodeForEntry(final int bit, final int entryIndex, final Node node) {
+            final int entryCount = entryCount();
+            final int nodeCount = nodeCount();
+            final int nodeIndex = index(nodeMap, bit);
+            final Object[] array = new Object[this.array.length - 1];
+            System.arraycopy(this.array, 0, array, 0, 2 * entryIndex);
+            System.arraycopy(this.array, 2 * entryIndex + 2, array, 2 * entryIndex, 2 * (entryCount - entryIndex - 1));
+            // sub-nodes are stored from the end: the ones ranked after the new one move one slot down
+            final int nodesStart = 2 * (entryCount - 1);
+            System.arraycopy(this.array, this.array.length - nodeCount, array, nodesStart, nodeCount - nodeIndex);
+            array[array.length - 1 - nodeIndex] = node;
+            System.arraycopy(this.array, this.array.length - nodeIndex, array, array.length - nodeIndex, nodeIndex);
+            return new BitmapNode(dataMap ^ bit, nodeMap | bit, array);
+        }
+
+        int entryCount() {
+            return Integer.bitCount(dataMap);
+        }
+
+        Object value(final int index) {
+            return array[2 * index + 1];
+        }
+
+        int nodeCount() {
+            return Integer.bitCount(nodeMap);
+        }
+
+        Node node(final int index) {
+            return (Node) array[array.length - 1 - index];
+        }
+    }
+
+    private static final class CollisionNode extends Node {
+        // keys and values, all keys having the same hash
+        private final Object[] array;
+
+        CollisionNode(final Object[] array) {
+            this.array = array;
+        }
+
+        Object get(final Object key, final int hash, final int shift) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    return array[i + 1];
+                }
+            }
+            return null;
+        }
+
+        Node with(final Object key, final Object value, final int hash, final int shift) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    if (array[i + 1] == value) {
+                        return this;
+                    }
+                    final Object[] array = this.array.clone();
+                    array[i + 1] = value;
+                    return new CollisionNode(array);
+                }
+            }
+            final Object[] array = new Object[this.array.length + 2];
+            System.arraycopy(this.array, 0, array, 0, this.array.length);
+            array[this.array.length] = key;
+            array[this.array.length + 1] = value;
+            return new CollisionNode(array);
+        }
+
+        int entryCount() {
+            return array.length / 2;
+        }
+
+        Object value(final int index) {
+            return array[2 * index + 1];
+        }
+
+        int nodeCount() {
+            return 0;
+        }
+
+        Node node(final int index) {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+
+    /**
+     * Depth first iteration, keeping the path from the root to the current node.
+     */
+    private static final class ValueIterator<V> implements Iterator<V> {
+        private final Node[] nodes = new Node[MAX_DEPTH];
+        // the position in each node of the path: entries first, then sub-nodes
+        private final int[] positions = new int[MAX_DEPTH];
+        private int depth;
+        private Object next;
+
+        ValueIterator(final Node root) {
+            nodes[0] = root;
+            advance();
+        }
+
+        private void advance() {
+            while (depth >= 0) {
+                final Node node = nodes[depth];
+                final int position = positions[depth]++;
+                final int entryCount = node.entryCount();
+                if (position < entryCount) {
+                    next = node.value(position);
+                    return;
+                }
+                if (position < entryCount + node.nodeCount()) {
+                    depth++;
+                    nodes[depth] = node.node(position - entryCount);
+                    positions[depth] = 0;
+                } else {
+                    nodes[depth--] = null;
+                }
+            }
+            next = null;
+        }
+
+        public boolean hasNext() {
+            return depth >= 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        public V next() {
+            if (depth < 0) {
+                throw new NoSuchElementException();
+            }
+            final Object next = this.next;
+            advance();
+            return (V) next;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
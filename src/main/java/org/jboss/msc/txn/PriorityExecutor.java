@@ -0,0 +1,110 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.txn;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.msc._private.MSCLogger;
+
+/**
+ * An executor adapter running task work by priority.
+ * <p>
+ * Submitted work is queued here, and each submission hands the delegate executor a runnable which picks the most
+ * urgent queued work when the delegate gets to run it.  So when the delegate is saturated, the tasks with the highest
+ * {@linkplain TaskBuilder#setPriority(int) priority} run first, then the tasks with the most direct dependents not
+ * terminated yet, then the remaining work in submission order.  Work which does not belong to a task has priority
+ * {@code 0}.
+ * <p>
+ * Only direct dependents are counted: a task heading a long chain with a single dependent does not get ahead of a task
+ * with two.  Chains which matter are expected to end with a high priority task, whose priority is raised along the
+ * whole chain.
+ */
+public final class PriorityExecutor implements Executor {
+
+    private final Executor delegate;
+    private final PriorityBlockingQueue<Work> queue = new PriorityBlockingQueue<Work>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final Runnable runNext = new Runnable() {
+        public void run() {
+            final Work work = queue.poll();
+            if (work != null) {
+                work.command.run();
+            }
+        }
+    };
+
+    /**
+     * Create a new instance.
+     *
+     * @param delegate the executor running the work
+     */
+    public PriorityExecutor(final Executor delegate) {
+        if (delegate == null) {
+            throw MSCLogger.TXN.methodParameterIsNull("delegate");
+        }
+        this.delegate = delegate;
+    }
+
+    public void execute(final Runnable command) {
+        if (command == null) {
+            throw MSCLogger.TXN.methodParameterIsNull("command");
+        }
+        final Work work = new Work(command, sequence.getAndIncrement());
+        queue.add(work);
+        try {
+            delegate.execute(runNext);
+        } catch (RejectedExecutionException e) {
+            queue.remove(work);
+            throw e;
+        }
+    }
+
+    private static final class Work implements Comparable<Work> {
+        private final Runnable command;
+        private final int priority;
+        private final int dependentCount;
+        private final long sequence;
+
+        private Work(final Runnable command, final long sequence) {
+            this.command = command;
+            this.sequence = sequence;
+            if (command instanceof TaskControllerImpl.AsyncTask) {
+                final TaskControllerImpl<?>.AsyncTask task = (TaskControllerImpl<?>.AsyncTask) command;
+                priority = task.getPriority();
+                dependentCount = task.getDependentCount();
+            } else {
+                priority = 0;
+                dependentCount = 0;
+            }
+        }
+
+        public int compareTo(final Work other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            if (dependentCount != other.dependentCount) {
+                return dependentCount > other.dependentCount ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : sequence == other.sequence ? 0 : 1;
+        }
+    }
+}
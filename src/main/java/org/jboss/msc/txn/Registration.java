@@ -20,11 +20,9 @@ package org.jboss.msc.txn;
 
 import static org.jboss.msc.txn.ServiceControllerImpl.STATE_UP;
 
-import java.util.ArrayList;
-import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Set;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.Map;
 
 import org.jboss.msc.service.ServiceName;
 
@@ -38,6 +36,14 @@ final class Registration extends TransactionalObject {
 
     /** The registration name */
     private final ServiceName serviceName;
+    /** The registry creating this registration */
+    private final ServiceRegistryImpl registry;
+    /** The id of this registration, dense in its registry, or -1 until the registration is added to its registry */
+    private volatile int id = -1;
+    /**
+     * The service controller last published, guarded by the monitor.
+     */
+    private ServiceControllerImpl<?> publishedController;
     /**
      * The service controller.
      */
@@ -45,17 +51,26 @@ final class Registration extends TransactionalObject {
     /**
      * Incoming dependencies, i.e., dependent services.
      */
-    private final Set<DependencyImpl<?>> incomingDependencies = new CopyOnWriteArraySet<DependencyImpl<?>>();
+    private final IncomingDependencies incomingDependencies = new IncomingDependencies();
     /**
      * The number of dependent instances which place a demand-to-start on this registration.  If this value is > 0,
      * propagate a demand to the instance, if any.
      */
     private int upDemandedByCount;
 
-    Registration(ServiceName serviceName) {
+    Registration(ServiceRegistryImpl registry, ServiceName serviceName) {
+        this.registry = registry;
         this.serviceName = serviceName;
     }
 
+    int getId() {
+        return id;
+    }
+
+    void setId(final int id) {
+        this.id = id;
+    }
+
     ServiceName getServiceName() {
         return serviceName;
     }
@@ -71,6 +86,7 @@ final class Registration extends TransactionalObject {
             if (this.controller != null) {
                 return false;
             }
+            mutating();
             this.controller = serviceController;
             upDemanded = upDemandedByCount > 0;
         }
@@ -83,6 +99,7 @@ final class Registration extends TransactionalObject {
     void clearController(final Transaction transaction, final TaskFactory taskFactory) {
         lockWrite(transaction, taskFactory);
         synchronized (this) {
+            mutating();
             this.controller = null;
         }
     }
@@ -91,7 +108,10 @@ final class Registration extends TransactionalObject {
         lockWrite(transaction, transaction.getTaskFactory());
         final boolean dependencyUp;
         synchronized (this) {
-            incomingDependencies.add(dependency);
+            mutating();
+            if (incomingDependencies.add(dependency)) {
+                ((Snapshot) getMutationSnapshot()).changed(dependency, false);
+            }
             dependencyUp = controller != null && controller.getState() == STATE_UP;
         }
         if (dependencyUp) {
@@ -101,21 +121,36 @@ final class Registration extends TransactionalObject {
 
     void removeIncomingDependency(final Transaction transaction, final TaskFactory taskFactory, final DependencyImpl<?> dependency) {
         lockWrite(transaction, taskFactory);
-        assert incomingDependencies.contains(dependency);
-        incomingDependencies.remove(dependency);
+        synchronized (this) {
+            assert incomingDependencies.contains(dependency);
+            mutating();
+            if (incomingDependencies.remove(dependency)) {
+                ((Snapshot) getMutationSnapshot()).changed(dependency, true);
+            }
+        }
+    }
+
+    IncomingDependencies getIncomingDependencies() {
+        return incomingDependencies;
     }
 
     void serviceUp(final Transaction transaction, final TaskFactory taskFactory) {
-        for (DependencyImpl<?> incomingDependency: incomingDependencies) {
-            incomingDependency.dependencyUp(transaction, taskFactory);
+        for (int i = 0, slots = incomingDependencies.slots(); i < slots; i++) {
+            final DependencyImpl<?> incomingDependency = incomingDependencies.get(i);
+            if (incomingDependency != null) {
+                incomingDependency.dependencyUp(transaction, taskFactory);
+            }
         }
     }
 
     void serviceDown(final Transaction transaction, final TaskFactory taskFactory, final List<TaskController<?>> tasks) {
-        for (DependencyImpl<?> incomingDependency: incomingDependencies) {
-            final TaskController<?> task = incomingDependency.dependencyDown(transaction, taskFactory);
-            if (task != null) {
-                tasks.add(task);
+        for (int i = 0, slots = incomingDependencies.slots(); i < slots; i++) {
+            final DependencyImpl<?> incomingDependency = incomingDependencies.get(i);
+            if (incomingDependency != null) {
+                final TaskController<?> task = incomingDependency.dependencyDown(transaction, taskFactory);
+                if (task != null) {
+                    tasks.add(task);
+                }
             }
         }
     }
@@ -126,6 +161,7 @@ final class Registration extends TransactionalObject {
         final ServiceControllerImpl<?> controller;
         synchronized (this) {
             controller = this.controller;
+            mutating();
             if (++ upDemandedByCount > 1) {
                 return;
             }
@@ -140,6 +176,7 @@ final class Registration extends TransactionalObject {
         lockWrite(transaction, taskFactory);
         synchronized (this) {
             controller = this.controller;
+            mutating();
             if (upDemandedByCount-- > 0) {
                 return;
             }
@@ -159,33 +196,61 @@ final class Registration extends TransactionalObject {
         ((Snapshot)snapshot).apply();
     }
 
+    @Override
+    Object takeVersion() {
+        if (controller != publishedController) {
+            publishedController = controller;
+            registry.dependenciesChanged();
+        }
+        return controller;
+    }
+
     @Override
     protected synchronized void validate(ReportableContext context) {
-        for (DependencyImpl<?> incomingDependency: incomingDependencies) {
-            incomingDependency.validate(controller, context);
+        for (int i = 0, slots = incomingDependencies.slots(); i < slots; i++) {
+            final DependencyImpl<?> incomingDependency = incomingDependencies.get(i);
+            if (incomingDependency != null) {
+                incomingDependency.validate(controller, context);
+            }
         }
     }
 
     private final class Snapshot {
 
         private final ServiceControllerImpl<?> controller;
-        private final Collection<DependencyImpl<?>> incomingDependencies;
         private final int upDemandedByCount;
+        // incoming dependencies added or removed since the snapshot was taken, mapped to whether they were present
+        private Map<DependencyImpl<?>, Boolean> changedIncomingDependencies;
 
         // take snapshot
         public Snapshot() {
             controller = Registration.this.controller;
-            incomingDependencies = new ArrayList<DependencyImpl<?>>(Registration.this.incomingDependencies.size());
-            incomingDependencies.addAll(Registration.this.incomingDependencies);
             upDemandedByCount = Registration.this.upDemandedByCount;
         }
 
+        // record the first change of an incoming dependency, instead of copying all of them up front
+        private void changed(final DependencyImpl<?> incomingDependency, final boolean present) {
+            if (changedIncomingDependencies == null) {
+                changedIncomingDependencies = new IdentityHashMap<DependencyImpl<?>, Boolean>();
+            }
+            if (!changedIncomingDependencies.containsKey(incomingDependency)) {
+                changedIncomingDependencies.put(incomingDependency, present);
+            }
+        }
+
         // revert ServiceController state to what it was when snapshot was taken; invoked on rollback
         public void apply() {
             Registration.this.controller = controller;
             Registration.this.upDemandedByCount = upDemandedByCount;
-            Registration.this.incomingDependencies.clear();
-            Registration.this.incomingDependencies.addAll(incomingDependencies);
+            if (changedIncomingDependencies != null) {
+                for (Map.Entry<DependencyImpl<?>, Boolean> entry: changedIncomingDependencies.entrySet()) {
+                    if (entry.getValue()) {
+                        incomingDependencies.add(entry.getKey());
+                    } else {
+                        incomingDependencies.remove(entry.getKey());
+                    }
+                }
+            }
         }
     }
 }
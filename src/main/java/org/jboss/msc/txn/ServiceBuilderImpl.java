@@ -18,6 +18,7 @@
 
 package org.jboss.msc.txn;
 
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -59,6 +60,8 @@ final class ServiceBuilderImpl<T> implements ServiceBuilder<T> {
     private final Transaction transaction;
     // service mode
     private ServiceMode mode;
+    // is service blocking?
+    private boolean blocking;
     // is service builder installed?
     private boolean installed;
 
@@ -93,6 +96,16 @@ final class ServiceBuilderImpl<T> implements ServiceBuilder<T> {
         return this;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ServiceBuilder<T> setBlocking(final boolean blocking) {
+        checkAlreadyInstalled();
+        this.blocking = blocking;
+        return this;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -187,7 +200,7 @@ final class ServiceBuilderImpl<T> implements ServiceBuilder<T> {
         }
         return false;
     }
-    private void checkAlreadyInstalled() {
+    void checkAlreadyInstalled() {
         if (installed) {
             throw new IllegalStateException("ServiceBuilder installation already requested.");
         }
@@ -203,24 +216,64 @@ final class ServiceBuilderImpl<T> implements ServiceBuilder<T> {
         if (installed) {
             return null;
         }
-        // create primary registration
-        final Registration registration = registry.getOrCreateRegistration(transaction, name);
+        final ServiceControllerImpl<T> serviceController = install(registry.getOrCreateRegistrations(transaction, getServiceNames()));
+        CheckDependencyCycleTask.checkDependencyCycle(serviceController, transaction);
+        return serviceController;
+    }
+
+    /**
+     * Gets the service registry the service is installed into.
+     */
+    ServiceRegistryImpl getRegistry() {
+        return registry;
+    }
 
-        // create alias registrations
-        final ServiceName[] aliasArray = aliases.toArray(new ServiceName[aliases.size()]);
-        final Registration[] aliasRegistrations = new Registration[aliasArray.length];
-        int i = 0; 
+    /**
+     * Gets the transaction installing the service.
+     */
+    Transaction getTransaction() {
+        return transaction;
+    }
+
+    /**
+     * Gets the service names to be registered, the primary name first and then the aliases.
+     */
+    ServiceName[] getServiceNames() {
+        final ServiceName[] names = new ServiceName[aliases.size() + 1];
+        names[0] = name;
+        int i = 1;
         for (ServiceName alias: aliases) {
-            aliasRegistrations[i++] = registry.getOrCreateRegistration(transaction, alias);
+            names[i++] = alias;
         }
+        return names;
+    }
+
+    /**
+     * Gets the dependencies added so far.
+     */
+    Collection<DependencyImpl<?>> getDependencies() {
+        return dependencies.values();
+    }
+
+    /**
+     * Creates and installs the service controller.  Cycle detection is left to the caller.
+     *
+     * @param registrations the registrations of {@link #getServiceNames()}, in the same order
+     * @return the installed service controller
+     */
+    ServiceControllerImpl<T> install(final Registration[] registrations) {
+        checkAlreadyInstalled();
+        installed = true;
+        final Registration registration = registrations[0];
+        final Registration[] aliasRegistrations = new Registration[registrations.length - 1];
+        System.arraycopy(registrations, 1, aliasRegistrations, 0, aliasRegistrations.length);
 
         // create dependencies
         final DependencyImpl<?>[] dependenciesArray = new DependencyImpl<?>[dependencies.size()];
         dependencies.values().toArray(dependenciesArray);
         // create and install service controller
-        final ServiceControllerImpl<T> serviceController =  new ServiceControllerImpl<T>(registration, aliasRegistrations, service, mode, dependenciesArray, transaction);
+        final ServiceControllerImpl<T> serviceController =  new ServiceControllerImpl<T>(registration, aliasRegistrations, service, mode, dependenciesArray, blocking ? registry.getBlockingExecutor() : null, transaction);
         serviceController.install(registry, transaction);
-        CheckDependencyCycleTask.checkDependencyCycle(serviceController, transaction);
         return serviceController;
     }
 }
@@ -21,6 +21,7 @@ package org.jboss.msc.txn;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import org.jboss.msc._private.MSCLogger;
 import org.jboss.msc.service.ServiceContainer;
@@ -38,9 +39,14 @@ final class ServiceContainerImpl implements ServiceContainer {
 
 
     private final Set<ServiceRegistryImpl> registries = Collections.synchronizedSet(new HashSet<ServiceRegistryImpl>());
+    private final Executor blockingExecutor;
+
+    public ServiceContainerImpl(final Executor blockingExecutor) {
+        this.blockingExecutor = blockingExecutor;
+    }
 
     public ServiceRegistry newRegistry() {
-        final ServiceRegistryImpl returnValue = new ServiceRegistryImpl();
+        final ServiceRegistryImpl returnValue = new ServiceRegistryImpl(blockingExecutor);
         registries.add(returnValue);
         return returnValue;
     }
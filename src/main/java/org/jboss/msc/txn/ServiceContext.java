@@ -18,6 +18,10 @@
 
 package org.jboss.msc.txn;
 
+import java.util.Collection;
+import java.util.List;
+
+import org.jboss.msc.service.DuplicateServiceException;
 import org.jboss.msc.service.ServiceBuilder;
 import org.jboss.msc.service.ServiceName;
 import org.jboss.msc.service.ServiceRegistry;
@@ -56,6 +60,19 @@ public interface ServiceContext {
      */
     ServiceBuilder<Void> addService(ServiceRegistry registry, ServiceName name, Transaction transaction);
 
+    /**
+     * Installs several services at once.  This is equivalent to calling {@link ServiceBuilder#install()} on every
+     * builder, except that the whole batch is validated before any service is installed, the registrations of all
+     * services are resolved in a single registry pass, and the batch is checked for dependency cycles as a whole.
+     *
+     * @param serviceBuilders the builders of the services, created by this context for {@code transaction}
+     * @param transaction     the transaction
+     * @return the controllers of the installed services, in the order of {@code serviceBuilders}
+     * @throws IllegalStateException if the installation of any of the builders was already requested
+     * @throws DuplicateServiceException if two services of the batch share a name
+     */
+    List<ServiceController> installAll(Collection<? extends ServiceBuilder<?>> serviceBuilders, Transaction transaction) throws IllegalStateException, DuplicateServiceException;
+
     /**
      * Removes a service, causing this service to stop if it is {@code UP}.
      *
@@ -20,6 +20,17 @@ package org.jboss.msc.txn;
 import static org.jboss.msc._private.MSCLogger.SERVICE;
 import static org.jboss.msc._private.MSCLogger.TXN;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.msc.service.DuplicateServiceException;
 import org.jboss.msc.service.ServiceBuilder;
 import org.jboss.msc.service.ServiceName;
 import org.jboss.msc.service.ServiceRegistry;
@@ -50,6 +61,125 @@ class ServiceContextImpl implements ServiceContext {
         return new ServiceBuilderImpl<T>(transactionController, (ServiceRegistryImpl) registry, name, transaction);
     }
 
+    @Override
+    public List<ServiceController> installAll(final Collection<? extends ServiceBuilder<?>> serviceBuilders, final Transaction transaction) {
+        validateTransaction(transaction);
+        if (serviceBuilders == null) {
+            throw SERVICE.methodParameterIsNull("serviceBuilders");
+        }
+        // validate the whole batch before anything is installed
+        final int size = serviceBuilders.size();
+        final ServiceBuilderImpl<?>[] builders = new ServiceBuilderImpl<?>[size];
+        // where the names of each builder start in the names of its registry
+        final int[] offsets = new int[size];
+        final Map<ServiceRegistryImpl, List<ServiceName>> namesByRegistry = new IdentityHashMap<ServiceRegistryImpl, List<ServiceName>>();
+        final Map<ServiceRegistryImpl, Set<ServiceName>> batchNames = new IdentityHashMap<ServiceRegistryImpl, Set<ServiceName>>();
+        int i = 0;
+        for (ServiceBuilder<?> serviceBuilder: serviceBuilders) {
+            if (!(serviceBuilder instanceof ServiceBuilderImpl) || ((ServiceBuilderImpl<?>) serviceBuilder).getTransaction() != transaction) {
+                throw new IllegalArgumentException("Service builder was not created for this transaction");
+            }
+            final ServiceBuilderImpl<?> builder = (ServiceBuilderImpl<?>) serviceBuilder;
+            builder.checkAlreadyInstalled();
+            List<ServiceName> names = namesByRegistry.get(builder.getRegistry());
+            if (names == null) {
+                names = new ArrayList<ServiceName>();
+                namesByRegistry.put(builder.getRegistry(), names);
+            }
+            Set<ServiceName> registryBatchNames = batchNames.get(builder.getRegistry());
+            if (registryBatchNames == null) {
+                registryBatchNames = new HashSet<ServiceName>();
+                batchNames.put(builder.getRegistry(), registryBatchNames);
+            }
+            for (ServiceName name: builder.getServiceNames()) {
+                if (!registryBatchNames.add(name)) {
+                    throw new DuplicateServiceException("Service " + name + " is installed twice");
+                }
+            }
+            offsets[i] = names.size();
+            Collections.addAll(names, builder.getServiceNames());
+            builders[i++] = builder;
+        }
+        // resolve the registrations of each registry in a single pass
+        final Map<Registration, Integer> owners = new IdentityHashMap<Registration, Integer>();
+        final Map<ServiceRegistryImpl, Registration[]> registrationsByRegistry = new IdentityHashMap<ServiceRegistryImpl, Registration[]>();
+        for (Map.Entry<ServiceRegistryImpl, List<ServiceName>> entry: namesByRegistry.entrySet()) {
+            final List<ServiceName> names = entry.getValue();
+            registrationsByRegistry.put(entry.getKey(), entry.getKey().getOrCreateRegistrations(transaction, names.toArray(new ServiceName[names.size()])));
+        }
+        final Registration[][] registrations = new Registration[size][];
+        for (i = 0; i < size; i++) {
+            final int length = builders[i].getServiceNames().length;
+            registrations[i] = Arrays.copyOfRange(registrationsByRegistry.get(builders[i].getRegistry()), offsets[i], offsets[i] + length);
+            for (Registration registration: registrations[i]) {
+                owners.put(registration, i);
+            }
+        }
+        // install the services of the batch before their dependencies in the batch, so that a service has all its
+        // dependents in place by the time it can start
+        final int[] order = dependenciesFirst(builders, owners);
+        final ServiceControllerImpl<?>[] controllers = new ServiceControllerImpl<?>[size];
+        for (i = size - 1; i >= 0; i--) {
+            controllers[order[i]] = builders[order[i]].install(registrations[order[i]]);
+        }
+        // check them dependencies first, which agrees with the dependency order and leaves no reordering to do
+        final List<ServiceControllerImpl<?>> checked = new ArrayList<ServiceControllerImpl<?>>(size);
+        for (int index: order) {
+            checked.add(controllers[index]);
+        }
+        CheckDependencyCycleTask.checkDependencyCycles(checked, transaction);
+        return Arrays.<ServiceController>asList(controllers);
+    }
+
+    /**
+     * Orders the builders of a batch so that every builder comes after the builders it depends on.  Builders on a
+     * dependency cycle keep their batch order, the cycle is reported by cycle detection.
+     *
+     * @param builders the builders
+     * @param owners   the index of the builder owning each registration of the batch
+     * @return the builder indexes in installation order
+     */
+    private static int[] dependenciesFirst(final ServiceBuilderImpl<?>[] builders, final Map<Registration, Integer> owners) {
+        final int size = builders.length;
+        final int[] pendingDependencies = new int[size];
+        final List<List<Integer>> dependents = new ArrayList<List<Integer>>(size);
+        for (int i = 0; i < size; i++) {
+            dependents.add(new ArrayList<Integer>(0));
+        }
+        for (int i = 0; i < size; i++) {
+            for (DependencyImpl<?> dependency: builders[i].getDependencies()) {
+                final Integer owner = owners.get(dependency.getDependencyRegistration());
+                if (owner != null && owner != i) {
+                    dependents.get(owner).add(i);
+                    pendingDependencies[i] ++;
+                }
+            }
+        }
+        final int[] order = new int[size];
+        final boolean[] ordered = new boolean[size];
+        int head = 0, tail = 0;
+        for (int i = 0; i < size; i++) {
+            if (pendingDependencies[i] == 0) {
+                order[tail++] = i;
+                ordered[i] = true;
+            }
+        }
+        while (head < tail) {
+            for (int dependent: dependents.get(order[head++])) {
+                if (--pendingDependencies[dependent] == 0) {
+                    order[tail++] = dependent;
+                    ordered[dependent] = true;
+                }
+            }
+        }
+        for (int i = 0; tail < size; i++) {
+            if (!ordered[i]) {
+                order[tail++] = i;
+            }
+        }
+        return order;
+    }
+
     @Override
     public void removeService(ServiceRegistry registry, ServiceName name, Transaction transaction) {
         validateTransaction(transaction);
@@ -23,12 +23,14 @@ import static java.lang.Thread.holdsLock;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import org.jboss.msc._private.MSCLogger;
 import org.jboss.msc.service.DuplicateServiceException;
 import org.jboss.msc.service.Service;
 import org.jboss.msc.service.ServiceMode;
 import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.service.ServiceState;
 import org.jboss.msc.service.StartContext;
 import org.jboss.msc.service.StopContext;
 import org.jboss.msc.txn.Problem.Severity;
@@ -79,6 +81,15 @@ final class ServiceControllerImpl<T> extends TransactionalObject implements Serv
      * The dependencies of this service.
      */
     private final DependencyImpl<?>[] dependencies;
+    /**
+     * The executor running the start and stop of this service, or {@code null} to use the transaction executor.
+     */
+    private final Executor executor;
+    /**
+     * The position of this service in the dependency order, {@link CheckDependencyCycleTask#UNORDERED} until it was
+     * checked for cycles.  Guarded by the dependency order lock.
+     */
+    long dependencyOrder = CheckDependencyCycleTask.UNORDERED;
     /**
      * The service value, resulting of service start.
      */
@@ -119,13 +130,15 @@ final class ServiceControllerImpl<T> extends TransactionalObject implements Serv
      * @param transaction         the active transaction
      */
     ServiceControllerImpl(final Registration primaryRegistration, final Registration[] aliasRegistrations, final Service<T> service,
-            final org.jboss.msc.service.ServiceMode mode, final DependencyImpl<?>[] dependencies, final Transaction transaction) {
+            final org.jboss.msc.service.ServiceMode mode, final DependencyImpl<?>[] dependencies, final Executor executor, final Transaction transaction) {
         this.service = service;
+        this.executor = executor;
         setMode(mode);
         this.dependencies = dependencies;
         this.aliasRegistrations = aliasRegistrations;
         this.primaryRegistration = primaryRegistration;
         lockWrite(transaction, transaction.getTaskFactory());
+        mutating();
         unsatisfiedDependencies = dependencies.length;
         for (DependencyImpl<?> dependency: dependencies) {
             dependency.setDependent(this, transaction);
@@ -167,6 +180,7 @@ final class ServiceControllerImpl<T> extends TransactionalObject implements Serv
         }
         boolean demandDependencies;
         synchronized (this) {
+            mutating();
             state |= SERVICE_ENABLED;
             transactionalInfo.setState(STATE_DOWN);
             demandDependencies = isMode(MODE_ACTIVE);
@@ -198,6 +212,14 @@ final class ServiceControllerImpl<T> extends TransactionalObject implements Serv
         return dependencies;
     }
 
+    /**
+     * Gets the executor running the start and stop of this service, or {@code null} to run them with the rest of the
+     * transition.
+     */
+    Executor getExecutor() {
+        return executor;
+    }
+
     /**
      * Gets the service.
      */
@@ -246,6 +268,7 @@ final class ServiceControllerImpl<T> extends TransactionalObject implements Serv
         lockWrite(transaction, transaction.getTaskFactory());
         synchronized(this) {
             if (!isServiceEnabled()) return;
+            mutating();
             state &= ~SERVICE_ENABLED;
             if (!isRegistryEnabled()) return;
         }
@@ -261,6 +284,7 @@ final class ServiceControllerImpl<T> extends TransactionalObject implements Serv
         lockWrite(transaction, transaction.getTaskFactory());
         synchronized(this) {
             if (isServiceEnabled()) return;
+            mutating();
             state |= SERVICE_ENABLED;
             if (!isRegistryEnabled()) return;
         }
@@ -276,6 +300,7 @@ final class ServiceControllerImpl<T> extends TransactionalObject implements Serv
         lockWrite(transaction, transaction.getTaskFactory());
         synchronized (this) {
             if (!isRegistryEnabled()) return;
+            mutating();
             state &= ~REGISTRY_ENABLED;
             if (!isServiceEnabled()) return;
         }
@@ -286,6 +311,7 @@ final class ServiceControllerImpl<T> extends TransactionalObject implements Serv
         lockWrite(transaction, transaction.getTaskFactory());
         synchronized (this) {
             if (isRegistryEnabled()) return;
+            mutating();
             state |= REGISTRY_ENABLED;
             if (!isServiceEnabled()) return;
         }
@@ -337,6 +363,7 @@ final class ServiceControllerImpl<T> extends TransactionalObject implements Serv
         lockWrite(transaction, taskFactory);
         final boolean propagate;
         synchronized (this) {
+            mutating();
             if (upDemandedByCount ++ > 0) {
                 return;
             }
@@ -359,6 +386,7 @@ final class ServiceControllerImpl<T> extends TransactionalObject implements Serv
         lockWrite(transaction, taskFactory);
         final boolean propagate;
         synchronized (this) {
+            mutating();
             if (-- upDemandedByCount > 0) {
                 return;
             }
@@ -387,6 +415,7 @@ final class ServiceControllerImpl<T> extends TransactionalObject implements Serv
     void dependentStarted(Transaction transaction, TaskFactory taskFactory) {
         lockWrite(transaction, taskFactory);
         synchronized (this) {
+            mutating();
             runningDependents++;
         }
     }
@@ -400,6 +429,7 @@ final class ServiceControllerImpl<T> extends TransactionalObject implements Serv
     void dependentStopped(Transaction transaction, TaskFactory taskFactory) {
         lockWrite(transaction, taskFactory);
         synchronized (this) {
+            mutating();
             if (--runningDependents > 0) {
                 return;
             }
@@ -414,6 +444,7 @@ final class ServiceControllerImpl<T> extends TransactionalObject implements Serv
     public TaskController<?> dependencySatisfied(Transaction transaction, TaskFactory taskFactory) {
         lockWrite(transaction, taskFactory);
         synchronized (this) {
+            mutating();
             if (-- unsatisfiedDependencies > 0) {
                 return null;
             }
@@ -424,6 +455,7 @@ final class ServiceControllerImpl<T> extends TransactionalObject implements Serv
     public TaskController<?> dependencyUnsatisfied(Transaction transaction, TaskFactory taskFactory) {
         lockWrite(transaction, taskFactory);
         synchronized (this) {
+           mutating();
            if (++ unsatisfiedDependencies > 1) {
                return null;
             }
@@ -475,6 +507,24 @@ final class ServiceControllerImpl<T> extends TransactionalObject implements Serv
         }
     }
 
+    @Override
+    Object takeVersion() {
+        // the committed state is all readers need, the service itself never changes
+        switch (getState(state)) {
+            case STATE_DOWN:
+            case STATE_STARTING:
+                return ServiceState.DOWN;
+            case STATE_UP:
+            case STATE_STOPPING:
+                return ServiceState.UP;
+            case STATE_FAILED:
+                return ServiceState.FAILED;
+            default:
+                // new or removed
+                return null;
+        }
+    }
+
     final class TransactionalInfo {
         // current transactional state
         private byte transactionalState = ServiceControllerImpl.this.currentState();
@@ -486,6 +536,7 @@ final class ServiceControllerImpl<T> extends TransactionalObject implements Serv
         private int transitionCount;
 
         synchronized void setTransition(byte transactionalState, Transaction transaction, TaskFactory taskFactory) {
+            mutating();
             this.transactionalState = transactionalState;
             assert transitionCount > 0;
             // transition has finally come to an end, and calling task equals completeTransitionTask
@@ -524,6 +575,7 @@ final class ServiceControllerImpl<T> extends TransactionalObject implements Serv
             switch (transactionalState) {
                 case STATE_DOWN:
                     if (unsatisfiedDependencies == 0 && shouldStart() && !isStarting()) {
+                        mutating();
                         transactionalState = STATE_STARTING;
                         completeTransitionTask = StartingServiceTasks.create(ServiceControllerImpl.this, transaction, taskFactory);
                         completeTransitionState = STATE_UP;
@@ -542,6 +594,7 @@ final class ServiceControllerImpl<T> extends TransactionalObject implements Serv
                     break;
                 case STATE_FAILED:
                     if ((unsatisfiedDependencies > 0 || shouldStop()) && !isStopping()) {
+                        mutating();
                         transactionalState = STATE_STOPPING;
                         completeTransitionTask = StoppingServiceTasks.createForFailedService(ServiceControllerImpl.this, transaction, taskFactory);
                         completeTransitionState = STATE_DOWN;
@@ -551,6 +604,7 @@ final class ServiceControllerImpl<T> extends TransactionalObject implements Serv
                 case STATE_UP:
                     if ((unsatisfiedDependencies > 0 || shouldStop()) && !isStopping()) {
                         final Collection<TaskController<?>> dependentTasks = notifyServiceDown(transaction, taskFactory);
+                        mutating();
                         transactionalState = STATE_STOPPING;
                         completeTransitionTask = StoppingServiceTasks.create(ServiceControllerImpl.this, dependentTasks, transaction, taskFactory);
                         completeTransitionState = STATE_DOWN;
@@ -597,6 +651,7 @@ final class ServiceControllerImpl<T> extends TransactionalObject implements Serv
             }
             // disable service
             synchronized (ServiceControllerImpl.this) {
+                mutating();
                 state &= ~SERVICE_ENABLED;
             }
             // transition disabled service, guaranteeing that it is either at DOWN state or it will get to this state
@@ -615,6 +670,7 @@ final class ServiceControllerImpl<T> extends TransactionalObject implements Serv
         }
 
         private void setState(final byte sid) {
+            mutating();
             transactionalState = sid;
         }
 
@@ -712,6 +768,11 @@ final class ServiceControllerImpl<T> extends TransactionalObject implements Serv
                     @Override
                     public TaskBuilder<Void> newTask() throws IllegalStateException {
                         throw new UnsupportedOperationException("not implemented");
+                    }
+
+                    @Override
+                    public TaskGraphBuilder newTaskGraph() throws IllegalStateException {
+                        throw new UnsupportedOperationException("not implemented");
                     }});
             } else if ((getState() == STATE_DOWN || getState() == STATE_REMOVED) && getState(state) == STATE_UP) {
                 service.start(new StartContext<T>() {
@@ -776,6 +837,11 @@ final class ServiceControllerImpl<T> extends TransactionalObject implements Serv
                         throw new UnsupportedOperationException("not implemented");
                     }
 
+                    @Override
+                    public TaskGraphBuilder newTaskGraph() throws IllegalStateException {
+                        throw new UnsupportedOperationException("not implemented");
+                    }
+
                     @Override
                     public void fail() {
                         throw new UnsupportedOperationException("not implemented");
@@ -21,16 +21,21 @@ package org.jboss.msc.txn;
 import static java.lang.Thread.holdsLock;
 import static org.jboss.msc._private.MSCLogger.TXN;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import org.jboss.msc.service.Service;
 import org.jboss.msc.service.ServiceName;
 import org.jboss.msc.service.ServiceNotFoundException;
 import org.jboss.msc.service.ServiceRegistry;
+import org.jboss.msc.service.ServiceRegistrySnapshot;
+import org.jboss.msc.service.ServiceState;
 
 /**
  * A service registry.  Registries can return services by name, or get a collection of service names.
@@ -42,13 +47,39 @@ final class ServiceRegistryImpl extends TransactionalObject implements ServiceRe
 
     private static final byte ENABLED = 1 << 0x00;
     private static final byte REMOVED  = 1 << 0x01;
+    // number of lock shards, a power of two
+    private static final int SHARDS = 16;
+    private static final int SHARD_SHIFT = 32 - Integer.numberOfTrailingZeros(SHARDS);
 
-    // map of service registrations
-    private final ConcurrentMap<ServiceName, Registration> registry = new ConcurrentHashMap<ServiceName, Registration>();
+    // service registrations partitioned by name, each part locked on its own
+    private final Shard[] shards = new Shard[SHARDS];
     // service registry state, which could be: enabled, disabled, or removed
     private byte state = ENABLED;
+    // executor running blocking services, or null to run them on the transaction executor
+    private final Executor blockingExecutor;
+    // the next registration id, taken once a registration is added to its shard: only the registrations created by
+    // rolled back transactions leave gaps
+    private final AtomicInteger nextRegistrationId = new AtomicInteger();
+    // the number of commits which installed or removed services, counted while they publish their versions
+    private final AtomicInteger dependencyChanges = new AtomicInteger();
+    // index of the committed dependency graph, null until first needed
+    private volatile DependencyIndex dependencyIndex;
 
+    ServiceRegistryImpl(final Executor blockingExecutor) {
+        this.blockingExecutor = blockingExecutor;
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard(this);
+        }
+    }
 
+    /**
+     * Gets the executor running the start and stop of blocking services.
+     *
+     * @return the executor, or {@code null} if they run on the transaction executor
+     */
+    Executor getBlockingExecutor() {
+        return blockingExecutor;
+    }
 
     /**
      * Gets a service, throwing an exception if it is not found.
@@ -68,33 +99,154 @@ final class ServiceRegistryImpl extends TransactionalObject implements ServiceRe
      * @return the service corresponding to {@code serviceName}, or {@code null} if it is not found
      */
     public Service<?> getService(ServiceName serviceName) {
-        final Registration registration = registry.get(serviceName);
+        final Registration registration = getRegistration(serviceName);
         if (registration == null) {
             return null;
         }
         return registration.getController() == null? null: registration.getController().getService();
     }
 
+    @Override
+    public ServiceRegistrySnapshot getSnapshot() {
+        return new View(currentEpoch());
+    }
+
+    @Override
+    public Set<ServiceName> getTransitiveDependents(ServiceName serviceName) {
+        if (serviceName == null) {
+            throw TXN.methodParameterIsNull("serviceName");
+        }
+        final Registration registration = getRegistration(serviceName);
+        return registration == null ? Collections.<ServiceName>emptySet() : getDependencyIndex().getTransitiveDependents(registration);
+    }
+
+    @Override
+    public Set<ServiceName> getTransitiveDependencies(ServiceName serviceName) {
+        if (serviceName == null) {
+            throw TXN.methodParameterIsNull("serviceName");
+        }
+        final Registration registration = getRegistration(serviceName);
+        return registration == null ? Collections.<ServiceName>emptySet() : getDependencyIndex().getTransitiveDependencies(registration);
+    }
+
     Registration getOrCreateRegistration(Transaction transaction, ServiceName name) {
-        Registration registration = registry.get(name);
-        if (registration == null) {
-            checkRemoved();
-            lockWrite(transaction, transaction.getTaskFactory());
-            registration = new Registration(name);
-            Registration appearing = registry.putIfAbsent(name, registration);
-            if (appearing != null) {
-                registration = appearing;
+        final Shard shard = getShard(name);
+        final Registration registration = shard.registry.get(name);
+        if (registration != null) {
+            return registration;
+        }
+        checkRemoved();
+        // only the shard of the name is locked, transactions creating registrations in other shards go on
+        shard.lockWrite(transaction, transaction.getTaskFactory());
+        return shard.create(name);
+    }
+
+    /**
+     * Gets or creates the registrations of several names in a single pass.  The shards missing a registration are
+     * locked once each, in index order, before any registration is created.
+     *
+     * @param transaction the active transaction
+     * @param names       the service names
+     * @return the registrations, in the order of {@code names}
+     */
+    Registration[] getOrCreateRegistrations(Transaction transaction, ServiceName[] names) {
+        final Registration[] registrations = new Registration[names.length];
+        final int[] shardIndexes = new int[names.length];
+        boolean[] missingShards = null;
+        for (int i = 0; i < names.length; i++) {
+            final int shardIndex = getShardIndex(names[i]);
+            registrations[i] = shards[shardIndex].registry.get(names[i]);
+            if (registrations[i] == null) {
+                if (missingShards == null) {
+                    missingShards = new boolean[SHARDS];
+                }
+                missingShards[shardIndex] = true;
+            }
+            shardIndexes[i] = shardIndex;
+        }
+        if (missingShards == null) {
+            return registrations;
+        }
+        checkRemoved();
+        final TaskFactory taskFactory = transaction.getTaskFactory();
+        for (int shardIndex = 0; shardIndex < SHARDS; shardIndex++) {
+            if (missingShards[shardIndex]) {
+                shards[shardIndex].lockWrite(transaction, taskFactory);
             }
         }
-        return registration;
+        for (int i = 0; i < names.length; i++) {
+            if (registrations[i] == null) {
+                registrations[i] = shards[shardIndexes[i]].create(names[i]);
+            }
+        }
+        return registrations;
+    }
+
+    /**
+     * Notifies that a committing transaction changed the service of a registration.
+     */
+    void dependenciesChanged() {
+        dependencyChanges.incrementAndGet();
+    }
+
+    /**
+     * Gets the index of the committed dependency graph, built again on first use after services were installed or
+     * removed.
+     *
+     * @return the index
+     */
+    DependencyIndex getDependencyIndex() {
+        final int changes = dependencyChanges.get();
+        DependencyIndex dependencyIndex = this.dependencyIndex;
+        if (dependencyIndex == null || dependencyIndex.getChanges() != changes) {
+            // the changes counted before the epoch was read are all part of it
+            dependencyIndex = DependencyIndex.build(getRegistrations(), lastEpoch(), changes);
+            this.dependencyIndex = dependencyIndex;
+        }
+        return dependencyIndex;
     }
 
     Registration getRegistration(ServiceName name) {
-        return registry.get(name);
+        return getShard(name).registry.get(name);
+    }
+
+    private Shard getShard(final ServiceName name) {
+        return shards[getShardIndex(name)];
+    }
+
+    private static int getShardIndex(final ServiceName name) {
+        // the high bits of the hash multiplied by the golden ratio depend on every bit of the hash, so that sibling
+        // names spread over the shards, and are unrelated to the low bits the shard's trie consumes first
+        return (name.hashCode() * 0x9E3779B9) >>> SHARD_SHIFT;
+    }
+
+    /**
+     * Write locks the registry state, then every shard in index order, so that registry-wide operations cannot
+     * deadlock among themselves.
+     *
+     * @param transaction the active transaction
+     */
+    private void lockAll(final Transaction transaction) {
+        final TaskFactory taskFactory = transaction.getTaskFactory();
+        lockWrite(transaction, taskFactory);
+        for (Shard shard : shards) {
+            shard.lockWrite(transaction, taskFactory);
+        }
+    }
+
+    private List<Registration> getRegistrations() {
+        final List<Registration> registrations = new ArrayList<Registration>();
+        for (Shard shard : shards) {
+            for (Registration registration : shard.registry.values()) {
+                registrations.add(registration);
+            }
+        }
+        return registrations;
     }
 
     ServiceControllerImpl<?> getRequiredServiceController(ServiceName serviceName) throws ServiceNotFoundException {
-        final ServiceControllerImpl<?> controller = registry.containsKey(serviceName)? registry.get(serviceName).getController(): null;
+        final Registration registration = getRegistration(serviceName);
+        final ServiceControllerImpl<?> controller = registration != null? registration.getController(): null;
         if (controller == null) {
             throw new ServiceNotFoundException("Service " + serviceName + " not found");
         }
@@ -122,14 +274,16 @@ final class ServiceRegistryImpl extends TransactionalObject implements ServiceRe
         if (transaction == null) {
             throw TXN.methodParameterIsNull("transaction");
         }
+        lockAll(transaction);
         synchronized(this) {
             if (Bits.anyAreSet(state, REMOVED)) {
                 return;
             }
+            mutating();
             state = (byte) (state | REMOVED);
         }
         final HashSet<ServiceControllerImpl<?>> done = new HashSet<ServiceControllerImpl<?>>();
-        for (Registration registration : registry.values()) {
+        for (Registration registration : getRegistrations()) {
             ServiceControllerImpl<?> serviceInstance = registration.getController();
             if (serviceInstance != null && done.add(serviceInstance)) {
                 serviceInstance.remove(transaction, transaction.getTaskFactory());
@@ -147,39 +301,49 @@ final class ServiceRegistryImpl extends TransactionalObject implements ServiceRe
     }
 
     @Override
-    public synchronized void disable(Transaction transaction) {
+    public void disable(Transaction transaction) {
         if (transaction == null) {
             throw TXN.methodParameterIsNull("transaction");
         }
         checkRemoved();
-        // idempotent
-        if (!Bits.anyAreSet(state, ENABLED)) {
-            return;
-        }
-        state = (byte) (state & ~ENABLED);
-        for (Registration registration: registry.values()) {
-            final ServiceControllerImpl<?> controller = registration.getController();
-            if (controller != null) {
-                controller.disableRegistry(transaction);
+        lockAll(transaction);
+        synchronized (this) {
+            checkRemoved();
+            // idempotent
+            if (!Bits.anyAreSet(state, ENABLED)) {
+                return;
+            }
+            mutating();
+            state = (byte) (state & ~ENABLED);
+            for (Registration registration: getRegistrations()) {
+                final ServiceControllerImpl<?> controller = registration.getController();
+                if (controller != null) {
+                    controller.disableRegistry(transaction);
+                }
             }
         }
     }
 
     @Override
-    public synchronized void enable(Transaction transaction) {
+    public void enable(Transaction transaction) {
         if (transaction == null) {
             throw TXN.methodParameterIsNull("transaction");
         }
         checkRemoved();
-        // idempotent
-        if (Bits.anyAreSet(state, ENABLED)) {
-            return;
-        }
-        state = (byte) (state | ENABLED);
-        for (Registration registration: registry.values()) {
-            final ServiceControllerImpl<?> controller = registration.getController();
-            if (controller != null) {
-                controller.enableRegistry(transaction);
+        lockAll(transaction);
+        synchronized (this) {
+            checkRemoved();
+            // idempotent
+            if (Bits.anyAreSet(state, ENABLED)) {
+                return;
+            }
+            mutating();
+            state = (byte) (state | ENABLED);
+            for (Registration registration: getRegistrations()) {
+                final ServiceControllerImpl<?> controller = registration.getController();
+                if (controller != null) {
+                    controller.enableRegistry(transaction);
+                }
             }
         }
     }
@@ -200,21 +364,109 @@ final class ServiceRegistryImpl extends TransactionalObject implements ServiceRe
         }
     }
     
+    /**
+     * A part of the service registrations, write locked by the transactions creating registrations in it.
+     */
+    private static final class Shard extends TransactionalObject {
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Shard, PersistentHashMap> registryUpdater = AtomicReferenceFieldUpdater.newUpdater(Shard.class, PersistentHashMap.class, "registry");
+
+        private final ServiceRegistryImpl owner;
+        // map of service registrations, replaced as a whole on every change so that snapshots share it
+        private volatile PersistentHashMap<ServiceName, Registration> registry = PersistentHashMap.empty();
+
+        private Shard(final ServiceRegistryImpl owner) {
+            this.owner = owner;
+        }
+
+        private Registration create(final ServiceName name) {
+            mutating();
+            Registration newRegistration = null;
+            PersistentHashMap<ServiceName, Registration> registry;
+            do {
+                registry = this.registry;
+                final Registration registration = registry.get(name);
+                if (registration != null) {
+                    // created meanwhile by another thread of the transaction
+                    return registration;
+                }
+                if (newRegistration == null) {
+                    newRegistration = new Registration(owner, name);
+                }
+            } while (!registryUpdater.compareAndSet(this, registry, registry.with(name, newRegistration)));
+            newRegistration.setId(owner.nextRegistrationId.getAndIncrement());
+            return newRegistration;
+        }
+
+        @Override
+        Object takeSnapshot() {
+            return registry;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        void revert(final Object snapshot) {
+            registry = (PersistentHashMap<ServiceName, Registration>) snapshot;
+        }
+    }
+
+    /**
+     * A view of the committed registrations.  The registrations are never removed from the registry map, so the view
+     * reads the live map and skips the registrations having no service as of its epoch.
+     */
+    private final class View implements ServiceRegistrySnapshot {
+        private final Epoch epoch;
+
+        private View(final Epoch epoch) {
+            this.epoch = epoch;
+        }
+
+        @Override
+        public Set<ServiceName> getServiceNames() {
+            final Set<ServiceName> serviceNames = new HashSet<ServiceName>();
+            for (Registration registration: getRegistrations()) {
+                if (getController(registration) != null) {
+                    serviceNames.add(registration.getServiceName());
+                }
+            }
+            return serviceNames;
+        }
+
+        @Override
+        public Service<?> getService(final ServiceName serviceName) {
+            final ServiceControllerImpl<?> controller = getController(serviceName);
+            return controller == null ? null : controller.getService();
+        }
+
+        @Override
+        public ServiceState getState(final ServiceName serviceName) {
+            final ServiceControllerImpl<?> controller = getController(serviceName);
+            return controller == null ? null : (ServiceState) controller.getVersion(epoch);
+        }
+
+        private ServiceControllerImpl<?> getController(final ServiceName serviceName) {
+            final Registration registration = getRegistration(serviceName);
+            return registration == null ? null : getController(registration);
+        }
+
+        private ServiceControllerImpl<?> getController(final Registration registration) {
+            final ServiceControllerImpl<?> controller = (ServiceControllerImpl<?>) registration.getVersion(epoch);
+            // the controller of a removed service has no version
+            return controller == null || controller.getVersion(epoch) == null ? null : controller;
+        }
+    }
+
     private final class Snapshot {
         private final byte state;
-        private final Map<ServiceName, Registration> registry;
         
         private Snapshot() {
             assert holdsLock(ServiceRegistryImpl.this);
             state = ServiceRegistryImpl.this.state;
-            registry = new HashMap<ServiceName, Registration>(ServiceRegistryImpl.this.registry);
         }
         
         private void apply() {
             assert holdsLock(ServiceRegistryImpl.this);
             ServiceRegistryImpl.this.state = state;
-            ServiceRegistryImpl.this.registry.clear();
-            ServiceRegistryImpl.this.registry.putAll(registry);
         }
     }
 }
@@ -17,7 +17,9 @@
  */
 package org.jboss.msc.txn;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.jboss.msc._private.MSCLogger;
@@ -57,25 +59,25 @@ final class StartingServiceTasks {
 
         final Service<T> serviceValue = serviceController.getService();
 
-        // start service task builder
-        final TaskBuilder<T> startBuilder = taskFactory.newTask(new StartServiceTask<T>(serviceValue, transaction)).setTraits(serviceValue);
+        // the whole transition runs as a single task
+        final FusedTask transition = new FusedTask(transaction);
 
         if (hasDependencies(serviceController)) {
             // notify dependent is starting to dependencies
-            final TaskBuilder<Void> notifyDependentStartBuilder = taskFactory.newTask(new NotifyDependentStartTask(transaction, serviceController));
-            if (taskDependency != null) {
-                notifyDependentStartBuilder.addDependency(taskDependency);
-            }
-            final TaskController<Void> notifyDependentStart = notifyDependentStartBuilder.release();
-            startBuilder.addDependency(notifyDependentStart);
-        } else if (taskDependency != null) {
-            startBuilder.addDependency(taskDependency);
+            transition.addStep(new NotifyDependentStartTask(transaction, serviceController));
         }
 
-        // start service
-        final TaskController<T> start = startBuilder.release();
+        // start service, on the blocking executor if the service is blocking
+        final TaskController<T> start = transition.addStep(new StartServiceTask<T>(serviceValue, transaction), serviceValue, serviceController.getExecutor());
+
+        // set service up
+        transition.addStep(new SetServiceUpTask<T>(serviceController, start, transaction));
 
-        return taskFactory.newTask(new SetServiceUpTask<T>(serviceController, start, transaction)).addDependency(start).release();
+        final TaskBuilder<Void> transitionBuilder = transition.newTask(taskFactory);
+        if (taskDependency != null) {
+            transitionBuilder.addDependency(taskDependency);
+        }
+        return transitionBuilder.release();
     }
 
     /**
@@ -110,15 +112,24 @@ final class StartingServiceTasks {
         }
 
         @Override
-        public void execute(ExecuteContext<Void> context) {
+        public void execute(final ExecuteContext<Void> context) {
             assert context instanceof TaskFactory;
+            final List<ServiceControllerImpl<?>> dependencyControllers = new ArrayList<ServiceControllerImpl<?>>();
             for (DependencyImpl<?> dependency: serviceController.getDependencies()) {
                 ServiceControllerImpl<?> dependencyController = dependency.getDependencyRegistration().getController();
                 if (dependencyController != null) {
-                    dependencyController.dependentStarted(transaction, (TaskFactory)context);
+                    dependencyControllers.add(dependencyController);
                 }
             }
-            context.complete();
+            // lock the dependencies without holding this thread while they are locked by other transactions
+            TransactionalObject.lockWriteAll(transaction, (TaskFactory)context, dependencyControllers, new TransactionalObject.LockedWork(context) {
+                @Override
+                void run() {
+                    for (ServiceControllerImpl<?> dependencyController: dependencyControllers) {
+                        dependencyController.dependentStarted(transaction, (TaskFactory)context);
+                    }
+                }
+            });
         }
     }
 
@@ -206,6 +217,11 @@ final class StartingServiceTasks {
                     return context.newTask();
                 }
 
+                @Override
+                public TaskGraphBuilder newTaskGraph() throws IllegalStateException {
+                    return context.newTaskGraph();
+                }
+
                 @Override
                 public void fail() {
                     transaction.getAttachment(StartingServiceTasks.FAILED_SERVICES).add(service);
@@ -49,21 +49,26 @@ final class StoppingServiceTasks {
 
         final Service<T> serviceValue = service.getService();
 
-        // stop service
-        final TaskBuilder<Void> stopTaskBuilder = taskFactory.newTask(new StopServiceTask(serviceValue));
+        // the whole transition runs as a single task
+        final FusedTask transition = new FusedTask(transaction);
 
         // undemand dependencies if needed
         if (service.getDependencies().length > 0) {
-            TaskController<Void> undemandDependenciesTask = UndemandDependenciesTask.create(service, taskDependencies, transaction, transaction.getTaskFactory());
-            stopTaskBuilder.addDependency(undemandDependenciesTask);
-        } else if (!taskDependencies.isEmpty()) {
-            stopTaskBuilder.addDependencies(taskDependencies);
+            transition.addStep(new UndemandDependenciesTask(transaction, service));
         }
 
-        final TaskController<Void> stop = stopTaskBuilder.release();
+        // stop service, on the blocking executor if the service is blocking
+        final StopServiceTask stop = new StopServiceTask(serviceValue);
+        transition.addStep(stop, stop, service.getExecutor());
 
         // post stop task
-        return taskFactory.newTask(new SetServiceDownTask(service, transaction)).addDependency(stop).release();
+        transition.addStep(new SetServiceDownTask(service, transaction));
+
+        final TaskBuilder<Void> transitionBuilder = transition.newTask(taskFactory);
+        if (!taskDependencies.isEmpty()) {
+            transitionBuilder.addDependencies(taskDependencies);
+        }
+        return transitionBuilder.release();
     }
 
     /**
@@ -108,16 +113,18 @@ final class StoppingServiceTasks {
     // TODO discuss: what if we just set the service down after it fails?
     static <T> TaskController<Void> createForFailedService(ServiceControllerImpl<T> service, Transaction transaction, TaskFactory taskFactory) {
 
-        // post stop task
-        final TaskBuilder<Void> setServiceDownBuilder = taskFactory.newTask(new SetServiceDownTask(service, transaction));
+        // the whole transition runs as a single task
+        final FusedTask transition = new FusedTask(transaction);
 
         // undemand dependencies if needed
         if (service.getDependencies().length > 0) {
-            TaskController<Void> undemandDependenciesTask = UndemandDependenciesTask.create(service, transaction, transaction.getTaskFactory());
-            setServiceDownBuilder.addDependency(undemandDependenciesTask);
+            transition.addStep(new UndemandDependenciesTask(transaction, service));
         }
 
-        return setServiceDownBuilder.release();
+        // post stop task
+        transition.addStep(new SetServiceDownTask(service, transaction));
+
+        return transition.newTask(taskFactory).release();
     }
 
     /**
@@ -195,6 +202,11 @@ final class StoppingServiceTasks {
                 public TaskBuilder<Void> newTask() throws IllegalStateException {
                     return context.newTask();
                 }
+
+                @Override
+                public TaskGraphBuilder newTaskGraph() throws IllegalStateException {
+                    return context.newTaskGraph();
+                }
             });
         }
     }
@@ -216,8 +228,10 @@ final class StoppingServiceTasks {
         }
 
         @Override
-        public void execute(ExecuteContext<Void> context) {
+        public void execute(final ExecuteContext<Void> context) {
             assert context instanceof TaskFactory;
+            final List<ServiceControllerImpl<?>> dependencyControllers = new ArrayList<ServiceControllerImpl<?>>();
+            boolean notify = false;
             try {
                 // set down state
                 serviceController.setTransition(ServiceControllerImpl.STATE_DOWN, transaction, (TaskFactory)context);
@@ -225,16 +239,27 @@ final class StoppingServiceTasks {
                 // clear service value, thus performing an automatic uninjection
                 serviceController.setValue(null);
 
-                // notify dependent is stopped
                 for (DependencyImpl<?> dependency: serviceController.getDependencies()) {
                     ServiceControllerImpl<?> dependencyController = dependency.getDependencyRegistration().getController();
                     if (dependencyController != null) {
-                        dependencyController.dependentStopped(transaction, (TaskFactory)context);
+                        dependencyControllers.add(dependencyController);
                     }
                 }
+                notify = true;
             } finally {
-                context.complete();
+                if (!notify) {
+                    context.complete();
+                }
             }
+            // notify dependent is stopped, without holding this thread while dependencies are locked by other transactions
+            TransactionalObject.lockWriteAll(transaction, (TaskFactory)context, dependencyControllers, new TransactionalObject.LockedWork(context) {
+                @Override
+                void run() {
+                    for (ServiceControllerImpl<?> dependencyController: dependencyControllers) {
+                        dependencyController.dependentStopped(transaction, (TaskFactory)context);
+                    }
+                }
+            });
         }
 
     }
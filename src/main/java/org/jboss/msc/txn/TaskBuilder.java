@@ -19,6 +19,7 @@
 package org.jboss.msc.txn;
 
 import java.util.Collection;
+import java.util.concurrent.Executor;
 
 /**
  * A builder for subtasks.  Subtasks may be configured with dependencies and injections before being installed.
@@ -84,6 +85,26 @@ public interface TaskBuilder<T> {
      */
     TaskBuilder<T> setClassLoader(final ClassLoader classLoader);
 
+    /**
+     * Set the executor to run the parts of this task, or {@code null} to use the transaction executor.  Tasks which may
+     * block for a long time should be given their own executor, so that they do not hold up the short tasks queued
+     * behind them.
+     *
+     * @param executor the executor
+     * @return this task builder
+     */
+    TaskBuilder<T> setExecutor(final Executor executor);
+
+    /**
+     * Set the priority of this task, {@code 0} by default.  When the transaction executor is a {@link PriorityExecutor},
+     * ready tasks with higher priorities run first.  The dependencies of a task run with at least its priority, so a
+     * high priority can be given to the last task of a critical path only.
+     *
+     * @param priority the priority
+     * @return this task builder
+     */
+    TaskBuilder<T> setPriority(final int priority);
+
     /**
      * Add dependencies, if this subtask has not yet been executed.
      *
@@ -24,6 +24,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.IdentityHashMap;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 /**
  * A builder for subtasks.  Subtasks may be configured with dependencies and injections before being installed.
@@ -35,11 +36,13 @@ import java.util.Set;
 final class TaskBuilderImpl<T> implements TaskBuilder<T> {
 
     @SuppressWarnings("rawtypes")
-    private static final TaskControllerImpl[] NO_TASKS = new TaskControllerImpl[0];
+    static final TaskControllerImpl[] NO_TASKS = new TaskControllerImpl[0];
     private final Transaction transaction;
     private final TaskParent parent;
     private final Set<TaskControllerImpl<?>> dependencies = Collections.newSetFromMap(new IdentityHashMap<TaskControllerImpl<?>, Boolean>());
     private ClassLoader classLoader;
+    private Executor executor;
+    private int priority;
     private Executable<T> executable;
     private Validatable validatable;
     private Revertible revertible;
@@ -135,6 +138,28 @@ final class TaskBuilderImpl<T> implements TaskBuilder<T> {
         return this;
     }
 
+    /**
+     * Set the executor to run the parts of this task, or {@code null} to use the transaction executor.
+     *
+     * @param executor the executor
+     * @return this task builder
+     */
+    public TaskBuilderImpl<T> setExecutor(final Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Set the priority of this task.
+     *
+     * @param priority the priority
+     * @return this task builder
+     */
+    public TaskBuilderImpl<T> setPriority(final int priority) {
+        this.priority = priority;
+        return this;
+    }
+
     /**
      * Add dependencies, if this subtask has not yet been executed.
      *
@@ -190,7 +215,7 @@ final class TaskBuilderImpl<T> implements TaskBuilder<T> {
     public TaskControllerImpl<T> release() {
         @SuppressWarnings("rawtypes")
         final TaskControllerImpl[] dependenciesArray = dependencies.isEmpty() ? NO_TASKS : dependencies.toArray(new TaskControllerImpl[dependencies.size()]);
-        final TaskControllerImpl<T> controller = new TaskControllerImpl<T>(parent, dependenciesArray, executable, revertible, validatable, committable, classLoader);
+        final TaskControllerImpl<T> controller = new TaskControllerImpl<T>(parent, dependenciesArray, executable, revertible, validatable, committable, classLoader, executor, priority);
         controller.install();
         return controller;
     }
@@ -18,9 +18,10 @@
 
 package org.jboss.msc.txn;
 
-import static java.lang.Thread.holdsLock;
-
-import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import org.jboss.msc._private.MSCLogger;
 
@@ -115,6 +116,13 @@ import org.jboss.msc._private.MSCLogger;
  *  |                                                            |
  *  +------------------------------------------------------------+
  * </pre>
+ * The controller does not hold a monitor while transitioning.  The persistent part of the state word is published
+ * with a compare-and-set which also bumps a sequence number, and the counters are updated with atomic field updaters
+ * before the state word is re-evaluated.  Any thread which changes a counter therefore either publishes the resulting
+ * transition itself or causes the competing publication to fail and re-read the counters, so no transition is lost.
+ * Dependents and children are kept on lock-free lists whose entries are claimed before a notification is sent, so
+ * that a dependent registering concurrently with a transition is notified exactly once.
+ *
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
  */
@@ -122,31 +130,58 @@ final class TaskControllerImpl<T> implements TaskController<T>, TaskParent, Task
 
     private static final Object NO_RESULT = new Object();
 
+    private static final TaskControllerImpl<?>[] NO_TASKS = new TaskControllerImpl<?>[0];
+
     private static final ThreadLocal<ClassLoader> CL_HOLDER = new ThreadLocal<ClassLoader>();
 
     private final TaskParent parent;
-    private final TaskControllerImpl<?>[] dependencies;
-    private final Executable<T> executable;
-    private final Revertible revertible;
-    private final Validatable validatable;
-    private final Committable committable;
+    // the parts and the dependencies are dropped once they are not needed anymore
+    private TaskControllerImpl<?>[] dependencies;
+    private Executable<T> executable;
+    private Revertible revertible;
+    private Validatable validatable;
+    private Committable committable;
     private final ClassLoader classLoader;
-    private final ArrayList<TaskControllerImpl<?>> dependents = new ArrayList<TaskControllerImpl<?>>();
-    private final ArrayList<TaskChild> children = new ArrayList<TaskChild>();
-
-    private int state;
-    private int unfinishedDependencies;
-    private int unfinishedChildren;
-    private int unvalidatedChildren;
-    private int unvalidatedDependencies;
-    private int uncommittedDependencies;
-    private int unterminatedChildren;
-    private int unterminatedDependents;
+    private final Executor executor;
+
+    private volatile Entry<TaskControllerImpl<?>> dependents;
+    private volatile Entry<TaskChild> children;
+
+    private volatile int state;
+    private volatile int unfinishedDependencies;
+    private volatile int unfinishedChildren;
+    private volatile int unvalidatedChildren;
+    private volatile int unvalidatedDependencies;
+    private volatile int uncommittedDependencies;
+    private volatile int unterminatedChildren;
+    private volatile int unterminatedDependents;
+    private volatile int priority;
 
     @SuppressWarnings("unchecked")
     private volatile T result = (T) NO_RESULT;
 
-    private TaskControllerImpl<?>[] cachedDependents;
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<TaskControllerImpl, Entry> dependentsUpdater = AtomicReferenceFieldUpdater.newUpdater(TaskControllerImpl.class, Entry.class, "dependents");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<TaskControllerImpl, Entry> childrenUpdater = AtomicReferenceFieldUpdater.newUpdater(TaskControllerImpl.class, Entry.class, "children");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<TaskControllerImpl> stateUpdater = AtomicIntegerFieldUpdater.newUpdater(TaskControllerImpl.class, "state");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<TaskControllerImpl> unfinishedDependenciesUpdater = AtomicIntegerFieldUpdater.newUpdater(TaskControllerImpl.class, "unfinishedDependencies");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<TaskControllerImpl> unfinishedChildrenUpdater = AtomicIntegerFieldUpdater.newUpdater(TaskControllerImpl.class, "unfinishedChildren");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<TaskControllerImpl> unvalidatedChildrenUpdater = AtomicIntegerFieldUpdater.newUpdater(TaskControllerImpl.class, "unvalidatedChildren");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<TaskControllerImpl> unvalidatedDependenciesUpdater = AtomicIntegerFieldUpdater.newUpdater(TaskControllerImpl.class, "unvalidatedDependencies");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<TaskControllerImpl> uncommittedDependenciesUpdater = AtomicIntegerFieldUpdater.newUpdater(TaskControllerImpl.class, "uncommittedDependencies");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<TaskControllerImpl> unterminatedChildrenUpdater = AtomicIntegerFieldUpdater.newUpdater(TaskControllerImpl.class, "unterminatedChildren");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<TaskControllerImpl> unterminatedDependentsUpdater = AtomicIntegerFieldUpdater.newUpdater(TaskControllerImpl.class, "unterminatedDependents");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<TaskControllerImpl> priorityUpdater = AtomicIntegerFieldUpdater.newUpdater(TaskControllerImpl.class, "priority");
 
     private static final int STATE_MASK        = 0xF;
 
@@ -208,6 +243,10 @@ final class TaskControllerImpl<T> implements TaskController<T>, TaskParent, Task
 
     private static final int PERSISTENT_STATE = STATE_MASK | FLAG_CANCEL_REQ | FLAG_ROLLBACK_REQ | FLAG_VALIDATE_REQ | FLAG_COMMIT_REQ;
 
+    // the stored state word carries a sequence number above the persistent state
+    private static final int SEQUENCE_ONE = 1 << 8;
+    private static final int SEQUENCE_MASK = ~PERSISTENT_STATE;
+
     // non-persistent status flags
     private static final int FLAG_EXECUTE_DONE          = 1 << 8;
     private static final int FLAG_VALIDATE_DONE         = 1 << 9;
@@ -238,12 +277,16 @@ final class TaskControllerImpl<T> implements TaskController<T>, TaskParent, Task
 
     private static final int DO_FLAGS = Bits.intBitMask(25, 28);
 
-    @SuppressWarnings("unused")
     private static final int TASK_FLAGS = DO_FLAGS | SEND_FLAGS;
 
+    // states in which dependents may be added, as a set of state ids
+    private static final int DEPENDENT_STATES = 1 << STATE_EXECUTE_WAIT | 1 << STATE_EXECUTE | 1 << STATE_EXECUTE_DONE
+            | 1 << STATE_VALIDATE | 1 << STATE_VALIDATE_CHILDREN_WAIT | 1 << STATE_VALIDATE_DONE
+            | 1 << STATE_TERMINATE_WAIT | 1 << STATE_TERMINATED;
+
     private static final int FLAG_USER_THREAD       = 1 << 31; // called from user thread; do not block
 
-    TaskControllerImpl(final TaskParent parent, final TaskControllerImpl<?>[] dependencies, final Executable<T> executable, final Revertible revertible, final Validatable validatable, final Committable committable, final ClassLoader classLoader) {
+    TaskControllerImpl(final TaskParent parent, final TaskControllerImpl<?>[] dependencies, final Executable<T> executable, final Revertible revertible, final Validatable validatable, final Committable committable, final ClassLoader classLoader, final Executor executor, final int priority) {
         this.parent = parent;
         this.dependencies = dependencies;
         this.executable = executable;
@@ -251,6 +294,8 @@ final class TaskControllerImpl<T> implements TaskController<T>, TaskParent, Task
         this.validatable = validatable;
         this.committable = committable;
         this.classLoader = classLoader;
+        this.executor = executor;
+        this.priority = priority;
         state = STATE_NEW;
     }
 
@@ -277,7 +322,6 @@ final class TaskControllerImpl<T> implements TaskController<T>, TaskParent, Task
      * @return the transition to take
      */
     private int getTransition(int state) {
-        assert holdsLock(this);
         int sid = stateOf(state);
         switch (sid) {
             case STATE_NEW: {
@@ -308,7 +352,7 @@ final class TaskControllerImpl<T> implements TaskController<T>, TaskParent, Task
             case STATE_EXECUTE_DONE: {
                 if (Bits.allAreSet(state, FLAG_ROLLBACK_REQ)) {
                     return T_EXECUTE_DONE_to_ROLLBACK_WAIT;
-                } else if (Bits.allAreSet(state, FLAG_VALIDATE_REQ) && unfinishedChildren == 0 && unvalidatedDependencies == 0) {
+                } else if ((Bits.allAreSet(state, FLAG_VALIDATE_REQ) || validatesEagerly()) && unfinishedChildren == 0 && unvalidatedDependencies == 0) {
                     return T_EXECUTE_DONE_to_VALIDATE;
                 } else {
                     return T_NONE;
@@ -383,6 +427,18 @@ final class TaskControllerImpl<T> implements TaskController<T>, TaskParent, Task
         }
     }
 
+    /**
+     * Determine whether this task may go through validation without waiting for the validate request.  A task without
+     * validatable, committable and children has no work to do in the validation phase, so it is validated as soon as
+     * its dependencies are, and the transaction finds it already validated when it is prepared.  Its commit still waits
+     * for the commit request.
+     *
+     * @return {@code true} if this task validates as soon as possible
+     */
+    private boolean validatesEagerly() {
+        return validatable == null && committable == null && children == null;
+    }
+
     /**
      * Perform any necessary/possible transition.
      *
@@ -390,7 +446,6 @@ final class TaskControllerImpl<T> implements TaskController<T>, TaskParent, Task
      * @return the new state
      */
     private int transition(int state) {
-        assert holdsLock(this);
         for (;;) {
             int t = getTransition(state);
             switch (t) {
@@ -408,12 +463,7 @@ final class TaskControllerImpl<T> implements TaskController<T>, TaskParent, Task
                     return newState(STATE_EXECUTE, state | FLAG_DO_EXECUTE);
                 }
                 case T_EXECUTE_to_EXECUTE_DONE: {
-                    if (! dependents.isEmpty()) {
-                        cachedDependents = dependents.toArray(new TaskControllerImpl[dependents.size()]);
-                        state = newState(STATE_EXECUTE_DONE, state | FLAG_SEND_CHILD_DONE | FLAG_SEND_DEPENDENCY_DONE);
-                    } else {
-                        state = newState(STATE_EXECUTE_DONE, state | FLAG_SEND_CHILD_DONE);
-                    }
+                    state = newState(STATE_EXECUTE_DONE, state | FLAG_SEND_CHILD_DONE | FLAG_SEND_DEPENDENCY_DONE);
                     continue;
                 }
                 case T_VALIDATE_to_VALIDATE_CHILDREN_WAIT: {
@@ -460,21 +510,11 @@ final class TaskControllerImpl<T> implements TaskController<T>, TaskParent, Task
                     return newState(STATE_TERMINATED, state);
                 }
                 case T_EXECUTE_WAIT_to_TERMINATE_WAIT: {
-                    if (! dependents.isEmpty()) {
-                        cachedDependents = dependents.toArray(new TaskControllerImpl[dependents.size()]);
-                        state = newState(STATE_TERMINATE_WAIT, state | FLAG_SEND_CANCEL_DEPENDENTS);
-                    } else {
-                        state = newState(STATE_TERMINATE_WAIT, state);
-                    }
+                    state = newState(STATE_TERMINATE_WAIT, state | FLAG_SEND_CANCEL_DEPENDENTS);
                     continue;
                 }
                 case T_EXECUTE_to_TERMINATE_WAIT: {
-                    if (! dependents.isEmpty()) {
-                        cachedDependents = dependents.toArray(new TaskControllerImpl[dependents.size()]);
-                        state = newState(STATE_TERMINATE_WAIT, state | FLAG_SEND_CANCEL_DEPENDENTS | FLAG_SEND_CANCEL_REQ);
-                    } else {
-                        state = newState(STATE_TERMINATE_WAIT, state | FLAG_SEND_CANCEL_REQ);
-                    }
+                    state = newState(STATE_TERMINATE_WAIT, state | FLAG_SEND_CANCEL_DEPENDENTS | FLAG_SEND_CANCEL_REQ);
                     continue;
                 }
                 case T_EXECUTE_DONE_to_ROLLBACK_WAIT: {
@@ -511,47 +551,72 @@ final class TaskControllerImpl<T> implements TaskController<T>, TaskParent, Task
     }
 
     private void executeTasks(final int state) {
+        if (Bits.anyAreSet(state, TASK_FLAGS)) {
+            Trampoline.execute(this, state);
+        }
+    }
+
+    /**
+     * Run the jobs of the given state.  Only called by the {@link Trampoline}, so that notifications sent from here
+     * never recurse into the next task's jobs.
+     *
+     * @param state the state containing the jobs to run
+     */
+    void runTasks(final int state) {
         final boolean userThread = Bits.allAreSet(state, FLAG_USER_THREAD);
         if (Bits.allAreSet(state, FLAG_SEND_DEPENDENCY_DONE)) {
-            for (TaskControllerImpl<?> dependent : cachedDependents) {
-                dependent.dependencyExecutionComplete(userThread);
+            for (Entry<TaskControllerImpl<?>> entry = dependents; entry != null; entry = entry.next) {
+                if (entry.accept() && entry.claim(Entry.FLAG_EXECUTION)) {
+                    entry.item.dependencyExecutionComplete(userThread);
+                }
             }
-            cachedDependents = null;
         }
         if (Bits.allAreSet(state, FLAG_SEND_CHILD_DONE)) {
             parent.childExecutionFinished(userThread);
         }
         if (Bits.allAreSet(state, FLAG_SEND_VALIDATE_REQ)) {
-            for (TaskChild child : children) {
-                child.childInitiateValidate(userThread);
+            for (Entry<TaskChild> entry = children; entry != null; entry = entry.next) {
+                if (entry.accept()) {
+                    entry.item.childInitiateValidate(userThread);
+                }
             }
         }
         if (Bits.allAreSet(state, FLAG_SEND_CANCEL_REQ)) {
-            for (TaskChild child : children) {
-                child.forceCancel(userThread);
+            for (Entry<TaskChild> entry = children; entry != null; entry = entry.next) {
+                if (entry.accept()) {
+                    entry.item.forceCancel(userThread);
+                }
             }
         }
         if (Bits.allAreSet(state, FLAG_SEND_ROLLBACK_REQ)) {
-            for (TaskChild child : children) {
-                child.childInitiateRollback(userThread);
+            for (Entry<TaskChild> entry = children; entry != null; entry = entry.next) {
+                if (entry.accept()) {
+                    entry.item.childInitiateRollback(userThread);
+                }
             }
         }
         if (Bits.allAreSet(state, FLAG_SEND_COMMIT_REQ)) {
-            for (TaskChild child : children) {
-                child.childInitiateCommit(userThread);
+            for (Entry<TaskChild> entry = children; entry != null; entry = entry.next) {
+                if (entry.accept()) {
+                    entry.item.childInitiateCommit(userThread);
+                }
             }
         }
         if (Bits.allAreSet(state, FLAG_SEND_VALIDATE_DONE)) {
-            for (TaskControllerImpl<?> dependent : dependents) {
-                dependent.dependencyValidationComplete(userThread);
+            for (Entry<TaskControllerImpl<?>> entry = dependents; entry != null; entry = entry.next) {
+                if (entry.accept() && entry.claim(Entry.FLAG_VALIDATION)) {
+                    entry.item.dependencyValidationComplete(userThread);
+                }
             }
         }
         if (Bits.allAreSet(state, FLAG_SEND_CHILD_VALIDATE_DONE)) {
             parent.childValidationFinished(userThread);
         }
         if (Bits.allAreSet(state, FLAG_SEND_COMMIT_DONE)) {
-            for (TaskControllerImpl<?> dependent : dependents) {
-                dependent.dependencyCommitComplete(userThread);
+            for (Entry<TaskControllerImpl<?>> entry = dependents; entry != null; entry = entry.next) {
+                if (entry.accept()) {
+                    entry.item.dependencyCommitComplete(userThread);
+                }
             }
         }
         if (Bits.allAreSet(state, FLAG_SEND_CHILD_TERMINATED)) {
@@ -563,26 +628,53 @@ final class TaskControllerImpl<T> implements TaskController<T>, TaskParent, Task
             }
         }
         if (Bits.allAreSet(state, FLAG_SEND_CANCEL_DEPENDENTS)) {
-            for (TaskControllerImpl<?> dependent : cachedDependents) {
-                dependent.forceCancel(userThread);
+            for (Entry<TaskControllerImpl<?>> entry = dependents; entry != null; entry = entry.next) {
+                if (entry.accept() && entry.claim(Entry.FLAG_EXECUTION)) {
+                    entry.item.forceCancel(userThread);
+                }
             }
-            cachedDependents = null;
+        }
+        if (Bits.allAreSet(state, FLAG_SEND_CHILD_DONE)) {
+            executable = null;
+        }
+        if (Bits.allAreSet(state, FLAG_SEND_CHILD_VALIDATE_DONE)) {
+            validatable = null;
+        }
+        if (Bits.allAreSet(state, FLAG_SEND_CHILD_TERMINATED)) {
+            reclaim();
         }
 
         assert Bits.allAreClear(state, DO_FLAGS) || Bits.oneIsSet(state, DO_FLAGS);
 
         if (userThread) {
+            final Transaction transaction = getTransaction();
             if (Bits.allAreSet(state, FLAG_DO_EXECUTE)) {
-                safeExecute(new AsyncTask(FLAG_DO_EXECUTE));
+                if (transaction.runsDirectly(executable)) {
+                    execute();
+                } else {
+                    safeExecute(new AsyncTask(FLAG_DO_EXECUTE));
+                }
             }
             if (Bits.allAreSet(state, FLAG_DO_VALIDATE)) {
-                safeExecute(new AsyncTask(FLAG_DO_VALIDATE));
+                if (transaction.runsDirectly(validatable)) {
+                    validate();
+                } else {
+                    safeExecute(new AsyncTask(FLAG_DO_VALIDATE));
+                }
             }
             if (Bits.allAreSet(state, FLAG_DO_ROLLBACK)) {
-                safeExecute(new AsyncTask(FLAG_DO_ROLLBACK));
+                if (transaction.runsDirectly(revertible)) {
+                    rollback();
+                } else {
+                    safeExecute(new AsyncTask(FLAG_DO_ROLLBACK));
+                }
             }
             if (Bits.allAreSet(state, FLAG_DO_COMMIT)) {
-                safeExecute(new AsyncTask(FLAG_DO_COMMIT));
+                if (transaction.runsDirectly(committable)) {
+                    commit();
+                } else {
+                    safeExecute(new AsyncTask(FLAG_DO_COMMIT));
+                }
             }
         } else {
             if (Bits.allAreSet(state, FLAG_DO_EXECUTE)) {
@@ -600,42 +692,84 @@ final class TaskControllerImpl<T> implements TaskController<T>, TaskParent, Task
         }
     }
 
+    /**
+     * Get the executor running the parts of this task.
+     *
+     * @return the executor of this task if it has one, the transaction executor otherwise
+     */
+    private Executor getExecutor() {
+        return executor != null ? executor : getTransaction().getExecutor();
+    }
+
     private void safeExecute(final Runnable command) {
         try {
-            getTransaction().getExecutor().execute(command);
+            getExecutor().execute(command);
         } catch (Throwable t) {
             MSCLogger.ROOT.runnableExecuteFailed(t, command);
         }
     }
 
+    /**
+     * Publish a new state computed from {@code oldVal}.  The sequence number is always incremented, so that a
+     * publication based on counters read before a concurrent update fails and is retried.
+     *
+     * @param oldVal the state word the new state was computed from
+     * @param state the new state
+     * @return {@code true} if the state was published, {@code false} if another thread updated it first
+     */
+    private boolean compareAndSetState(final int oldVal, final int state) {
+        return stateUpdater.compareAndSet(this, oldVal, (state & PERSISTENT_STATE) | (oldVal + SEQUENCE_ONE & SEQUENCE_MASK));
+    }
+
+    /**
+     * Atomically add the given flags to the current state and perform any resulting transition.
+     *
+     * @param flags the flags to add
+     * @return the new state, including any job flags to run
+     */
+    private int update(final int flags) {
+        int oldVal, state;
+        do {
+            oldVal = this.state;
+            state = transition(oldVal & PERSISTENT_STATE | flags);
+        } while (! compareAndSetState(oldVal, state));
+        return state;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static <E> Entry<E> push(final AtomicReferenceFieldUpdater<TaskControllerImpl, Entry> updater, final TaskControllerImpl<?> owner, final E item) {
+        final Entry<E> entry = new Entry<E>(item);
+        Entry<E> head;
+        do {
+            head = updater.get(owner);
+            entry.next = head;
+        } while (! updater.compareAndSet(owner, head, entry));
+        return entry;
+    }
+
+    private static int userThread(final boolean userThread) {
+        return userThread ? FLAG_USER_THREAD : 0;
+    }
+
     public void forceCancel(final boolean userThread) {
-        assert ! holdsLock(this);
-        int state;
-        synchronized (this) {
-            state = this.state;
-            if (userThread) state |= FLAG_USER_THREAD;
+        int oldVal, state;
+        do {
+            oldVal = this.state;
+            state = oldVal & PERSISTENT_STATE | userThread(userThread);
             if (stateIsIn(state, STATE_NEW, STATE_EXECUTE_WAIT)) {
                 state |= FLAG_CANCEL_REQ;
-            } else if (stateIsIn(state, STATE_EXECUTE, STATE_EXECUTE_DONE)) {
+            } else if (stateIsIn(state, STATE_EXECUTE, STATE_EXECUTE_DONE, STATE_VALIDATE, STATE_VALIDATE_CHILDREN_WAIT, STATE_VALIDATE_DONE)) {
+                // tasks which validate eagerly may already be past execution
                 state |= FLAG_ROLLBACK_REQ;
             }
             state = transition(state);
-            this.state = state & PERSISTENT_STATE;
-        }
+        } while (! compareAndSetState(oldVal, state));
         executeTasks(state);
     }
 
     private void dependentTerminated(final boolean userThread) {
-        assert ! holdsLock(this);
-        int state;
-        synchronized (this) {
-            unterminatedDependents--;
-            state = this.state;
-            if (userThread) state |= FLAG_USER_THREAD;
-            state = transition(state);
-            this.state = state & PERSISTENT_STATE;
-        }
-        executeTasks(state);
+        unterminatedDependentsUpdater.decrementAndGet(this);
+        executeTasks(update(userThread(userThread)));
     }
 
     private static int newState(int sid, int state) {
@@ -663,54 +797,53 @@ final class TaskControllerImpl<T> implements TaskController<T>, TaskParent, Task
     }
 
     private void execComplete(final T result) {
-        assert ! holdsLock(this);
-        int state;
-        synchronized (this) {
-            state = this.state | FLAG_USER_THREAD | FLAG_EXECUTE_DONE;
+        int oldVal, state;
+        do {
+            oldVal = this.state;
+            state = oldVal & PERSISTENT_STATE | FLAG_USER_THREAD | FLAG_EXECUTE_DONE;
             if (stateOf(state) != STATE_EXECUTE) {
                 throw new IllegalStateException("Task may not be completed now");
             }
             this.result = result;
             state = transition(state);
-            this.state = state & PERSISTENT_STATE;
-        }
+        } while (! compareAndSetState(oldVal, state));
         executeTasks(state);
     }
 
     private void execCancelled() {
-        assert ! holdsLock(this);
-        int state;
+        int oldVal, state;
         final boolean canCancel = getTransaction().isRollbackRequested();
-        synchronized (this) {
-            state = this.state | FLAG_USER_THREAD | FLAG_CANCEL_REQ;
+        do {
+            oldVal = this.state;
+            state = oldVal & PERSISTENT_STATE | FLAG_USER_THREAD | FLAG_CANCEL_REQ;
             if (!canCancel || stateOf(state) != STATE_EXECUTE) {
                 throw new IllegalStateException("Task may not be cancelled now");
             }
             state = transition(state);
-            this.state = state & PERSISTENT_STATE;
-        }
+        } while (! compareAndSetState(oldVal, state));
         executeTasks(state);
     }
 
     private void rollbackComplete() {
-        assert ! holdsLock(this);
-        int state;
-        synchronized (this) {
-            state = this.state | FLAG_USER_THREAD | FLAG_ROLLBACK_DONE;
+        int oldVal, state;
+        do {
+            oldVal = this.state;
+            state = oldVal & PERSISTENT_STATE | FLAG_USER_THREAD | FLAG_ROLLBACK_DONE;
             if (stateOf(state) != STATE_ROLLBACK) {
                 throw new IllegalStateException("Task may not be reverted now");
             }
             state = transition(state);
-            this.state = state & PERSISTENT_STATE;
-        }
+        } while (! compareAndSetState(oldVal, state));
         executeTasks(state);
     }
 
     void validate() {
         final ProblemReport problemReport = getTransaction().getProblemReport();
         final Validatable validatable = this.validatable;
+        int frame = -1;
         if (validatable != null) try {
             setClassLoader();
+            frame = Trampoline.enterFrame();
             validatable.validate(new ValidateContext() {
                 public void addProblem(final Problem reason) {
                     problemReport.addProblem(reason);
@@ -743,21 +876,21 @@ final class TaskControllerImpl<T> implements TaskController<T>, TaskParent, Task
         } catch (Throwable t) {
             MSCLogger.TASK.taskValidationFailed(t, validatable);
         } finally {
+            Trampoline.exitFrame(frame);
             unsetClassLoader();
         }
     }
 
     void validateComplete() {
-        assert ! holdsLock(this);
-        int state;
-        synchronized (this) {
-            state = this.state | FLAG_USER_THREAD | FLAG_VALIDATE_DONE;
+        int oldVal, state;
+        do {
+            oldVal = this.state;
+            state = oldVal & PERSISTENT_STATE | FLAG_USER_THREAD | FLAG_VALIDATE_DONE;
             if (stateOf(state) != STATE_VALIDATE) {
                 throw new IllegalStateException("Task may not be completed now");
             }
             state = transition(state);
-            this.state = state & PERSISTENT_STATE;
-        }
+        } while (! compareAndSetState(oldVal, state));
         executeTasks(state);
     }
 
@@ -780,8 +913,10 @@ final class TaskControllerImpl<T> implements TaskController<T>, TaskParent, Task
 
     void rollback() {
         final Revertible rev = revertible;
+        int frame = -1;
         if (rev != null) try {
             setClassLoader();
+            frame = Trampoline.enterFrame();
             rev.rollback(new RollbackContext() {
                 public void complete() {
                     rollbackComplete();
@@ -790,6 +925,7 @@ final class TaskControllerImpl<T> implements TaskController<T>, TaskParent, Task
         } catch (Throwable t) {
             MSCLogger.TASK.taskRollbackFailed(t, rev);
         } finally {
+            Trampoline.exitFrame(frame);
             unsetClassLoader();
         }
     }
@@ -797,6 +933,7 @@ final class TaskControllerImpl<T> implements TaskController<T>, TaskParent, Task
     void execute() {
         final ProblemReport problemReport = getTransaction().getProblemReport();
         final Executable<T> exec = executable;
+        int frame = -1;
         if (exec != null) try {
             setClassLoader();
             final class ExecuteContextImpl implements ExecuteContext<T>, TaskFactory {
@@ -859,20 +996,34 @@ final class TaskControllerImpl<T> implements TaskController<T>, TaskParent, Task
                 public TaskBuilder<Void> newTask() throws IllegalStateException {
                     return new TaskBuilderImpl<Void>(getTransaction(), TaskControllerImpl.this);
                 }
+
+                @Override
+                public TaskGraphBuilder newTaskGraph() throws IllegalStateException {
+                    return new TaskGraphBuilderImpl(getTransaction(), TaskControllerImpl.this);
+                }
+
+                @Override
+                public Executor getExecutor() {
+                    return TaskControllerImpl.this.getExecutor();
+                }
             }
+            frame = Trampoline.enterFrame();
             exec.execute(new ExecuteContextImpl());
         } catch (Throwable t) {
             MSCLogger.TASK.taskExecutionFailed(t, exec);
             problemReport.addProblem(new Problem(this, t, Problem.Severity.CRITICAL));
         } finally {
+            Trampoline.exitFrame(frame);
             unsetClassLoader();
         }
     }
 
     void commit() {
         final Committable committable = this.committable;
+        int frame = -1;
         if (committable != null) try {
             setClassLoader();
+            frame = Trampoline.enterFrame();
             committable.commit(new CommitContext() {
                 public void complete() {
                     commitComplete();
@@ -881,222 +1032,219 @@ final class TaskControllerImpl<T> implements TaskController<T>, TaskParent, Task
         } catch (Throwable t) {
             MSCLogger.TASK.taskCommitFailed(t, committable);
         } finally {
+            Trampoline.exitFrame(frame);
             unsetClassLoader();
         }
     }
 
+    /**
+     * Drop the references of a terminated task, so that a terminated task graph is not kept reachable through the
+     * controllers still referenced by users.  The parent is terminated after all its children, so it never needs them
+     * again; the dependents are kept, as dependents may still be added to a terminated task.  The result is kept as
+     * well, as it may be read at any time.
+     */
+    private void reclaim() {
+        executable = null;
+        validatable = null;
+        revertible = null;
+        committable = null;
+        dependencies = NO_TASKS;
+        children = null;
+    }
+
     void commitComplete() {
-        assert ! holdsLock(this);
-        int state;
-        synchronized (this) {
-            state = this.state | FLAG_USER_THREAD | FLAG_COMMIT_DONE;
+        int oldVal, state;
+        do {
+            oldVal = this.state;
+            state = oldVal & PERSISTENT_STATE | FLAG_USER_THREAD | FLAG_COMMIT_DONE;
             if (stateOf(state) != STATE_COMMIT) {
                 throw new IllegalStateException("Task may not be completed now");
             }
             state = transition(state);
-            this.state = state & PERSISTENT_STATE;
-        }
+        } while (! compareAndSetState(oldVal, state));
         executeTasks(state);
     }
 
     public void childExecutionFinished(final boolean userThread) {
-        assert ! holdsLock(this);
-        int state;
-        synchronized (this) {
-            state = this.state;
-            if (userThread) state |= FLAG_USER_THREAD;
-            unfinishedChildren--;
-            state = transition(state);
-            this.state = state & PERSISTENT_STATE;
-        }
-        executeTasks(state);
+        unfinishedChildrenUpdater.decrementAndGet(this);
+        executeTasks(update(userThread(userThread)));
     }
 
     public void childValidationFinished(final boolean userThread) {
-        assert ! holdsLock(this);
-        int state;
-        synchronized (this) {
-            state = this.state;
-            if (userThread) state |= FLAG_USER_THREAD;
-            unvalidatedChildren--;
-            state = transition(state);
-            this.state = state & PERSISTENT_STATE;
-        }
-        executeTasks(state);
+        unvalidatedChildrenUpdater.decrementAndGet(this);
+        executeTasks(update(userThread(userThread)));
     }
 
     public void childTerminated(final boolean userThread) {
-        assert ! holdsLock(this);
-        int state;
-        synchronized (this) {
-            state = this.state;
-            if (userThread) state |= FLAG_USER_THREAD;
-            unfinishedChildren--;
-            unvalidatedChildren--;
-            unterminatedChildren--;
-            state = transition(state);
-            this.state = state & PERSISTENT_STATE;
-        }
-        executeTasks(state);
+        unfinishedChildrenUpdater.decrementAndGet(this);
+        unvalidatedChildrenUpdater.decrementAndGet(this);
+        unterminatedChildrenUpdater.decrementAndGet(this);
+        executeTasks(update(userThread(userThread)));
     }
 
     public void childAdded(final TaskChild child, final boolean userThread) throws InvalidTransactionStateException {
-        assert ! holdsLock(this);
-        int state;
-        synchronized (this) {
-            state = this.state;
-            if (stateIsIn(state, STATE_EXECUTE)) {
-                children.add(child);
-                unfinishedChildren++;
-                unvalidatedChildren++;
-                unterminatedChildren++;
-                if (userThread) state |= FLAG_USER_THREAD;
-                state = transition(state);
-                this.state = state & PERSISTENT_STATE;
+        // count the child before publishing it, so that no transition can observe it as finished
+        unfinishedChildrenUpdater.incrementAndGet(this);
+        unvalidatedChildrenUpdater.incrementAndGet(this);
+        unterminatedChildrenUpdater.incrementAndGet(this);
+        final Entry<TaskChild> entry = push(childrenUpdater, this, child);
+        int oldVal, state;
+        boolean accepted;
+        do {
+            oldVal = this.state;
+            state = oldVal & PERSISTENT_STATE | userThread(userThread);
+            accepted = stateIsIn(state, STATE_EXECUTE);
+            state = transition(state);
+        } while (! compareAndSetState(oldVal, state));
+        executeTasks(state);
+        if (! accepted && entry.reject()) {
+            unfinishedChildrenUpdater.decrementAndGet(this);
+            unvalidatedChildrenUpdater.decrementAndGet(this);
+            unterminatedChildrenUpdater.decrementAndGet(this);
+            executeTasks(update(userThread(userThread)));
+            if (userThread) {
+                throw new IllegalStateException("Dependent may not be added at this point");
             } else {
-                if (userThread) {
-                    throw new IllegalStateException("Dependent may not be added at this point");
-                } else {
-                    // todo log and ignore...
-                    return;
-                }
+                // todo log and ignore...
+                return;
             }
         }
-        executeTasks(state);
     }
 
-    public void dependencyExecutionComplete(final boolean userThread) {
-        assert ! holdsLock(this);
-        int state;
-        synchronized (this) {
-            state = this.state;
-            if (userThread) state |= FLAG_USER_THREAD;
-            unfinishedDependencies--;
+    public void childrenAdded(final TaskChild[] children, final boolean userThread) throws InvalidTransactionStateException {
+        final int count = children.length;
+        // count the children before publishing them, so that no transition can observe them as finished
+        unfinishedChildrenUpdater.addAndGet(this, count);
+        unvalidatedChildrenUpdater.addAndGet(this, count);
+        unterminatedChildrenUpdater.addAndGet(this, count);
+        // a single entry, so that the children are accepted or rejected as a whole
+        final Entry<TaskChild> entry = TaskControllerImpl.<TaskChild>push(childrenUpdater, this, new ChildBatch(children));
+        int oldVal, state;
+        boolean accepted;
+        do {
+            oldVal = this.state;
+            state = oldVal & PERSISTENT_STATE | userThread(userThread);
+            accepted = stateIsIn(state, STATE_EXECUTE);
             state = transition(state);
-            this.state = state & PERSISTENT_STATE;
-        }
+        } while (! compareAndSetState(oldVal, state));
         executeTasks(state);
+        if (! accepted && entry.reject()) {
+            unfinishedChildrenUpdater.addAndGet(this, -count);
+            unvalidatedChildrenUpdater.addAndGet(this, -count);
+            unterminatedChildrenUpdater.addAndGet(this, -count);
+            executeTasks(update(userThread(userThread)));
+            if (userThread) {
+                throw new IllegalStateException("Children may not be added at this point");
+            }
+        }
+    }
+
+    public void dependencyExecutionComplete(final boolean userThread) {
+        unfinishedDependenciesUpdater.decrementAndGet(this);
+        executeTasks(update(userThread(userThread)));
     }
 
     public void dependencyValidationComplete(final boolean userThread) {
-        assert ! holdsLock(this);
-        int state;
-        synchronized (this) {
-            state = this.state;
-            if (userThread) state |= FLAG_USER_THREAD;
-            unvalidatedDependencies--;
-            state = transition(state);
-            this.state = state & PERSISTENT_STATE;
-        }
-        executeTasks(state);
+        unvalidatedDependenciesUpdater.decrementAndGet(this);
+        executeTasks(update(userThread(userThread)));
     }
 
     public void dependencyCommitComplete(final boolean userThread) {
-        assert ! holdsLock(this);
-        int state;
-        synchronized (this) {
-            state = this.state;
-            if (userThread) state |= FLAG_USER_THREAD;
-            uncommittedDependencies--;
-            state = transition(state);
-            this.state = state & PERSISTENT_STATE;
-        }
-        executeTasks(state);
+        uncommittedDependenciesUpdater.decrementAndGet(this);
+        executeTasks(update(userThread(userThread)));
     }
 
     public void childInitiateRollback(final boolean userThread) {
-        assert ! holdsLock(this);
-        int state;
-        synchronized (this) {
-            state = this.state;
-            if (userThread) state |= FLAG_USER_THREAD;
-            state |= FLAG_ROLLBACK_REQ;
-            state = transition(state);
-            this.state = state & PERSISTENT_STATE;
-        }
-        executeTasks(state);
+        executeTasks(update(FLAG_ROLLBACK_REQ | userThread(userThread)));
     }
 
     public void childInitiateValidate(final boolean userThread) {
-        assert ! holdsLock(this);
-        int state;
-        synchronized (this) {
-            state = this.state | FLAG_VALIDATE_REQ;
-            if (userThread) state |= FLAG_USER_THREAD;
-            state = transition(state);
-            this.state = state & PERSISTENT_STATE;
-        }
-        executeTasks(state);
+        executeTasks(update(FLAG_VALIDATE_REQ | userThread(userThread)));
     }
 
     public void childInitiateCommit(final boolean userThread) {
-        assert ! holdsLock(this);
-        int state;
-        synchronized (this) {
-            state = this.state | FLAG_COMMIT_REQ;
-            if (userThread) state |= FLAG_USER_THREAD;
-            state = transition(state);
-            this.state = state & PERSISTENT_STATE;
-        }
-        executeTasks(state);
+        executeTasks(update(FLAG_COMMIT_REQ | userThread(userThread)));
     }
 
     void dependentAdded(final TaskControllerImpl<?> dependent, final boolean userThread) {
-        assert ! holdsLock(this);
-        int state;
+        // count the dependent before publishing it, so that no transition can observe it as terminated
+        unterminatedDependentsUpdater.incrementAndGet(this);
+        final Entry<TaskControllerImpl<?>> entry = TaskControllerImpl.<TaskControllerImpl<?>>push(dependentsUpdater, this, dependent);
+        int oldVal, state;
+        boolean accepted;
+        do {
+            oldVal = this.state;
+            state = oldVal & PERSISTENT_STATE | userThread(userThread);
+            accepted = Bits.allAreSet(DEPENDENT_STATES, 1 << stateOf(state));
+            state = transition(state);
+        } while (! compareAndSetState(oldVal, state));
+        if (! accepted && entry.reject()) {
+            executeTasks(state);
+            unterminatedDependentsUpdater.decrementAndGet(this);
+            executeTasks(update(userThread(userThread)));
+            if (userThread) {
+                throw new IllegalStateException("Dependent may not be added at this point");
+            } else {
+                // todo log and ignore...
+                return;
+            }
+        }
         boolean dependencyDone = false;
         boolean dependencyCancelled = false;
-
-        synchronized (this) {
-            state = this.state;
-            if (userThread) state |= FLAG_USER_THREAD;
-            if (stateIsIn(state, STATE_EXECUTE_WAIT, STATE_EXECUTE, STATE_EXECUTE_DONE, STATE_TERMINATE_WAIT, STATE_TERMINATED)) {
-                dependents.add(dependent);
-                unterminatedDependents++;
-                state = transition(state);
-                this.state = state & PERSISTENT_STATE;
-            } else {
-                if (userThread) {
-                    throw new IllegalStateException("Dependent may not be added at this point");
-                } else {
-                    // todo log and ignore...
-                    return;
-                }
+        boolean dependencyValidated = false;
+        switch (stateOf(state)) {
+            case STATE_EXECUTE_WAIT:
+            case STATE_EXECUTE: {
+                // the transition out of execution will notify the new dependent
+                break;
             }
-            switch (stateOf(state)) {
-                case STATE_TERMINATED:
-                case STATE_TERMINATE_WAIT: {
-                    if (Bits.anyAreSet(state, FLAG_CANCEL_REQ)) {
-                        dependencyCancelled = true;
-                        break;
-                    }
+            case STATE_TERMINATED:
+            case STATE_TERMINATE_WAIT: {
+                if (Bits.anyAreSet(state, FLAG_CANCEL_REQ)) {
+                    dependencyCancelled = true;
+                    break;
                 }
-                case STATE_EXECUTE_DONE: dependencyDone = true;
+                dependencyDone = true;
+                break;
+            }
+            case STATE_VALIDATE_DONE: {
+                dependencyValidated = true;
+            }
+            default: dependencyDone = true;
+        }
+        // the entry may have been picked up by a concurrent transition already
+        if ((dependencyDone || dependencyCancelled) && entry.claim(Entry.FLAG_EXECUTION)) {
+            if (dependencyDone) {
+                dependent.dependencyExecutionComplete(userThread);
+            } else {
+                dependent.forceCancel(userThread);
             }
         }
-        if (dependencyDone) {
-            dependent.dependencyExecutionComplete(userThread);
-        } else if (dependencyCancelled) {
-            dependent.forceCancel(userThread);
+        if (dependencyValidated && entry.claim(Entry.FLAG_VALIDATION)) {
+            dependent.dependencyValidationComplete(userThread);
         }
         executeTasks(state);
     }
 
+    /**
+     * Register a dependent of this task before either of them is installed, when no other thread can see them yet.
+     *
+     * @param dependent the dependent
+     */
+    void dependentWired(final TaskControllerImpl<?> dependent) {
+        assert stateOf(state) == STATE_NEW;
+        unterminatedDependentsUpdater.incrementAndGet(this);
+        TaskControllerImpl.<TaskControllerImpl<?>>push(dependentsUpdater, this, dependent);
+    }
+
     void install() {
-        assert ! holdsLock(this);
-        int state;
-        synchronized (this) {
-            unvalidatedDependencies = uncommittedDependencies = unfinishedDependencies = dependencies.length;
-        }
+        // once added to its parent, this task may be cancelled and reclaimed before its dependencies are all notified
+        final TaskControllerImpl<?>[] dependencies = this.dependencies;
+        unvalidatedDependencies = uncommittedDependencies = unfinishedDependencies = dependencies.length;
         try {
             parent.childAdded(this, true);
         } catch (IllegalStateException e) {
-            synchronized (this) {
-                state = this.state | FLAG_USER_THREAD | FLAG_INSTALL_FAILED;
-                state = transition(state);
-                this.state = state & PERSISTENT_STATE;
-            }
-            executeTasks(state);
+            executeTasks(update(FLAG_USER_THREAD | FLAG_INSTALL_FAILED));
             throw e;
         }
         TaskControllerImpl<?> dependency;
@@ -1105,26 +1253,117 @@ final class TaskControllerImpl<T> implements TaskController<T>, TaskParent, Task
             try {
                 dependency.dependentAdded(this, true);
             } catch (IllegalStateException e) {
-                for (; i >= 0; i --) {
+                // the failed registration undid itself, undo the ones which succeeded
+                for (i --; i >= 0; i --) {
                     dependency = dependencies[i];
                     dependency.dependentTerminated(true);
                 }
                 parent.childTerminated(true);
-                synchronized (this) {
-                    state = this.state | FLAG_USER_THREAD | FLAG_INSTALL_FAILED;
-                    state = transition(state);
-                    this.state = state & PERSISTENT_STATE;
-                }
-                executeTasks(state);
+                executeTasks(update(FLAG_USER_THREAD | FLAG_INSTALL_FAILED));
                 throw e;
             }
         }
-        synchronized (this) {
-            state = this.state | FLAG_USER_THREAD;
-            state = transition(state);
-            this.state = state & PERSISTENT_STATE;
+        raiseDependencyPriorities();
+        executeTasks(update(FLAG_USER_THREAD));
+    }
+
+    /**
+     * Install a graph of tasks at once.  The dependencies between the tasks must have been registered by
+     * {@link #dependentWired(TaskControllerImpl)} already, and each task must list its dependencies outside of the graph
+     * first.  If a task cannot be installed, the installation of the whole graph fails.
+     *
+     * @param parent the parent of the tasks
+     * @param tasks the tasks, each one after its dependencies in the graph
+     * @param externalCounts the number of dependencies outside of the graph, for each task
+     */
+    static void install(final TaskParent parent, final TaskControllerImpl<?>[] tasks, final int[] externalCounts) {
+        if (tasks.length == 0) {
+            return;
+        }
+        // once added to their parent, the tasks may be cancelled and reclaimed before their dependencies are all notified
+        final TaskControllerImpl<?>[][] dependencies = new TaskControllerImpl<?>[tasks.length][];
+        for (int i = 0; i < tasks.length; i++) {
+            final TaskControllerImpl<?> task = tasks[i];
+            dependencies[i] = task.dependencies;
+            task.unvalidatedDependencies = task.uncommittedDependencies = task.unfinishedDependencies = dependencies[i].length;
+        }
+        try {
+            parent.childrenAdded(tasks, true);
+        } catch (IllegalStateException e) {
+            for (TaskControllerImpl<?> task : tasks) {
+                task.executeTasks(task.update(FLAG_USER_THREAD | FLAG_INSTALL_FAILED));
+            }
+            throw e;
+        }
+        for (int i = 0; i < tasks.length; i++) {
+            for (int j = 0; j < externalCounts[i]; j++) {
+                try {
+                    dependencies[i][j].dependentAdded(tasks[i], true);
+                } catch (IllegalStateException e) {
+                    // the failed registration undid itself, undo the ones which succeeded
+                    for (; j > 0; j--) {
+                        dependencies[i][j - 1].dependentTerminated(true);
+                    }
+                    for (; i > 0; i--) {
+                        for (j = 0; j < externalCounts[i - 1]; j++) {
+                            dependencies[i - 1][j].dependentTerminated(true);
+                        }
+                    }
+                    for (TaskControllerImpl<?> task : tasks) {
+                        parent.childTerminated(true);
+                        task.executeTasks(task.update(FLAG_USER_THREAD | FLAG_INSTALL_FAILED));
+                    }
+                    throw e;
+                }
+            }
+        }
+        for (TaskControllerImpl<?> task : tasks) {
+            task.raiseDependencyPriorities();
+        }
+        for (TaskControllerImpl<?> task : tasks) {
+            task.executeTasks(task.update(FLAG_USER_THREAD));
         }
-        executeTasks(state);
+    }
+
+    /**
+     * Get the priority of this task, which is at least the priority of each of its dependents.
+     *
+     * @return the priority
+     */
+    int getPriority() {
+        return priority;
+    }
+
+    /**
+     * Raise the priority of the dependencies of this task, and of theirs in turn, to the priority of this task, so that
+     * the tasks on the path to a high priority task run with its priority.  The walk stops at the tasks which already
+     * have that priority, and is iterative so that long dependency chains do not exhaust the stack.
+     */
+    private void raiseDependencyPriorities() {
+        final int priority = this.priority;
+        ArrayDeque<TaskControllerImpl<?>> pending = null;
+        TaskControllerImpl<?> task = this;
+        do {
+            for (TaskControllerImpl<?> dependency : task.dependencies) {
+                if (dependency.raisePriority(priority)) {
+                    if (pending == null) {
+                        pending = new ArrayDeque<TaskControllerImpl<?>>();
+                    }
+                    pending.add(dependency);
+                }
+            }
+        } while (pending != null && (task = pending.poll()) != null);
+    }
+
+    private boolean raisePriority(final int priority) {
+        int oldVal;
+        do {
+            oldVal = this.priority;
+            if (oldVal >= priority) {
+                return false;
+            }
+        } while (! priorityUpdater.compareAndSet(this, oldVal, priority));
+        return true;
     }
 
     class AsyncTask implements Runnable {
@@ -1137,5 +1376,144 @@ final class TaskControllerImpl<T> implements TaskController<T>, TaskParent, Task
         public void run() {
             executeTasks(state);
         }
+
+        /**
+         * Get the priority of the task this runnable belongs to.
+         *
+         * @return the priority
+         */
+        int getPriority() {
+            return priority;
+        }
+
+        /**
+         * Get the number of direct dependents of the task this runnable belongs to which are not terminated yet.
+         * Dependents of dependents are not counted.
+         *
+         * @return the number of direct dependents
+         */
+        int getDependentCount() {
+            return unterminatedDependents;
+        }
+    }
+
+    /**
+     * Children added in a single batch.  Every notification is forwarded to each child.
+     */
+    private static final class ChildBatch implements TaskChild {
+        private final TaskChild[] children;
+
+        ChildBatch(final TaskChild[] children) {
+            this.children = children;
+        }
+
+        public void dependencyExecutionComplete(final boolean userThread) {
+            for (TaskChild child : children) {
+                child.dependencyExecutionComplete(userThread);
+            }
+        }
+
+        public void dependencyValidationComplete(final boolean userThread) {
+            for (TaskChild child : children) {
+                child.dependencyValidationComplete(userThread);
+            }
+        }
+
+        public void dependencyCommitComplete(final boolean userThread) {
+            for (TaskChild child : children) {
+                child.dependencyCommitComplete(userThread);
+            }
+        }
+
+        public void childInitiateRollback(final boolean userThread) {
+            for (TaskChild child : children) {
+                child.childInitiateRollback(userThread);
+            }
+        }
+
+        public void childInitiateValidate(final boolean userThread) {
+            for (TaskChild child : children) {
+                child.childInitiateValidate(userThread);
+            }
+        }
+
+        public void childInitiateCommit(final boolean userThread) {
+            for (TaskChild child : children) {
+                child.childInitiateCommit(userThread);
+            }
+        }
+
+        public void forceCancel(final boolean userThread) {
+            for (TaskChild child : children) {
+                child.forceCancel(userThread);
+            }
+        }
+    }
+
+    /**
+     * An entry of the lock-free dependent and child lists.  An entry is pushed before the owner's state is checked,
+     * and is then either accepted by the first notification which walks over it, or rejected by the thread which
+     * pushed it if the owner was found in a state which does not allow new dependents or children.
+     */
+    static final class Entry<E> {
+        private static final int FLAG_ACCEPTED   = 1 << 0;
+        private static final int FLAG_REJECTED   = 1 << 1;
+        static final int FLAG_EXECUTION          = 1 << 2;
+        static final int FLAG_VALIDATION         = 1 << 3;
+
+        @SuppressWarnings("rawtypes")
+        private static final AtomicIntegerFieldUpdater<Entry> flagsUpdater = AtomicIntegerFieldUpdater.newUpdater(Entry.class, "flags");
+
+        final E item;
+        Entry<E> next;
+        private volatile int flags;
+
+        Entry(final E item) {
+            this.item = item;
+        }
+
+        /**
+         * Accept this entry, unless it was already rejected.
+         *
+         * @return {@code true} if the entry is accepted
+         */
+        boolean accept() {
+            int oldVal;
+            do {
+                oldVal = flags;
+                if (Bits.allAreSet(oldVal, FLAG_ACCEPTED)) return true;
+                if (Bits.allAreSet(oldVal, FLAG_REJECTED)) return false;
+            } while (! flagsUpdater.compareAndSet(this, oldVal, oldVal | FLAG_ACCEPTED));
+            return true;
+        }
+
+        /**
+         * Reject this entry, unless it was already accepted.
+         *
+         * @return {@code true} if the entry is rejected
+         */
+        boolean reject() {
+            int oldVal;
+            do {
+                oldVal = flags;
+                if (Bits.allAreSet(oldVal, FLAG_ACCEPTED)) return false;
+            } while (! flagsUpdater.compareAndSet(this, oldVal, oldVal | FLAG_REJECTED));
+            return true;
+        }
+
+        /**
+         * Claim the right to send the execution outcome or the validation completion to this entry.
+         *
+         * @param flag {@link #FLAG_EXECUTION} or {@link #FLAG_VALIDATION}
+         * @return {@code true} if the caller must send the notification, {@code false} if it was already sent
+         */
+        boolean claim(final int flag) {
+            int oldVal;
+            do {
+                oldVal = flags;
+                if (Bits.allAreSet(oldVal, flag)) return false;
+            } while (! flagsUpdater.compareAndSet(this, oldVal, oldVal | flag));
+            return true;
+        }
     }
 }
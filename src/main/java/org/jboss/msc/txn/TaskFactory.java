@@ -17,6 +17,8 @@
  */
 package org.jboss.msc.txn;
 
+import java.util.concurrent.Executor;
+
 /**
  * A task factory.
  * 
@@ -43,4 +45,20 @@ interface TaskFactory {
      * @throws IllegalStateException if this context is not accepting new tasks
      */
     TaskBuilder<Void> newTask() throws IllegalStateException;
+
+    /**
+     * Adds a graph of tasks to {@code transaction}, installed together when the graph is released.
+     *
+     * @return the builder for the graph
+     * @throws IllegalStateException if this context is not accepting new tasks
+     */
+    TaskGraphBuilder newTaskGraph() throws IllegalStateException;
+
+    /**
+     * Gets the executor running the task this factory belongs to, on which the work of the task suspended on a lock is
+     * continued.
+     *
+     * @return the executor
+     */
+    Executor getExecutor();
 }
@@ -0,0 +1,138 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.txn;
+
+import java.util.concurrent.Executor;
+
+/**
+ * A builder for a whole graph of subtasks, installed together.  Tasks are identified by the index returned when they are
+ * added, and every task may only depend on tasks added before it, so the graph is acyclic by construction.  Tasks of
+ * the graph may also depend on tasks installed before the graph was released, which must be associated with the same
+ * transaction, or a parent thereof.
+ * <p>
+ * Building many tasks this way is cheaper than building them one by one: the graph is registered with its parent at
+ * once, and the dependencies between its tasks are wired before any of them is visible to other threads.
+ */
+public interface TaskGraphBuilder {
+
+    /**
+     * Get the transaction associated with this builder.
+     *
+     * @return the transaction associated with this builder
+     */
+    Transaction getTransaction();
+
+    /**
+     * Add a task with an executable component.  If the task implements any of the supplementary interfaces
+     * {@link Revertible}, {@link Validatable}, or {@link Committable}, the corresponding parts are pre-initialized.
+     *
+     * @param executable the executable part, or {@code null} for none
+     * @return the index of the new task
+     */
+    int addTask(Executable<?> executable);
+
+    /**
+     * Add a task without an executable component.  All task components will be uninitialized.
+     *
+     * @return the index of the new task
+     */
+    int addTask();
+
+    /**
+     * Set the validatable part of a task, or {@code null} to prevent the validation phase from running for that task.
+     *
+     * @param task the index of the task
+     * @param validatable the validatable part
+     * @return this builder
+     */
+    TaskGraphBuilder setValidatable(int task, Validatable validatable);
+
+    /**
+     * Set the revertible part of a task, or {@code null} if the task should not support rollback.
+     *
+     * @param task the index of the task
+     * @param revertible the revertible part
+     * @return this builder
+     */
+    TaskGraphBuilder setRevertible(int task, Revertible revertible);
+
+    /**
+     * Set the committable part of a task, or {@code null} if the task should not support commit operations.
+     *
+     * @param task the index of the task
+     * @param committable the committable part
+     * @return this builder
+     */
+    TaskGraphBuilder setCommittable(int task, Committable committable);
+
+    /**
+     * Set the class loader to use for a task.
+     *
+     * @param task the index of the task
+     * @param classLoader the class loader
+     * @return this builder
+     */
+    TaskGraphBuilder setClassLoader(int task, ClassLoader classLoader);
+
+    /**
+     * Set the executor to run the parts of a task, or {@code null} to use the transaction executor.
+     *
+     * @param task the index of the task
+     * @param executor the executor
+     * @return this builder
+     */
+    TaskGraphBuilder setExecutor(int task, Executor executor);
+
+    /**
+     * Set the priority of a task.
+     *
+     * @param task the index of the task
+     * @param priority the priority
+     * @return this builder
+     */
+    TaskGraphBuilder setPriority(int task, int priority);
+
+    /**
+     * Add a dependency between two tasks of this graph.
+     *
+     * @param task the index of the dependent task
+     * @param dependency the index of the dependency, which must be lower than {@code task}
+     * @return this builder
+     * @throws IllegalArgumentException if {@code dependency} is not the index of a task added before {@code task}
+     */
+    TaskGraphBuilder addDependency(int task, int dependency) throws IllegalArgumentException;
+
+    /**
+     * Add a dependency of a task of this graph on a task installed outside of it.
+     *
+     * @param task the index of the dependent task
+     * @param dependency the dependency
+     * @return this builder
+     */
+    TaskGraphBuilder addDependency(int task, TaskController<?> dependency);
+
+    /**
+     * Release the tasks of this graph to begin execution.  If a task cannot be installed, the installation of the whole
+     * graph fails.
+     *
+     * @return the new controllers, by task index
+     * @throws IllegalStateException if the graph was already released, or if its tasks may not be added at this point
+     */
+    TaskController<?>[] release() throws IllegalStateException;
+}
@@ -0,0 +1,223 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.txn;
+
+import static org.jboss.msc._private.MSCLogger.TXN;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+/**
+ * A builder for a graph of subtasks.  The graph is kept in flat arrays indexed by task, and its edges as index pairs,
+ * until it is released.
+ */
+final class TaskGraphBuilderImpl implements TaskGraphBuilder {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Transaction transaction;
+    private final TaskParent parent;
+    private int size;
+    private Executable<?>[] executables = new Executable<?>[INITIAL_CAPACITY];
+    private Validatable[] validatables = new Validatable[INITIAL_CAPACITY];
+    private Revertible[] revertibles = new Revertible[INITIAL_CAPACITY];
+    private Committable[] committables = new Committable[INITIAL_CAPACITY];
+    private ClassLoader[] classLoaders = new ClassLoader[INITIAL_CAPACITY];
+    private Executor[] executors = new Executor[INITIAL_CAPACITY];
+    private int[] priorities = new int[INITIAL_CAPACITY];
+    // dependencies inside of the graph, as pairs of dependent and dependency indexes
+    private int edgeCount;
+    private int[] edges = new int[INITIAL_CAPACITY * 2];
+    // dependencies outside of the graph
+    private int externalCount;
+    private int[] externalTasks = new int[0];
+    private TaskControllerImpl<?>[] externalDependencies = new TaskControllerImpl<?>[0];
+    private boolean released;
+
+    TaskGraphBuilderImpl(final Transaction transaction, final TaskParent parent) {
+        this.transaction = transaction;
+        this.parent = parent;
+    }
+
+    public Transaction getTransaction() {
+        return transaction;
+    }
+
+    public int addTask(final Executable<?> executable) {
+        final int task = size;
+        if (task == executables.length) {
+            final int capacity = task << 1;
+            executables = Arrays.copyOf(executables, capacity);
+            validatables = Arrays.copyOf(validatables, capacity);
+            revertibles = Arrays.copyOf(revertibles, capacity);
+            committables = Arrays.copyOf(committables, capacity);
+            classLoaders = Arrays.copyOf(classLoaders, capacity);
+            executors = Arrays.copyOf(executors, capacity);
+            priorities = Arrays.copyOf(priorities, capacity);
+        }
+        executables[task] = executable;
+        if (executable instanceof Validatable) validatables[task] = (Validatable) executable;
+        if (executable instanceof Revertible) revertibles[task] = (Revertible) executable;
+        if (executable instanceof Committable) committables[task] = (Committable) executable;
+        size = task + 1;
+        return task;
+    }
+
+    public int addTask() {
+        return addTask(null);
+    }
+
+    public TaskGraphBuilderImpl setValidatable(final int task, final Validatable validatable) {
+        validatables[checkTask(task)] = validatable;
+        return this;
+    }
+
+    public TaskGraphBuilderImpl setRevertible(final int task, final Revertible revertible) {
+        revertibles[checkTask(task)] = revertible;
+        return this;
+    }
+
+    public TaskGraphBuilderImpl setCommittable(final int task, final Committable committable) {
+        committables[checkTask(task)] = committable;
+        return this;
+    }
+
+    public TaskGraphBuilderImpl setClassLoader(final int task, final ClassLoader classLoader) {
+        classLoaders[checkTask(task)] = classLoader;
+        return this;
+    }
+
+    public TaskGraphBuilderImpl setExecutor(final int task, final Executor executor) {
+        executors[checkTask(task)] = executor;
+        return this;
+    }
+
+    public TaskGraphBuilderImpl setPriority(final int task, final int priority) {
+        priorities[checkTask(task)] = priority;
+        return this;
+    }
+
+    public TaskGraphBuilderImpl addDependency(final int task, final int dependency) throws IllegalArgumentException {
+        checkTask(task);
+        if (dependency < 0 || dependency >= task) {
+            throw new IllegalArgumentException("Task " + task + " may only depend on tasks added before it");
+        }
+        final int index = edgeCount << 1;
+        if (index == edges.length) {
+            edges = Arrays.copyOf(edges, index << 1);
+        }
+        edges[index] = task;
+        edges[index + 1] = dependency;
+        edgeCount++;
+        return this;
+    }
+
+    public TaskGraphBuilderImpl addDependency(final int task, final TaskController<?> dependency) {
+        checkTask(task);
+        if (dependency == null) {
+            throw TXN.methodParameterIsNull("dependency");
+        }
+        final int index = externalCount;
+        if (index == externalTasks.length) {
+            final int capacity = Math.max(INITIAL_CAPACITY, index << 1);
+            externalTasks = Arrays.copyOf(externalTasks, capacity);
+            externalDependencies = Arrays.copyOf(externalDependencies, capacity);
+        }
+        externalTasks[index] = task;
+        externalDependencies[index] = (TaskControllerImpl<?>) dependency;
+        externalCount = index + 1;
+        return this;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public TaskControllerImpl<?>[] release() throws IllegalStateException {
+        if (released) {
+            throw new IllegalStateException("Task graph was already released");
+        }
+        released = true;
+        final int size = this.size;
+        // group the dependencies by dependent, the ones outside of the graph first
+        final int[] internalOffsets = offsets(edges, 2, edgeCount, size);
+        final int[] internal = new int[edgeCount];
+        for (int i = 0, pos; i < edgeCount; i++) {
+            pos = internalOffsets[edges[i << 1]]++;
+            internal[pos] = edges[(i << 1) + 1];
+        }
+        final int[] externalOffsets = offsets(externalTasks, 1, externalCount, size);
+        final TaskControllerImpl<?>[] external = new TaskControllerImpl<?>[externalCount];
+        for (int i = 0; i < externalCount; i++) {
+            external[externalOffsets[externalTasks[i]]++] = externalDependencies[i];
+        }
+        final TaskControllerImpl<?>[] tasks = new TaskControllerImpl<?>[size];
+        final int[] externalCounts = new int[size];
+        final int[] lastDependent = new int[size];
+        final TaskControllerImpl<?>[] buffer = new TaskControllerImpl<?>[size + externalCount];
+        for (int task = 0; task < size; task++) {
+            // filling moved each offset to the end of its range, which is where the range of the next task starts
+            int count = 0;
+            for (int i = task == 0 ? 0 : externalOffsets[task - 1]; i < externalOffsets[task]; i++) {
+                if (! contains(buffer, count, external[i])) buffer[count++] = external[i];
+            }
+            externalCounts[task] = count;
+            for (int i = task == 0 ? 0 : internalOffsets[task - 1]; i < internalOffsets[task]; i++) {
+                final int dependency = internal[i];
+                if (lastDependent[dependency] != task + 1) {
+                    lastDependent[dependency] = task + 1;
+                    buffer[count++] = tasks[dependency];
+                }
+            }
+            final TaskControllerImpl[] dependencies = count == 0 ? TaskBuilderImpl.NO_TASKS : Arrays.copyOf(buffer, count, TaskControllerImpl[].class);
+            final TaskControllerImpl<?> controller = new TaskControllerImpl<Object>(parent, dependencies, (Executable<Object>) executables[task], revertibles[task], validatables[task], committables[task], classLoaders[task], executors[task], priorities[task]);
+            for (int i = count - 1; i >= externalCounts[task]; i--) {
+                dependencies[i].dependentWired(controller);
+            }
+            tasks[task] = controller;
+        }
+        TaskControllerImpl.install(parent, tasks, externalCounts);
+        return tasks;
+    }
+
+    private int checkTask(final int task) throws IllegalArgumentException {
+        if (task < 0 || task >= size) {
+            throw new IllegalArgumentException("No task with index " + task);
+        }
+        return task;
+    }
+
+    /**
+     * Compute the start offset of the range of each task in a flat array of the given items grouped by task.
+     */
+    private static int[] offsets(final int[] keys, final int stride, final int count, final int size) {
+        final int[] offsets = new int[size + 1];
+        for (int i = 0; i < count; i++) {
+            offsets[keys[i * stride] + 1]++;
+        }
+        for (int i = 1; i <= size; i++) {
+            offsets[i] += offsets[i - 1];
+        }
+        return offsets;
+    }
+
+    private static boolean contains(final Object[] array, final int length, final Object item) {
+        for (int i = 0; i < length; i++) {
+            if (array[i] == item) return true;
+        }
+        return false;
+    }
+}
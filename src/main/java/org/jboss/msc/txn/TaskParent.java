@@ -55,6 +55,14 @@ interface TaskParent {
      */
     void childAdded(TaskChild child, boolean userThread) throws InvalidTransactionStateException;
 
+    /**
+     * Indicate to this parent that several children are added at once.
+     *
+     * @param children the children added
+     * @param userThread {@code true} if executed from a user thread
+     */
+    void childrenAdded(TaskChild[] children, boolean userThread) throws InvalidTransactionStateException;
+
     /**
      * Get the transaction implementation for this parent.
      *
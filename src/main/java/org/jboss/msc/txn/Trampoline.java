@@ -0,0 +1,150 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.txn;
+
+import java.util.Arrays;
+
+/**
+ * A per-thread queue of pending state machine jobs.
+ * <p>
+ * Sending a notification to a task or transaction may cause a transition whose jobs notify further tasks, and so on
+ * along the whole task graph.  Instead of running those jobs recursively, they are queued on the current thread and run
+ * by the outermost caller, so the stack depth no longer grows with the length of a dependency chain.
+ * <p>
+ * User code invoked while jobs are being run gets its own frame: jobs caused by that user code are run before control
+ * returns to it, exactly as they would have been without queueing.
+ */
+final class Trampoline {
+
+    private static final ThreadLocal<Trampoline> CURRENT = new ThreadLocal<Trampoline>() {
+        protected Trampoline initialValue() {
+            return new Trampoline();
+        }
+    };
+
+    private static final int COMPACT_THRESHOLD = 256;
+
+    private Object[] targets = new Object[16];
+    private int[] states = new int[16];
+    private int head;
+    private int tail;
+    private boolean running;
+
+    private Trampoline() {
+    }
+
+    /**
+     * Run the jobs of the given state on the given target, once all jobs queued before it on this thread have run.
+     *
+     * @param target the task controller or transaction
+     * @param state the state containing the jobs to run
+     */
+    static void execute(final Object target, final int state) {
+        final Trampoline trampoline = CURRENT.get();
+        trampoline.add(target, state);
+        if (! trampoline.running) {
+            trampoline.run();
+        }
+    }
+
+    /**
+     * Open a new frame before calling user code.
+     *
+     * @return the cookie to pass to {@link #exitFrame(int)}
+     */
+    static int enterFrame() {
+        final Trampoline trampoline = CURRENT.get();
+        if (! trampoline.running) {
+            return -1;
+        }
+        final int head = trampoline.head;
+        trampoline.head = trampoline.tail;
+        trampoline.running = false;
+        return head;
+    }
+
+    /**
+     * Close the frame opened by {@link #enterFrame()} once user code returned.
+     *
+     * @param cookie the value returned by {@link #enterFrame()}
+     */
+    static void exitFrame(final int cookie) {
+        if (cookie == -1) {
+            return;
+        }
+        final Trampoline trampoline = CURRENT.get();
+        assert ! trampoline.running && trampoline.head == trampoline.tail;
+        trampoline.head = cookie;
+        trampoline.running = true;
+    }
+
+    private void add(final Object target, final int state) {
+        if (tail == targets.length) {
+            targets = Arrays.copyOf(targets, tail << 1);
+            states = Arrays.copyOf(states, tail << 1);
+        }
+        targets[tail] = target;
+        states[tail++] = state;
+    }
+
+    private void compact(final int start) {
+        final int size = tail - head;
+        System.arraycopy(targets, head, targets, start, size);
+        System.arraycopy(states, head, states, start, size);
+        Arrays.fill(targets, start + size, tail, null);
+        head = start;
+        tail = start + size;
+    }
+
+    private void run() {
+        final int start = head;
+        Throwable problem = null;
+        running = true;
+        try {
+            while (head < tail) {
+                final Object target = targets[head];
+                final int state = states[head];
+                targets[head++] = null;
+                try {
+                    if (target instanceof TaskControllerImpl) {
+                        ((TaskControllerImpl<?>) target).runTasks(state);
+                    } else {
+                        ((Transaction) target).runTasks(state);
+                    }
+                } catch (Throwable t) {
+                    // keep going, the remaining jobs belong to other callers
+                    if (problem == null) problem = t;
+                }
+                if (head - start >= COMPACT_THRESHOLD && head - start >= tail - head) {
+                    compact(start);
+                }
+            }
+        } finally {
+            head = tail = start;
+            running = false;
+        }
+        if (problem instanceof RuntimeException) {
+            throw (RuntimeException) problem;
+        } else if (problem instanceof Error) {
+            throw (Error) problem;
+        } else if (problem != null) {
+            throw new IllegalStateException(problem);
+        }
+    }
+}
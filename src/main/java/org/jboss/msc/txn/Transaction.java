@@ -20,10 +20,11 @@ package org.jboss.msc.txn;
 
 import static java.lang.Thread.holdsLock;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import org.jboss.msc._private.MSCLogger;
 import org.jboss.msc._private.Version;
@@ -55,6 +56,7 @@ public abstract class Transaction extends SimpleAttachable implements Attachable
     private static final int FLAG_SEND_ROLLBACK_REQ = 1 << 11;
     private static final int FLAG_CLEAN_UP = 1 << 12;
     private static final int FLAG_USER_THREAD = 1 << 31;
+    private static final int TASK_FLAGS = Bits.intBitMask(6, 12);
 
     private static final int STATE_ACTIVE           = 0x0; // adding tasks and subtransactions; counts = # added
     private static final int STATE_PREPARING        = 0x1; // preparing all our tasks
@@ -66,6 +68,13 @@ public abstract class Transaction extends SimpleAttachable implements Attachable
     private static final int STATE_MASK = 0x07;
     private static final int PERSISTENT_STATE = STATE_MASK | FLAG_ROLLBACK_REQ | FLAG_PREPARE_REQ | FLAG_COMMIT_REQ;
 
+    // the top level task counters are spread over stripes, each one on its own cache line
+    private static final int STRIPES = Math.min(Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1), 32);
+    private static final int STRIPE_SIZE = 16;
+    private static final int UNFINISHED = 0;
+    private static final int UNVALIDATED = 1;
+    private static final int UNTERMINATED = 2;
+
     private static final int T_NONE = 0;
     private static final int T_ACTIVE_to_PREPARING  = 1;
     private static final int T_ACTIVE_to_ROLLBACK   = 2;
@@ -78,41 +87,32 @@ public abstract class Transaction extends SimpleAttachable implements Attachable
     protected final TransactionController controller;
     protected final Executor taskExecutor;
     protected final Problem.Severity maxSeverity;
+    private final DispatchPolicy dispatchPolicy;
     private final long startTime = System.nanoTime();
-    private final List<TaskControllerImpl<?>> topLevelTasks = new ArrayList<TaskControllerImpl<?>>();
+    private final Queue<TaskControllerImpl<?>> topLevelTasks = new ConcurrentLinkedQueue<TaskControllerImpl<?>>();
     private final ProblemReport problemReport = new ProblemReport();
-    private final TaskParent topParent = new TaskParent() {
-        public void childExecutionFinished(final boolean userThread) {
-            doChildExecutionFinished(userThread);
-        }
-
-        public void childValidationFinished(final boolean userThread) {
-            doChildValidationFinished(userThread);
-        }
-
-        public void childTerminated(final boolean userThread) {
-            doChildTerminated(userThread);
+    private final AtomicIntegerArray stripeCounters = new AtomicIntegerArray(STRIPES * STRIPE_SIZE);
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final TaskFactory taskFactory = new TaskFactory() {
+        public final <T> TaskBuilder<T> newTask(Executable<T> task) throws IllegalStateException {
+            return new TaskBuilderImpl<T>(Transaction.this, getStripe(), task);
         }
 
-        public void childAdded(final TaskChild child, final boolean userThread) throws InvalidTransactionStateException {
-            doChildAdded(child, userThread);
+        public TaskBuilder<Void> newTask() throws IllegalStateException {
+            return new TaskBuilderImpl<Void>(Transaction.this, getStripe());
         }
 
-        public Transaction getTransaction() {
-            return Transaction.this;
-        }
-    };
-    private final TaskFactory taskFactory = new TaskFactory() {
-        public final <T> TaskBuilder<T> newTask(Executable<T> task) throws IllegalStateException {
-            return new TaskBuilderImpl<T>(Transaction.this, topParent, task);
+        public TaskGraphBuilder newTaskGraph() throws IllegalStateException {
+            return new TaskGraphBuilderImpl(Transaction.this, getStripe());
         }
 
-        public TaskBuilder<Void> newTask() throws IllegalStateException {
-            return new TaskBuilderImpl<Void>(Transaction.this, topParent);
+        public Executor getExecutor() {
+            return taskExecutor;
         }
     };
     private long endTime;
     private int state;
+    // the number of stripes with unfinished, unvalidated and unterminated children
     private int unfinishedChildren;
     private int unvalidatedChildren;
     private int unterminatedChildren;
@@ -121,14 +121,16 @@ public abstract class Transaction extends SimpleAttachable implements Attachable
     private volatile boolean isRollbackRequested;
 
     protected Transaction(final TransactionController controller, final Executor taskExecutor, final Problem.Severity maxSeverity) {
+        this(controller, taskExecutor, maxSeverity, DispatchPolicy.EXECUTOR);
+    }
+
+    protected Transaction(final TransactionController controller, final Executor taskExecutor, final Problem.Severity maxSeverity, final DispatchPolicy dispatchPolicy) {
         this.controller = controller;
         this.taskExecutor = taskExecutor;
         this.maxSeverity = maxSeverity;
-    }
-
-    void forceStateRolledBack() {
-        synchronized (this) {
-            state = STATE_ROLLED_BACK;
+        this.dispatchPolicy = dispatchPolicy;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(i * STRIPE_SIZE);
         }
     }
 
@@ -157,6 +159,10 @@ public abstract class Transaction extends SimpleAttachable implements Attachable
         }
     }
 
+    long getStartTime() {
+        return startTime;
+    }
+
     public long getDuration(TimeUnit unit) {
         assert ! holdsLock(this);
         synchronized (this) {
@@ -176,6 +182,17 @@ public abstract class Transaction extends SimpleAttachable implements Attachable
         return taskExecutor;
     }
 
+    /**
+     * Determine whether the given internal task part may run directly on a user thread, instead of being handed to
+     * the executor.
+     *
+     * @param part the task part
+     * @return {@code true} if the part may run on the calling thread
+     */
+    boolean runsDirectly(final Object part) {
+        return dispatchPolicy == DispatchPolicy.DIRECT_WHEN_CHEAP && part instanceof NonBlocking;
+    }
+
     public ProblemReport getProblemReport() {
         return problemReport;
     }
@@ -260,7 +277,12 @@ public abstract class Transaction extends SimpleAttachable implements Attachable
             switch (t) {
                 case T_NONE: return state;
                 case T_ACTIVE_to_PREPARING: {
-                    state = newState(STATE_PREPARING, state | FLAG_SEND_VALIDATE_REQ);
+                    if (unvalidatedChildren == 0) {
+                        // every task validated eagerly, nothing to request
+                        state = newState(STATE_PREPARING, state);
+                    } else {
+                        state = newState(STATE_PREPARING, state | FLAG_SEND_VALIDATE_REQ);
+                    }
                     continue;
                 }
                 case T_ACTIVE_to_ROLLBACK: {
@@ -297,6 +319,17 @@ public abstract class Transaction extends SimpleAttachable implements Attachable
     }
 
     private void executeTasks(final int state) {
+        if (Bits.anyAreSet(state, TASK_FLAGS)) {
+            Trampoline.execute(this, state);
+        }
+    }
+
+    /**
+     * Run the jobs of the given state.  Only called by the {@link Trampoline}.
+     *
+     * @param state the state containing the jobs to run
+     */
+    void runTasks(final int state) {
         final boolean userThread = Bits.allAreSet(state, FLAG_USER_THREAD);
         if (Bits.allAreSet(state, FLAG_SEND_VALIDATE_REQ)) {
             for (TaskControllerImpl<?> task : topLevelTasks) {
@@ -315,8 +348,10 @@ public abstract class Transaction extends SimpleAttachable implements Attachable
         }
         if (Bits.allAreSet(state, FLAG_CLEAN_UP)) {
             Transactions.unregister(this);
+            // every task is terminated, do not keep the task graph reachable through this transaction
+            topLevelTasks.clear();
         }
-        if (userThread) {
+        if (userThread && dispatchPolicy == DispatchPolicy.EXECUTOR) {
             if (Bits.allAreSet(state, FLAG_DO_COMMIT_LISTENER)) {
                 safeExecute(new AsyncTask(FLAG_DO_COMMIT_LISTENER));
             }
@@ -447,7 +482,7 @@ public abstract class Transaction extends SimpleAttachable implements Attachable
     }
 
     public void waitFor(final Transaction other) throws InterruptedException, DeadlockException {
-        Transactions.waitFor(this,  other);
+        controller.getDeadlockPolicy().waitFor(this, other);
     }
 
     protected void finalize() {
@@ -470,47 +505,6 @@ public abstract class Transaction extends SimpleAttachable implements Attachable
         }
     }
 
-    private void doChildExecutionFinished(final boolean userThread) {
-        assert ! holdsLock(this);
-        int state;
-        synchronized (this) {
-            state = this.state;
-            if (userThread) state |= FLAG_USER_THREAD;
-            unfinishedChildren--;
-            state = transition(state);
-            this.state = state & PERSISTENT_STATE;
-        }
-        executeTasks(state);
-    }
-
-    private void doChildValidationFinished(final boolean userThread) {
-        assert ! holdsLock(this);
-        int state;
-        synchronized (this) {
-            state = this.state;
-            if (userThread) state |= FLAG_USER_THREAD;
-            unvalidatedChildren--;
-            state = transition(state);
-            this.state = state & PERSISTENT_STATE;
-        }
-        executeTasks(state);
-    }
-
-    private void doChildTerminated(final boolean userThread) {
-        assert ! holdsLock(this);
-        int state;
-        synchronized (this) {
-            state = this.state;
-            if (userThread) state |= FLAG_USER_THREAD;
-            unfinishedChildren--;
-            unvalidatedChildren--;
-            unterminatedChildren--;
-            state = transition(state);
-            this.state = state & PERSISTENT_STATE;
-        }
-        executeTasks(state);
-    }
-
     private void callTerminateListener() {
         Listener<? super Transaction> listener;
         synchronized (this) {
@@ -530,31 +524,78 @@ public abstract class Transaction extends SimpleAttachable implements Attachable
         safeCall(listener);
     }
 
-    private void doChildAdded(final TaskChild child, final boolean userThread) throws InvalidTransactionStateException {
-        assert ! holdsLock(this);
-        int state;
-        synchronized (this) {
-            state = this.state;
-            if (stateOf(state) != STATE_ACTIVE) {
-                throw new InvalidTransactionStateException("Transaction is not active");
-            }
-            if (userThread) state |= FLAG_USER_THREAD;
-            topLevelTasks.add((TaskControllerImpl<?>) child);
-            unfinishedChildren++;
-            unvalidatedChildren++;
-            unterminatedChildren++;
-            state = transition(state);
-            this.state = state & PERSISTENT_STATE;
+    private void safeCall(final Listener<? super Transaction> listener) {
+        if (listener != null) {
+            final int frame = Trampoline.enterFrame();
+            try {
+                listener.handleEvent(this);
+            } catch (Throwable ignored) {
+                MSCLogger.ROOT.listenerFailed(ignored, listener);
+            } finally {
+                Trampoline.exitFrame(frame);
+            }
         }
-        executeTasks(state);
     }
 
-    private void safeCall(final Listener<? super Transaction> listener) {
-        if (listener != null) try {
-            listener.handleEvent(this);
-        } catch (Throwable ignored) {
-            MSCLogger.ROOT.listenerFailed(ignored, listener);
-        }
+    private Stripe getStripe() {
+        return stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)];
+    }
+
+    /**
+     * Add to a stripe counter without holding the monitor, unless the counter is not above zero.  Counters go below zero
+     * once the phase they matter for is over, as terminated children are subtracted from all of them.
+     *
+     * @param index the index of the counter
+     * @param delta the amount to add
+     * @return {@code true} if the amount was added, {@code false} if it must be added under the monitor
+     */
+    private boolean addAboveZero(final int index, final int delta) {
+        int count;
+        do {
+            count = stripeCounters.get(index);
+            if (count <= 0) return false;
+        } while (! stripeCounters.compareAndSet(index, count, count + delta));
+        return true;
+    }
+
+    /**
+     * Subtract from a stripe counter without holding the monitor, unless the counter would reach zero.
+     *
+     * @param index the index of the counter
+     * @param delta the amount to subtract
+     * @return {@code true} if the amount was subtracted, {@code false} if it must be subtracted under the monitor
+     */
+    private boolean subtractAboveZero(final int index, final int delta) {
+        int count;
+        do {
+            count = stripeCounters.get(index);
+            if (count <= delta) return false;
+        } while (! stripeCounters.compareAndSet(index, count, count - delta));
+        return true;
+    }
+
+    /**
+     * Add to a stripe counter under the monitor.
+     *
+     * @param index the index of the counter
+     * @param delta the amount to add
+     * @return {@code true} if the counter was zero
+     */
+    private boolean addFromZero(final int index, final int delta) {
+        assert holdsLock(this);
+        return stripeCounters.getAndAdd(index, delta) == 0;
+    }
+
+    /**
+     * Subtract from a stripe counter under the monitor.
+     *
+     * @param index the index of the counter
+     * @param delta the amount to subtract
+     * @return {@code true} if the counter reached zero
+     */
+    private boolean subtractToZero(final int index, final int delta) {
+        assert holdsLock(this);
+        return stripeCounters.addAndGet(index, -delta) == 0;
     }
 
     public TaskFactory getTaskFactory() {
@@ -569,6 +610,123 @@ public abstract class Transaction extends SimpleAttachable implements Attachable
         return taskFactory.newTask();
     }
 
+    public TaskGraphBuilder newTaskGraph() throws IllegalStateException {
+        return taskFactory.newTaskGraph();
+    }
+
+    /**
+     * A parent of top level tasks, counting its children on its own stripe.  The counters are only changed under the
+     * transaction monitor when they move from or to zero, and the transaction counts the stripes whose counters are not
+     * zero, so that the transitions see the same counts as if every child were counted under the monitor.  A stripe
+     * with unfinished children keeps the transaction active, so that children may be added to it without checking the
+     * state under the monitor.
+     */
+    private final class Stripe implements TaskParent {
+        private final int base;
+
+        Stripe(final int base) {
+            this.base = base;
+        }
+
+        public void childExecutionFinished(final boolean userThread) {
+            if (subtractAboveZero(base + UNFINISHED, 1)) {
+                return;
+            }
+            assert ! holdsLock(Transaction.this);
+            int state;
+            synchronized (Transaction.this) {
+                state = Transaction.this.state;
+                if (userThread) state |= FLAG_USER_THREAD;
+                if (subtractToZero(base + UNFINISHED, 1)) unfinishedChildren--;
+                state = transition(state);
+                Transaction.this.state = state & PERSISTENT_STATE;
+            }
+            executeTasks(state);
+        }
+
+        public void childValidationFinished(final boolean userThread) {
+            if (subtractAboveZero(base + UNVALIDATED, 1)) {
+                return;
+            }
+            assert ! holdsLock(Transaction.this);
+            int state;
+            synchronized (Transaction.this) {
+                state = Transaction.this.state;
+                if (userThread) state |= FLAG_USER_THREAD;
+                if (subtractToZero(base + UNVALIDATED, 1)) unvalidatedChildren--;
+                state = transition(state);
+                Transaction.this.state = state & PERSISTENT_STATE;
+            }
+            executeTasks(state);
+        }
+
+        public void childTerminated(final boolean userThread) {
+            final boolean finished = subtractAboveZero(base + UNFINISHED, 1);
+            final boolean validated = subtractAboveZero(base + UNVALIDATED, 1);
+            final boolean terminated = subtractAboveZero(base + UNTERMINATED, 1);
+            if (finished && validated && terminated) {
+                return;
+            }
+            assert ! holdsLock(Transaction.this);
+            int state;
+            synchronized (Transaction.this) {
+                state = Transaction.this.state;
+                if (userThread) state |= FLAG_USER_THREAD;
+                if (! finished && subtractToZero(base + UNFINISHED, 1)) unfinishedChildren--;
+                if (! validated && subtractToZero(base + UNVALIDATED, 1)) unvalidatedChildren--;
+                if (! terminated && subtractToZero(base + UNTERMINATED, 1)) unterminatedChildren--;
+                state = transition(state);
+                Transaction.this.state = state & PERSISTENT_STATE;
+            }
+            executeTasks(state);
+        }
+
+        public void childAdded(final TaskChild child, final boolean userThread) throws InvalidTransactionStateException {
+            childrenAdded(new TaskChild[] { child }, userThread);
+        }
+
+        public void childrenAdded(final TaskChild[] children, final boolean userThread) throws InvalidTransactionStateException {
+            final int count = children.length;
+            if (addAboveZero(base + UNFINISHED, count)) {
+                // the unfinished children of this stripe keep the transaction active
+                for (TaskChild child : children) {
+                    topLevelTasks.add((TaskControllerImpl<?>) child);
+                }
+                final boolean unvalidated = addAboveZero(base + UNVALIDATED, count);
+                final boolean unterminated = addAboveZero(base + UNTERMINATED, count);
+                if (! unvalidated || ! unterminated) {
+                    synchronized (Transaction.this) {
+                        if (! unvalidated && addFromZero(base + UNVALIDATED, count)) unvalidatedChildren++;
+                        if (! unterminated && addFromZero(base + UNTERMINATED, count)) unterminatedChildren++;
+                    }
+                }
+                return;
+            }
+            assert ! holdsLock(Transaction.this);
+            int state;
+            synchronized (Transaction.this) {
+                state = Transaction.this.state;
+                if (stateOf(state) != STATE_ACTIVE) {
+                    throw new InvalidTransactionStateException("Transaction is not active");
+                }
+                if (userThread) state |= FLAG_USER_THREAD;
+                for (TaskChild child : children) {
+                    topLevelTasks.add((TaskControllerImpl<?>) child);
+                }
+                if (addFromZero(base + UNFINISHED, count)) unfinishedChildren++;
+                if (addFromZero(base + UNVALIDATED, count)) unvalidatedChildren++;
+                if (addFromZero(base + UNTERMINATED, count)) unterminatedChildren++;
+                state = transition(state);
+                Transaction.this.state = state & PERSISTENT_STATE;
+            }
+            executeTasks(state);
+        }
+
+        public Transaction getTransaction() {
+            return Transaction.this;
+        }
+    }
+
     class AsyncTask implements Runnable {
         private final int state;
 
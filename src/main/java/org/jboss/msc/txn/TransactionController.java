@@ -35,14 +35,40 @@ public final class TransactionController extends SimpleAttachable {
 
     private final ServiceContext serviceContext = new ServiceContextImpl(this);
 
-    private TransactionController() {}
+    private final DeadlockPolicy deadlockPolicy;
+
+    private TransactionController(final DeadlockPolicy deadlockPolicy) {
+        this.deadlockPolicy = deadlockPolicy;
+    }
 
     public static TransactionController createInstance() {
+        return createInstance(DeadlockPolicy.DETECTION);
+    }
+
+    /**
+     * Create a transaction controller.
+     *
+     * @param deadlockPolicy the policy keeping the transactions created by the controller from deadlocking
+     * @return the transaction controller
+     */
+    public static TransactionController createInstance(final DeadlockPolicy deadlockPolicy) {
         final SecurityManager sm = System.getSecurityManager();
         if (sm != null) {
             sm.checkPermission(TXN_CONTROLLER_CREATE_PERM);
         }
-        return new TransactionController();
+        if (deadlockPolicy == null) {
+            throw TXN.methodParameterIsNull("deadlockPolicy");
+        }
+        return new TransactionController(deadlockPolicy);
+    }
+
+    /**
+     * Get the policy keeping the transactions created by this controller from deadlocking.
+     *
+     * @return the deadlock policy
+     */
+    public DeadlockPolicy getDeadlockPolicy() {
+        return deadlockPolicy;
     }
 
     /**
@@ -63,6 +89,35 @@ public final class TransactionController extends SimpleAttachable {
      * @return the transaction
      */
     public BasicTransaction create(final Executor executor, final Problem.Severity maxSeverity) {
+        return create(executor, maxSeverity, DispatchPolicy.EXECUTOR);
+    }
+
+    /**
+     * Create a new task transaction.  Unless {@code dispatchPolicy} is {@link DispatchPolicy#EXECUTOR}, the completion
+     * listeners passed to {@link #prepare}, {@link #commit} and {@link #rollback} run on the thread which finishes the
+     * transaction phase rather than on {@code executor}: the thread requesting the phase if nothing is left to wait
+     * for, or else the thread completing the last task.  Such listeners must not block.
+     *
+     * @param executor the executor to use to run tasks
+     * @param dispatchPolicy the policy deciding which work triggered from user threads may skip the executor
+     * @return the transaction
+     */
+    public BasicTransaction create(final Executor executor, final DispatchPolicy dispatchPolicy) {
+        return create(executor, Problem.Severity.WARNING, dispatchPolicy);
+    }
+
+    /**
+     * Create a new task transaction.  Unless {@code dispatchPolicy} is {@link DispatchPolicy#EXECUTOR}, the completion
+     * listeners passed to {@link #prepare}, {@link #commit} and {@link #rollback} run on the thread which finishes the
+     * transaction phase rather than on {@code executor}: the thread requesting the phase if nothing is left to wait
+     * for, or else the thread completing the last task.  Such listeners must not block.
+     *
+     * @param executor the executor to use to run tasks
+     * @param maxSeverity the maximum severity to allow
+     * @param dispatchPolicy the policy deciding which work triggered from user threads may skip the executor
+     * @return the transaction
+     */
+    public BasicTransaction create(final Executor executor, final Problem.Severity maxSeverity, final DispatchPolicy dispatchPolicy) {
         if (executor == null) {
             throw TXN.methodParameterIsNull("executor");
         }
@@ -72,18 +127,16 @@ public final class TransactionController extends SimpleAttachable {
         if (maxSeverity.compareTo(Problem.Severity.CRITICAL) >= 0) {
             throw TXN.illegalSeverity("maxSeverity");
         }
-        return registerTransaction(new BasicTransaction(this, executor, maxSeverity));
+        if (dispatchPolicy == null) {
+            throw TXN.methodParameterIsNull("dispatchPolicy");
+        }
+        return registerTransaction(new BasicTransaction(this, executor, maxSeverity, dispatchPolicy));
     }
 
 
 
     <T extends Transaction> T registerTransaction(final T transaction) {
-        try {
-            Transactions.register(transaction);
-        } catch (final IllegalStateException e) {
-            transaction.forceStateRolledBack();
-            throw e;
-        }
+        Transactions.register(transaction);
         return transaction;
     }
 
@@ -149,6 +202,19 @@ public final class TransactionController extends SimpleAttachable {
         return transaction.newTask();
     }
 
+    /**
+     * Adds a graph of tasks to {@code transaction}, installed together when the graph is released.
+     *
+     * @param transaction the transaction
+     * @return the graph builder
+     * @throws IllegalStateException if the transaction is not open
+     * @throws SecurityException if transaction was not created by this controller
+     */
+    public TaskGraphBuilder newTaskGraph(final Transaction transaction) throws IllegalStateException, SecurityException {
+        validateTransaction(transaction);
+        return transaction.newTaskGraph();
+    }
+
     /**
      * Prepare {@code transaction}.  It is an error to prepare a transaction with unreleased tasks.
      * Once this method returns, either {@link #commit(BasicTransaction, Listener)} or {@link #rollback(BasicTransaction, Listener)} must be called.
@@ -217,7 +283,7 @@ public final class TransactionController extends SimpleAttachable {
      * @param transaction transaction containing current operation
      * @param other the other transaction
      * @throws InterruptedException if the wait was interrupted
-     * @throws DeadlockException if this wait has caused a deadlock and this task was selected to break it
+     * @throws DeadlockException if the {@link #getDeadlockPolicy() deadlock policy} gave up this wait
      * @throws SecurityException if transaction was not created by this controller
      */
     public void waitFor(final Transaction transaction, final Transaction other) throws InterruptedException, DeadlockException, SecurityException {
@@ -17,9 +17,18 @@
  */
 package org.jboss.msc.txn;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.msc._private.MSCLogger;
 
 /**
  * Object with write lock support per transaction.
@@ -27,17 +36,39 @@ import java.util.Map.Entry;
  * With {@link #lockWrite}, the object is locked under a transaction that is attempting to change the object's state.
  * Once locked, no other transaction can edit the object's state. When the transaction completes, the object is
  * automatically unlocked. If the transaction holding the lock is rolled back, {@link #revert(Object)} is invoked, and
- * the object is reverted to its original state before locked.
+ * the object is reverted to its original state before locked.  The original state is only recorded once the object is
+ * about to be {@link #mutating() mutated}, objects which are locked and left untouched are neither copied nor reverted.
+ * <p>
+ * Tasks lock with {@link #lockWrite(Transaction, TaskFactory, LockCallback)} instead, which suspends the task rather
+ * than its thread while another transaction holds the lock.
+ * <p>
+ * Every commit publishes an immutable {@link #takeVersion() version} of the objects it locked.  Readers get the
+ * versions as of a point in time through an {@link Epoch}, without locking and without being blocked by writers.
  * 
  * @author <a href="mailto:frainone@redhat.com">Flavia Rainone</a>
  *
  */
 abstract class TransactionalObject {
 
-    private static AttachmentKey<Map<TransactionalObject, Object>> TRANSACTIONAL_OBJECTS = AttachmentKey.create();
+    // the objects locked by a transaction, added to concurrently by the tasks of the transaction
+    private static final AttachmentKey<Set<TransactionalObject>> TRANSACTIONAL_OBJECTS = AttachmentKey.create();
+    // orders the epochs of commits, held while an epoch is linked and while the current epoch moves forward
+    private static final Object EPOCH_LOCK = new Object();
+    // the last epoch whose versions, and those of every epoch before it, are all published
+    private static volatile Epoch currentEpoch = new Epoch(Collections.<TransactionalObject, Object>emptyMap(), 0L);
+    // the last epoch linked, whose versions may still be being published, guarded by EPOCH_LOCK
+    private static Epoch linkedEpoch = currentEpoch;
 
     // inner lock
     private Transaction lock;
+    // lock requests of suspended tasks, resumed once this object is unlocked
+    private List<LockRequest> lockRequests;
+    // the last committed version, null if none was committed yet
+    private volatile Object version;
+    // whether this object was mutated under the current lock
+    private boolean dirty;
+    // the state of this object before it was mutated under the current lock
+    private Object snapshot;
 
     /**
      * Write locks this object under {@code transaction}. If another transaction holds the lock, this method will block
@@ -47,10 +78,10 @@ abstract class TransactionalObject {
      *  
      * @param transaction the transaction that is attempting to modify current's object state
      * @param taskFactory the  task factory
+     * @throws TransactionDeadlockException if the deadlock policy gave up waiting for the lock
      */
     final void lockWrite(Transaction transaction, TaskFactory taskFactory) {
         assert !Thread.holdsLock(this);
-        final Object snapshot;
         while (true) {
             Transaction currentLock;
             synchronized (this) {
@@ -67,13 +98,14 @@ abstract class TransactionalObject {
                     // a task controller, and how will that look like in the log?
                     final Problem problem = new Problem(null, e);
                     transaction.getProblemReport().addProblem(problem);
+                    // the deadlock policy gave up this wait, waiting again could only deadlock or be given up again
+                    throw new TransactionDeadlockException(e);
                 } catch (InterruptedException e) {
                 }
             } else {
                 synchronized (this) {
                     if (lock == null) {
                         lock = transaction;
-                        snapshot = takeSnapshot();
                         // notice that write locked must be garanteed to have been invoked if/when
                         // another thread checks that current lock is not null
                         writeLocked(transaction);
@@ -82,17 +114,105 @@ abstract class TransactionalObject {
                 }
             }
         } 
-        final Map<TransactionalObject, Object> transactionalObjects;
-        synchronized (TRANSACTIONAL_OBJECTS) {
-            if (transaction.hasAttachment(TRANSACTIONAL_OBJECTS)) {
-                transactionalObjects = transaction.getAttachment(TRANSACTIONAL_OBJECTS);
+        locked(transaction, taskFactory);
+    }
+
+    /**
+     * Write locks this object under {@code transaction} without blocking the calling thread.  If another transaction
+     * holds the lock, the request is suspended and this method returns at once: the request is retried by the
+     * {@link TaskFactory#getExecutor() executor of the requesting task} once this object is unlocked, so that the task
+     * continues on the executor it would have run on.  {@code callback} is called once the lock is held, or once the
+     * deadlock policy gave up the request.
+     * 
+     * <p> Meant for tasks, which complete from {@code callback} instead of blocking an executor thread until the lock is
+     * released.  If the deadlock policy cannot register waits of suspended tasks, this method blocks as
+     * {@link #lockWrite(Transaction, TaskFactory)} does.
+     * 
+     * @param transaction the transaction that is attempting to modify current's object state
+     * @param taskFactory the task factory, valid until {@code callback} is called
+     * @param callback    the continuation of the request
+     */
+    final void lockWrite(final Transaction transaction, final TaskFactory taskFactory, final LockCallback callback) {
+        assert !Thread.holdsLock(this);
+        final DeadlockPolicy deadlockPolicy = transaction.getController().getDeadlockPolicy();
+        if (!deadlockPolicy.canSuspend()) {
+            try {
+                lockWrite(transaction, taskFactory);
+            } catch (TransactionDeadlockException e) {
+                callback.failed((DeadlockException) e.getCause());
+                return;
+            }
+            callback.locked();
+            return;
+        }
+        final Transaction currentLock;
+        LockRequest request = null;
+        synchronized (this) {
+            currentLock = lock;
+            if (currentLock == null) {
+                lock = transaction;
+                writeLocked(transaction);
+            } else if (currentLock != transaction) {
+                request = new LockRequest(transaction, taskFactory, callback);
+                if (lockRequests == null) {
+                    lockRequests = new ArrayList<LockRequest>(2);
+                }
+                lockRequests.add(request);
+            }
+        }
+        if (request != null) {
+            request.suspend(deadlockPolicy, currentLock);
+            return;
+        }
+        if (currentLock == null) {
+            locked(transaction, taskFactory);
+        }
+        callback.locked();
+    }
+
+    /**
+     * Write locks all {@code objects} under {@code transaction} without blocking the calling thread, one after the
+     * other in the given order.
+     * 
+     * @param transaction the active transaction
+     * @param taskFactory the task factory, valid until {@code callback} is called
+     * @param objects     the objects to lock
+     * @param callback    called once all objects are locked, or once the request of one of them was given up
+     * @see #lockWrite(Transaction, TaskFactory, LockCallback)
+     */
+    static void lockWriteAll(final Transaction transaction, final TaskFactory taskFactory, final List<? extends TransactionalObject> objects, final LockCallback callback) {
+        lockWriteAll(transaction, taskFactory, objects, 0, callback);
+    }
+
+    private static void lockWriteAll(final Transaction transaction, final TaskFactory taskFactory, final List<? extends TransactionalObject> objects, final int index, final LockCallback callback) {
+        if (index == objects.size()) {
+            callback.locked();
+            return;
+        }
+        objects.get(index).lockWrite(transaction, taskFactory, new LockCallback() {
+            public void locked() {
+                lockWriteAll(transaction, taskFactory, objects, index + 1, callback);
+            }
+
+            public void failed(final DeadlockException e) {
+                callback.failed(e);
+            }
+        });
+    }
+
+    private void locked(final Transaction transaction, final TaskFactory taskFactory) {
+        Set<TransactionalObject> transactionalObjects = transaction.getAttachmentIfPresent(TRANSACTIONAL_OBJECTS);
+        if (transactionalObjects == null) {
+            transactionalObjects = Collections.newSetFromMap(new ConcurrentHashMap<TransactionalObject, Boolean>());
+            final Set<TransactionalObject> appearing = transaction.putAttachmentIfAbsent(TRANSACTIONAL_OBJECTS, transactionalObjects);
+            if (appearing != null) {
+                transactionalObjects = appearing;
             } else {
-                transactionalObjects = new HashMap<TransactionalObject, Object>();
-                transaction.putAttachment(TRANSACTIONAL_OBJECTS, transactionalObjects);
-                taskFactory.newTask().setTraits(new UnlockWriteTask(transactionalObjects)).release();
+                // only the thread which attached the set registers the task unlocking its objects
+                taskFactory.newTask().setTraits(new UnlockWriteTask(transactionalObjects, transaction.getExecutor())).release();
             }
         }
-        transactionalObjects.put(this, snapshot);
+        transactionalObjects.add(this);
     }
 
     /**
@@ -114,14 +234,63 @@ abstract class TransactionalObject {
         return lock == transaction;
     }
 
-    private final void unlockWrite() {
+    /**
+     * Notifies that the transaction holding the lock is about to mutate this object's state.  The first notification
+     * under a lock takes the snapshot this object is reverted to on rollback.  Must be invoked before every mutation
+     * that {@link #takeSnapshot()} records, or that changes the {@link #takeVersion() version} of this object.
+     */
+    final synchronized void mutating() {
+        assert lock != null;
+        if (!dirty) {
+            snapshot = takeSnapshot();
+            dirty = true;
+        }
+    }
+
+    /**
+     * Gets the snapshot taken when this object was first mutated under the current lock.
+     * 
+     * @return the snapshot, or {@code null} if this object was not mutated under the current lock
+     */
+    final Object getMutationSnapshot() {
+        assert Thread.holdsLock(this);
+        return dirty ? snapshot : null;
+    }
+
+    /**
+     * Unlocks this object.
+     * 
+     * @param revert whether to revert this object to its state before it was mutated under the lock
+     * @return the lock requests to resume once the monitor of this object is released
+     */
+    private final List<LockRequest> unlockWrite(final boolean revert) {
         assert Thread.holdsLock(this);
         lock = null;
         writeUnlocked();
+        if (dirty) {
+            if (revert && snapshot != null) {
+                revert(snapshot);
+            }
+            dirty = false;
+            snapshot = null;
+        }
+        final List<LockRequest> lockRequests = this.lockRequests;
+        if (lockRequests == null) {
+            return Collections.emptyList();
+        }
+        this.lockRequests = null;
+        return lockRequests;
+    }
+
+    private static void resume(final List<LockRequest> lockRequests) {
+        for (LockRequest lockRequest : lockRequests) {
+            lockRequest.resume();
+        }
     }
 
     /**
-     * Takes a snapshot of this transactional object's inner state. Invoked when this object is write locked.
+     * Takes a snapshot of this transactional object's inner state. Invoked when this object is first
+     * {@link #mutating() mutated} under a write lock.
      * 
      * @return the snapshot
      */
@@ -135,6 +304,89 @@ abstract class TransactionalObject {
      */
     abstract void revert(Object snapshot);
 
+    /**
+     * Takes an immutable copy of this object's committed state, published to the readers of later epochs.  Invoked
+     * when the transaction holding the lock commits, once this object is unlocked.
+     * 
+     * @return the version, or {@code null} if there is nothing to publish
+     */
+    Object takeVersion() {
+        return null;
+    }
+
+    /**
+     * Gets the version of this object committed as of {@code epoch}.
+     * 
+     * @param epoch the epoch
+     * @return the version, or {@code null} if none was committed as of {@code epoch}
+     */
+    final Object getVersion(final Epoch epoch) {
+        // read the version before walking the epochs, a version is published after the epoch it supersedes is linked
+        final Object version = this.version;
+        for (Epoch next = epoch.next; next != null; next = next.next) {
+            if (next.superseded.containsKey(this)) {
+                return next.superseded.get(this);
+            }
+        }
+        return version;
+    }
+
+    /**
+     * Gets the last epoch, as of which all committed versions are published.
+     * 
+     * @return the current epoch
+     */
+    static Epoch currentEpoch() {
+        return currentEpoch;
+    }
+
+    /**
+     * Gets the last epoch once the commits publishing versions meanwhile, if any, are done.  Whatever the commits up to
+     * the returned epoch did while publishing their versions is visible to the caller.
+     * 
+     * @return the current epoch
+     */
+    static Epoch lastEpoch() {
+        boolean interrupted = false;
+        try {
+            synchronized (EPOCH_LOCK) {
+                final long sequence = linkedEpoch.sequence;
+                while (currentEpoch.sequence < sequence) {
+                    try {
+                        EPOCH_LOCK.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                return currentEpoch;
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Marks an epoch as published, and moves the current epoch forward over the epochs published so far.  The current
+     * epoch follows the order the epochs were linked in, whatever the order their publications end in.
+     *
+     * @param epoch the epoch whose versions are all published
+     */
+    private static void published(final Epoch epoch) {
+        synchronized (EPOCH_LOCK) {
+            epoch.published = true;
+            Epoch current = currentEpoch;
+            for (Epoch next = current.next; next != null && next.published; next = next.next) {
+                current = next;
+            }
+            if (current != currentEpoch) {
+                currentEpoch = current;
+                EPOCH_LOCK.notifyAll();
+            }
+        }
+    }
+
     /**
      * Performs validation of new objects state for active transaction.
      * 
@@ -155,57 +407,352 @@ abstract class TransactionalObject {
      */
     void writeUnlocked() {}
 
-    private static class UnlockWriteTask implements Validatable, Committable, Revertible {
+    /**
+     * Unlocks the objects locked by a transaction once it completes.  Large lock sets are split in chunks processed in
+     * parallel, small ones are processed by the thread running the task.  The thread running the task never waits for
+     * the helpers: whichever thread processes the last chunk completes the task.
+     */
+    private static class UnlockWriteTask implements Validatable, Committable, Revertible, NonBlocking {
 
-        private Map<TransactionalObject, Object> transactionalObjects;
+        private final Set<TransactionalObject> transactionalObjects;
+        private final Executor executor;
 
-        private UnlockWriteTask(Map<TransactionalObject, Object> transactionalObjects) {
+        private UnlockWriteTask(Set<TransactionalObject> transactionalObjects, Executor executor) {
             this.transactionalObjects = transactionalObjects;
+            this.executor = executor;
+        }
+
+        private TransactionalObject[] getTransactionalObjects() {
+            return transactionalObjects.toArray(new TransactionalObject[transactionalObjects.size()]);
         }
 
         @Override
-        public void validate(ValidateContext context) {
-            try {
-                for (TransactionalObject transactionalObject: transactionalObjects.keySet()) {
+        public void validate(final ValidateContext context) {
+            new ChunkedWork(getTransactionalObjects()) {
+                @Override
+                void process(TransactionalObject transactionalObject) {
                     synchronized (transactionalObject) {
                         transactionalObject.validate(context);
                     }
                 }
-            } finally {
-                context.complete();
-            }
+
+                @Override
+                void processed() {
+                    context.complete();
+                }
+            }.start(executor);
         }
 
         @Override
-        public void rollback(RollbackContext context) {
-            try {
-                for (Entry<TransactionalObject, Object> entry: transactionalObjects.entrySet()) {
-                    final TransactionalObject transactionalObject = entry.getKey();
-                    final Object snapshot = entry.getValue();
+        public void rollback(final RollbackContext context) {
+            new ChunkedWork(getTransactionalObjects()) {
+                @Override
+                void process(TransactionalObject transactionalObject) {
+                    final List<LockRequest> lockRequests;
+                    synchronized (transactionalObject) {
+                        lockRequests = transactionalObject.unlockWrite(true);
+                    }
+                    resume(lockRequests);
+                }
+
+                @Override
+                void processed() {
+                    context.complete();
+                }
+            }.start(executor);
+        }
+
+        @Override
+        public void commit(final CommitContext context) {
+            final TransactionalObject[] transactionalObjects = getTransactionalObjects();
+            // record the versions superseded by this commit, so that readers of previous epochs keep them; objects
+            // left untouched keep their version.  The objects are still locked, no other commit can supersede them
+            // meanwhile
+            final Map<TransactionalObject, Object> superseded = new IdentityHashMap<TransactionalObject, Object>();
+            new ChunkedWork(transactionalObjects) {
+                @Override
+                void process(TransactionalObject transactionalObject) {
+                    final Object version;
                     synchronized (transactionalObject) {
-                        transactionalObject.unlockWrite();
-                        if (snapshot != null) {
-                            transactionalObject.revert(snapshot);
+                        if (!transactionalObject.dirty) {
+                            return;
                         }
+                        version = transactionalObject.version;
+                    }
+                    synchronized (superseded) {
+                        superseded.put(transactionalObject, version);
                     }
                 }
-            } finally {
-                context.complete();
+
+                @Override
+                void processed() {
+                    publish(transactionalObjects, superseded, context);
+                }
+            }.start(executor);
+        }
+
+        /**
+         * Link the epoch of this commit and publish its versions.  The thread publishing the last chunk marks the
+         * epoch as published and completes the commit, so that no thread waits for the others.
+         */
+        private void publish(final TransactionalObject[] transactionalObjects, final Map<TransactionalObject, Object> superseded, final CommitContext context) {
+            final Epoch epoch;
+            synchronized (EPOCH_LOCK) {
+                epoch = new Epoch(superseded, linkedEpoch.sequence + 1);
+                linkedEpoch.next = epoch;
+                linkedEpoch = epoch;
             }
+            final List<LockRequest> lockRequests = new ArrayList<LockRequest>();
+            // readers of the epochs linked before keep finding the superseded versions through the new epoch, so the
+            // versions are published without the epoch lock, concurrently with other commits
+            new ChunkedWork(transactionalObjects) {
+                @Override
+                void process(TransactionalObject transactionalObject) {
+                    final List<LockRequest> objectLockRequests;
+                    synchronized (transactionalObject) {
+                        objectLockRequests = transactionalObject.unlockWrite(false);
+                        if (superseded.containsKey(transactionalObject)) {
+                            transactionalObject.version = transactionalObject.takeVersion();
+                        }
+                    }
+                    if (!objectLockRequests.isEmpty()) {
+                        synchronized (lockRequests) {
+                            lockRequests.addAll(objectLockRequests);
+                        }
+                    }
+                }
+
+                @Override
+                void processed() {
+                    try {
+                        published(epoch);
+                        resume(lockRequests);
+                    } finally {
+                        context.complete();
+                    }
+                }
+            }.start(executor);
+        }
+    }
+
+    /**
+     * Work on each of a set of objects, split in chunks.  The thread starting the work and the helpers it submits to
+     * the executor take the chunks no one took yet, so the work gets done even if the executor runs no helper before
+     * the starting thread is done, or rejects them.  An object whose processing fails is logged and skipped.
+     */
+    abstract static class ChunkedWork implements Runnable {
+        // number of objects processed by a thread at a time
+        private static final int CHUNK_SIZE = 512;
+
+        private final TransactionalObject[] objects;
+        private final int chunks;
+        private final AtomicInteger nextChunk = new AtomicInteger();
+        private final AtomicInteger pendingChunks;
+
+        ChunkedWork(final TransactionalObject[] objects) {
+            this.objects = objects;
+            chunks = (objects.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            pendingChunks = new AtomicInteger(chunks);
+        }
+
+        /**
+         * Process one of the objects.
+         *
+         * @param object the object
+         */
+        abstract void process(TransactionalObject object);
+
+        /**
+         * Notifies that all objects are processed.  Invoked by the thread which processed the last chunk.
+         */
+        void processed() {}
+
+        /**
+         * Start the work, processing chunks on the calling thread and submitting helpers for the others.
+         *
+         * @param executor the executor running the helpers
+         */
+        final void start(final Executor executor) {
+            if (chunks == 0) {
+                processed();
+                return;
+            }
+            for (int i = 1; i < chunks; i++) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // the calling thread takes the chunks of the helpers not submitted
+                    break;
+                }
+            }
+            run();
         }
 
         @Override
-        public void commit(CommitContext context) {
-            try {
-                for (TransactionalObject transactionalObject: transactionalObjects.keySet()) {
-                    synchronized (transactionalObject) {
-                        transactionalObject.unlockWrite();
+        public final void run() {
+            int chunk;
+            while ((chunk = nextChunk.getAndIncrement()) < chunks) {
+                final int end = Math.min(objects.length, (chunk + 1) * CHUNK_SIZE);
+                for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+                    // a failure is confined to its object, so that every chunk is done and completion is notified
+                    try {
+                        process(objects[i]);
+                    } catch (Throwable t) {
+                        MSCLogger.TXN.objectProcessingFailed(t, objects[i]);
                     }
                 }
+                if (pendingChunks.decrementAndGet() == 0) {
+                    processed();
+                }
+            }
+        }
+    }
+
+    /**
+     * A point in time in the sequence of commits.  Each epoch keeps the versions its commit superseded, and is linked to
+     * the epoch of the next commit: the version of an object as of an epoch is the first one superseded after that
+     * epoch, or the current version if none was.  An epoch no longer referenced by a reader is garbage collected along
+     * with the versions it kept.
+     */
+    static final class Epoch {
+        private final Map<TransactionalObject, Object> superseded;
+        // the position of this epoch in the sequence of commits
+        private final long sequence;
+        private volatile Epoch next;
+        // whether every version of this epoch is published, guarded by EPOCH_LOCK
+        private boolean published;
+
+        private Epoch(final Map<TransactionalObject, Object> superseded, final long sequence) {
+            this.superseded = superseded;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Continuation of a lock request which does not block the calling thread.
+     */
+    interface LockCallback {
+
+        /**
+         * The object is now locked under the requesting transaction.
+         */
+        void locked();
+
+        /**
+         * The deadlock policy gave up the request, the object is not locked.
+         *
+         * @param e the reason
+         */
+        void failed(DeadlockException e);
+    }
+
+    /**
+     * Continuation running the work of a task once the requested locks are held, then completing the task.  If a lock
+     * request was given up, the work is skipped and the task completes with the problem.
+     */
+    abstract static class LockedWork implements LockCallback {
+        private final ExecuteContext<?> context;
+
+        LockedWork(final ExecuteContext<?> context) {
+            this.context = context;
+        }
+
+        /**
+         * Run the work needing the locks.
+         */
+        abstract void run();
+
+        public final void locked() {
+            try {
+                run();
             } finally {
-                context.complete();
+                context.complete(null);
             }
         }
+
+        public final void failed(final DeadlockException e) {
+            context.addProblem(e);
+            context.complete(null);
+        }
     }
 
+    /**
+     * A lock request of a suspended task.  A request is pending as long as it is queued in {@link #lockRequests}; the
+     * first one to take it out of the queue either resumes it or fails it.
+     */
+    private final class LockRequest implements Runnable {
+        private final Transaction transaction;
+        private final TaskFactory taskFactory;
+        private final LockCallback callback;
+        // the executor of the requesting task, which resumes or fails the request
+        private final Executor executor;
+        private volatile Transactions.Wait wait;
+
+        private LockRequest(final Transaction transaction, final TaskFactory taskFactory, final LockCallback callback) {
+            this.transaction = transaction;
+            this.taskFactory = taskFactory;
+            this.callback = callback;
+            executor = taskFactory.getExecutor();
+        }
+
+        private void suspend(final DeadlockPolicy deadlockPolicy, final Transaction currentLock) {
+            final Transactions.Wait wait;
+            try {
+                wait = deadlockPolicy.suspend(transaction, currentLock, new Runnable() {
+                    public void run() {
+                        // wounded, fail the request from the executor of the requesting task
+                        executor.execute(new Runnable() {
+                            public void run() {
+                                fail(new DeadlockException());
+                            }
+                        });
+                    }
+                });
+            } catch (DeadlockException e) {
+                fail(e);
+                return;
+            }
+            if (wait == null) {
+                // the lock holder terminated, so it already resumed this request
+                return;
+            }
+            this.wait = wait;
+            if (!isPending()) {
+                // resumed in the meantime, possibly before the wait was registered
+                Transactions.resume(wait);
+            }
+        }
+
+        private boolean isPending() {
+            synchronized (TransactionalObject.this) {
+                return lockRequests != null && lockRequests.contains(this);
+            }
+        }
+
+        private void fail(final DeadlockException e) {
+            synchronized (TransactionalObject.this) {
+                if (lockRequests == null || !lockRequests.remove(this)) {
+                    // resumed in the meantime
+                    return;
+                }
+            }
+            final Transactions.Wait wait = this.wait;
+            if (wait != null) {
+                Transactions.resume(wait);
+            }
+            callback.failed(e);
+        }
+
+        private void resume() {
+            final Transactions.Wait wait = this.wait;
+            if (wait != null) {
+                Transactions.resume(wait);
+            }
+            executor.execute(this);
+        }
+
+        public void run() {
+            lockWrite(transaction, taskFactory, callback);
+        }
+    }
 }
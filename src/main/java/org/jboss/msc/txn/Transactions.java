@@ -18,28 +18,40 @@
 
 package org.jboss.msc.txn;
 
-import static org.jboss.msc._private.MSCLogger.TXN;
-
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.IdentityHashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.locks.Condition;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Shared thread-safe utility class that keeps track of active transactions and their dependencies.
+ * <p>
+ * Every active transaction is a node of the wait-for graph.  Registering a wait only touches the two nodes it
+ * connects, and the deadlock check walks the graph without locking it, from the new edge only.  When two waits close
+ * a cycle concurrently, at least one of them sees the other edge, as edges are published before the graph is walked.
+ * A suspected deadlock is confirmed under a lock that is only taken in that case, so that only one of the waits
+ * closing a cycle gives up.
+ * <p>
+ * The deadlock prevention policies do not add waits to the graph, they only compare the age of the transactions.
+ * Waits of suspended tasks are registered the same way, without blocking the current thread.
  * 
  * @author <a href="mailto:ropalka@redhat.com">Richard Opalka</a>
  */
 final class Transactions {
 
-    private static final Lock lock = new ReentrantLock();
-    private static final int maxTxns = 64;
-    private static final Transaction[] activeTxns = new Transaction[maxTxns];
-    private static final Map<Transaction, List<Condition>> txnConds = new IdentityHashMap<Transaction, List<Condition>>(maxTxns);
-    private static final long[] txnDeps = new long[maxTxns];
+    private static final ConcurrentMap<Transaction, Node> activeTxns = new ConcurrentHashMap<Transaction, Node>();
+    private static final Lock deadlockLock = new ReentrantLock();
+    private static final AtomicLong serials = new AtomicLong();
 
     private Transactions() {
         // forbidden inheritance
@@ -49,22 +61,9 @@ final class Transactions {
      * Register transaction.
      * 
      * @param txn new active transaction
-     * @throws IllegalStateException if there are too many active transactions
      */
-    static void register(final Transaction txn) throws IllegalStateException {
-        lock.lock();
-        try {
-            for (int i = 0; i < maxTxns; i++) {
-                if (activeTxns[i] == null) {
-                    activeTxns[i] = txn;
-                    txnConds.put(txn, new LinkedList<Condition>());
-                    return;
-                }
-            }
-            throw TXN.tooManyActiveTransactions();
-        } finally {
-            lock.unlock();
-        }
+    static void register(final Transaction txn) {
+        activeTxns.put(txn, new Node(txn.getStartTime()));
     }
 
     /**
@@ -73,32 +72,10 @@ final class Transactions {
      * @param txn old terminated transaction
      */
     static void unregister(final Transaction txn) {
-        lock.lock();
-        try {
-            List<Condition> conds = null;
-            int txnIndex = -1;
-            // unregister transaction and clean up its dependencies list
-            for (int i = 0; i < maxTxns; i++) {
-                if (activeTxns[i] == txn) {
-                    activeTxns[i] = null;
-                    conds = txnConds.remove(txn);
-                    txnDeps[i] = 0L;
-                    txnIndex = i;
-                    break;
-                }
-            }
-            // clean up transaction dependency for every dependent
-            long bit = 1L << txnIndex;
-            for (int i = 0; i < maxTxns; i++) {
-                txnDeps[i] &= ~bit;
-            }
-            // wake up associated waiters
-            for (final Condition cond : conds) {
-                cond.signal();
-            }
-            conds.clear();
-        } finally {
-            lock.unlock();
+        final Node node = activeTxns.remove(txn);
+        // wake up associated waiters, they remove their own edges
+        for (final Wait wait : node.terminate()) {
+            wait.signal();
         }
     }
 
@@ -120,69 +97,419 @@ final class Transactions {
         if (Thread.interrupted()) {
             throw new InterruptedException();
         }
-        lock.lock();
+        // lookup transaction nodes from active transactions
+        final Node dependentNode = activeTxns.get(dependent);
+        final Node dependencyNode = activeTxns.get(dependency);
+        // ensure nodes are still valid
+        if (dependentNode == null || dependencyNode == null) {
+            // Stale data - some of participating transactions have been terminated in the meantime
+            return;
+        }
+        // attach the wait to both transactions first, so that no termination is missed
+        final Wait wait = new Wait(dependentNode, null, null);
+        if (!dependentNode.addWait(wait)) {
+            return;
+        }
         try {
-            // lookup transaction indices from active transactions
-            int dependentIndex = -1, dependencyIndex = -1;
-            for (int i = 0; i < maxTxns; i++) {
-                if (activeTxns[i] == dependent) {
-                    dependentIndex = i;
-                } else if (activeTxns[i] == dependency) {
-                    dependencyIndex = i;
+            if (!dependencyNode.addWait(wait)) {
+                return;
+            }
+            try {
+                // register transactions dependency and detect deadlock
+                addDependency(dependentNode, dependencyNode);
+                try {
+                    // transactions dependency have been registered and no deadlock was detected, let's wait
+                    wait.await(0L);
+                } finally {
+                    dependentNode.dependencies.remove(dependencyNode);
                 }
-                if (dependentIndex >= 0 && dependencyIndex >= 0) {
-                    break; // we have both indices
+            } finally {
+                dependencyNode.removeWait(wait);
+            }
+        } finally {
+            dependentNode.removeWait(wait);
+        }
+    }
+
+    /**
+     * Add the wait edge from {@code dependentNode} to {@code dependencyNode}, unless it closes a cycle of waits.
+     */
+    private static void addDependency(final Node dependentNode, final Node dependencyNode) throws DeadlockException {
+        dependentNode.dependencies.add(dependencyNode);
+        if (reaches(dependencyNode, dependentNode)) {
+            // confirm the deadlock, another wait of the cycle may have given up in the meantime
+            deadlockLock.lock();
+            try {
+                if (reaches(dependencyNode, dependentNode)) {
+                    // give up this wait while still holding the lock, so that the other waits of the cycle see it
+                    dependentNode.dependencies.remove(dependencyNode);
+                    throw new DeadlockException();
                 }
+            } finally {
+                deadlockLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Causes <code>dependent</code> transaction to wait for <code>dependency</code> transaction if it is older, or to
+     * give up otherwise.
+     * 
+     * @param dependent the dependent
+     * @param dependency the dependency
+     * @throws DeadlockException if the dependent is younger, or was wounded
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    static void waitOrDie(final Transaction dependent, final Transaction dependency) throws DeadlockException, InterruptedException {
+        if (dependent == dependency) {
+            return;
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        final Node dependentNode = activeTxns.get(dependent);
+        final Node dependencyNode = activeTxns.get(dependency);
+        if (dependentNode == null || dependencyNode == null) {
+            return;
+        }
+        if (!dependentNode.isOlderThan(dependencyNode)) {
+            throw new DeadlockException();
+        }
+        await(dependentNode, dependencyNode, 0L);
+    }
+
+    /**
+     * Causes <code>dependent</code> transaction to wait for <code>dependency</code> transaction.  If the dependent is
+     * older, it wounds the dependency first: all waits of the dependency, current and following, are given up.
+     * 
+     * @param dependent the dependent
+     * @param dependency the dependency
+     * @throws DeadlockException if the dependent was wounded
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    static void woundOrWait(final Transaction dependent, final Transaction dependency) throws DeadlockException, InterruptedException {
+        if (dependent == dependency) {
+            return;
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        final Node dependentNode = activeTxns.get(dependent);
+        final Node dependencyNode = activeTxns.get(dependency);
+        if (dependentNode == null || dependencyNode == null) {
+            return;
+        }
+        if (dependentNode.isOlderThan(dependencyNode)) {
+            for (final Wait wait : dependencyNode.wound()) {
+                wait.abort();
+            }
+        }
+        await(dependentNode, dependencyNode, 0L);
+    }
+
+    /**
+     * Causes <code>dependent</code> transaction to wait for <code>dependency</code> transaction, at most for the given
+     * time.
+     * 
+     * @param dependent the dependent
+     * @param dependency the dependency
+     * @param timeoutNanos the maximum time to wait, in nanoseconds
+     * @throws DeadlockException if the wait timed out
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    static void waitFor(final Transaction dependent, final Transaction dependency, final long timeoutNanos) throws DeadlockException, InterruptedException {
+        if (dependent == dependency) {
+            return;
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        final Node dependentNode = activeTxns.get(dependent);
+        final Node dependencyNode = activeTxns.get(dependency);
+        if (dependentNode == null || dependencyNode == null) {
+            return;
+        }
+        await(dependentNode, dependencyNode, timeoutNanos);
+    }
+
+    /**
+     * Registers a wait of <code>dependent</code> transaction for <code>dependency</code> transaction which does not block
+     * the current thread.  The wait is part of the wait-for graph until it is {@link #resume(Wait) resumed}.
+     * 
+     * @param dependent the dependent
+     * @param dependency the dependency
+     * @param abortTask the task to run if the wait is given up later on
+     * @return the wait, or {@code null} if some of the participating transactions have been terminated in the meantime
+     * @throws DeadlockException if transactions dependency deadlock was detected
+     */
+    static Wait suspendFor(final Transaction dependent, final Transaction dependency, final Runnable abortTask) throws DeadlockException {
+        final Node dependentNode = activeTxns.get(dependent);
+        final Node dependencyNode = activeTxns.get(dependency);
+        if (dependentNode == null || dependencyNode == null) {
+            return null;
+        }
+        return suspend(dependentNode, dependencyNode, true, abortTask);
+    }
+
+    /**
+     * Registers a wait of <code>dependent</code> transaction for <code>dependency</code> transaction which does not block
+     * the current thread if the dependent is older, or gives up otherwise.
+     * 
+     * @param dependent the dependent
+     * @param dependency the dependency
+     * @param abortTask the task to run if the wait is given up later on
+     * @return the wait, or {@code null} if some of the participating transactions have been terminated in the meantime
+     * @throws DeadlockException if the dependent is younger, or was wounded
+     */
+    static Wait suspendOrDie(final Transaction dependent, final Transaction dependency, final Runnable abortTask) throws DeadlockException {
+        final Node dependentNode = activeTxns.get(dependent);
+        final Node dependencyNode = activeTxns.get(dependency);
+        if (dependentNode == null || dependencyNode == null) {
+            return null;
+        }
+        if (!dependentNode.isOlderThan(dependencyNode)) {
+            throw new DeadlockException();
+        }
+        return suspend(dependentNode, dependencyNode, false, abortTask);
+    }
+
+    /**
+     * Registers a wait of <code>dependent</code> transaction for <code>dependency</code> transaction which does not block
+     * the current thread.  If the dependent is older, it wounds the dependency first.
+     * 
+     * @param dependent the dependent
+     * @param dependency the dependency
+     * @param abortTask the task to run if the wait is given up later on
+     * @return the wait, or {@code null} if some of the participating transactions have been terminated in the meantime
+     * @throws DeadlockException if the dependent was wounded
+     */
+    static Wait woundOrSuspend(final Transaction dependent, final Transaction dependency, final Runnable abortTask) throws DeadlockException {
+        final Node dependentNode = activeTxns.get(dependent);
+        final Node dependencyNode = activeTxns.get(dependency);
+        if (dependentNode == null || dependencyNode == null) {
+            return null;
+        }
+        if (dependentNode.isOlderThan(dependencyNode)) {
+            for (final Wait wait : dependencyNode.wound()) {
+                wait.abort();
+            }
+        }
+        return suspend(dependentNode, dependencyNode, false, abortTask);
+    }
+
+    /**
+     * Ends a wait registered without blocking.  Only the first call has an effect.
+     * 
+     * @param wait the wait
+     */
+    static void resume(final Wait wait) {
+        if (!wait.resume()) {
+            return;
+        }
+        if (wait.edge) {
+            wait.dependent.dependencies.remove(wait.dependency);
+        }
+        wait.dependency.removeWait(wait);
+        wait.dependent.removeWait(wait);
+    }
+
+    private static Wait suspend(final Node dependentNode, final Node dependencyNode, final boolean detect, final Runnable abortTask) throws DeadlockException {
+        final Wait wait = new Wait(dependentNode, dependencyNode, abortTask);
+        if (!dependentNode.addWait(wait)) {
+            return null;
+        }
+        if (!dependencyNode.addWait(wait)) {
+            dependentNode.removeWait(wait);
+            return null;
+        }
+        try {
+            if (wait.aborted) {
+                // the dependent was wounded
+                throw new DeadlockException();
+            }
+            if (detect) {
+                addDependency(dependentNode, dependencyNode);
+                wait.edge = true;
             }
-            // ensure indices are still valid
-            if (dependentIndex == -1 || dependencyIndex == -1) {
-                // Stale data - some of participating transactions have been terminated in the meantime
+        } catch (DeadlockException e) {
+            dependencyNode.removeWait(wait);
+            dependentNode.removeWait(wait);
+            throw e;
+        }
+        return wait;
+    }
+
+    private static void await(final Node dependentNode, final Node dependencyNode, final long timeoutNanos) throws DeadlockException, InterruptedException {
+        final Wait wait = new Wait(dependentNode, null, null);
+        if (!dependentNode.addWait(wait)) {
+            return;
+        }
+        try {
+            if (!dependencyNode.addWait(wait)) {
                 return;
             }
-            // register transactions dependency and detect deadlock
             try {
-                addDependency(dependentIndex, dependencyIndex);
-                checkDeadlock(dependentIndex, 0L);
-            } catch (final DeadlockException e) {
-                removeDependency(dependentIndex, dependencyIndex);
-                throw e;
-            }
-            // transactions dependency have been registered and no deadlock was detected, let's wait
-            final Condition cond = lock.newCondition();
-            txnConds.get(dependent).add(cond);
-            txnConds.get(dependency).add(cond);
-            cond.await();
+                wait.await(timeoutNanos);
+            } finally {
+                dependencyNode.removeWait(wait);
+            }
         } finally {
-            lock.unlock();
+            dependentNode.removeWait(wait);
         }
     }
 
-    private static void addDependency(final int dependentIndex, final int dependencyIndex) {
-        long bit = 1L << dependencyIndex;
-        txnDeps[dependentIndex] |= bit;
+    /**
+     * Determine whether {@code target} can be reached from {@code source} by following waits.  Only the transactions
+     * reachable from {@code source} are visited.  Terminated transactions are skipped, their waits are about to end.
+     */
+    private static boolean reaches(final Node source, final Node target) {
+        final Set<Node> visited = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+        final Deque<Node> stack = new ArrayDeque<Node>();
+        stack.push(source);
+        visited.add(source);
+        Node node;
+        while ((node = stack.poll()) != null) {
+            if (node == target) {
+                return true;
+            }
+            if (node.terminated) {
+                continue;
+            }
+            for (final Node dependency : node.dependencies) {
+                if (visited.add(dependency)) {
+                    stack.push(dependency);
+                }
+            }
+        }
+        return false;
     }
 
-    private static void removeDependency(final int dependentIndex, final int dependencyIndex) {
-        long bit = 1L << dependencyIndex;
-        txnDeps[dependentIndex] &= ~bit;
+    /**
+     * An active transaction in the wait-for graph.
+     */
+    private static final class Node {
+        private final long startTime;
+        private final long serial = serials.getAndIncrement();
+        // transactions this transaction waits for, once per wait
+        private final List<Node> dependencies = new CopyOnWriteArrayList<Node>();
+        // waits involving this transaction, signalled when it terminates; guarded by this node
+        private List<Wait> waits = new ArrayList<Wait>(2);
+        private volatile boolean terminated;
+        // set once an older transaction waited for this one under the wound-wait policy; guarded by this node
+        private boolean wounded;
+
+        private Node(final long startTime) {
+            this.startTime = startTime;
+        }
+
+        private boolean isOlderThan(final Node other) {
+            final long diff = startTime - other.startTime;
+            return diff < 0L || diff == 0L && serial < other.serial;
+        }
+
+        private synchronized boolean addWait(final Wait wait) {
+            if (terminated) {
+                return false;
+            }
+            if (wounded && wait.dependent == this) {
+                wait.abort();
+            }
+            waits.add(wait);
+            return true;
+        }
+
+        private synchronized void removeWait(final Wait wait) {
+            if (!terminated) {
+                waits.remove(wait);
+            }
+        }
+
+        private synchronized List<Wait> wound() {
+            if (terminated || wounded) {
+                return Collections.emptyList();
+            }
+            wounded = true;
+            final List<Wait> waits = new ArrayList<Wait>(this.waits.size());
+            for (final Wait wait : this.waits) {
+                if (wait.dependent == this) {
+                    waits.add(wait);
+                }
+            }
+            return waits;
+        }
+
+        private synchronized List<Wait> terminate() {
+            terminated = true;
+            final List<Wait> waits = this.waits;
+            this.waits = Collections.emptyList();
+            return waits;
+        }
     }
 
-    private static void checkDeadlock(final int txnIndex, long visited) throws DeadlockException {
-        // check deadlock
-        final long bit = 1L << txnIndex;
-        if (Bits.allAreSet(visited, bit)) {
-            throw new DeadlockException();
+    /**
+     * A wait for a transaction, either of a parked thread or of a suspended task.
+     */
+    static final class Wait {
+        private final Thread thread;
+        private final Node dependent;
+        private final Node dependency;
+        private final Runnable abortTask;
+        private volatile boolean done;
+        private volatile boolean aborted;
+        // set if the wait was added to the wait-for graph, before the wait is handed out
+        private boolean edge;
+        // guarded by this wait
+        private boolean resumed;
+
+        private Wait(final Node dependent, final Node dependency, final Runnable abortTask) {
+            thread = abortTask == null ? Thread.currentThread() : null;
+            this.dependent = dependent;
+            this.dependency = dependency;
+            this.abortTask = abortTask;
+        }
+
+        private void await(final long timeoutNanos) throws DeadlockException, InterruptedException {
+            final long deadline = System.nanoTime() + timeoutNanos;
+            while (!done) {
+                if (timeoutNanos == 0L) {
+                    LockSupport.park(this);
+                } else {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0L) {
+                        throw new DeadlockException();
+                    }
+                    LockSupport.parkNanos(this, remaining);
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+            if (aborted) {
+                throw new DeadlockException();
+            }
+        }
+
+        private synchronized boolean resume() {
+            if (resumed) {
+                return false;
+            }
+            resumed = true;
+            return true;
         }
-        visited |= bit;
-        // process transaction dependencies
-        long dependencies = txnDeps[txnIndex];
-        long dependencyBit;
-        int dependencyIndex;
-        while (dependencies != 0L) {
-            dependencyBit = Long.lowestOneBit(dependencies);
-            dependencyIndex = Long.numberOfTrailingZeros(dependencyBit);
-            checkDeadlock(dependencyIndex, visited);
-            dependencies &= ~dependencyBit;
+
+        private void signal() {
+            done = true;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        private void abort() {
+            aborted = true;
+            if (abortTask != null) {
+                abortTask.run();
+            }
+            signal();
         }
     }
 }
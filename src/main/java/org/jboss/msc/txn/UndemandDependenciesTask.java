@@ -17,8 +17,8 @@
  */
 package org.jboss.msc.txn;
 
-import java.util.Collection;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Task for undemanding dependencies.
@@ -38,47 +38,33 @@ class UndemandDependenciesTask implements Executable<Void> {
      * @param taskFactory  the task factory
      * @return the task controller
      */
-    @SuppressWarnings("unchecked")
     static TaskController<Void> create(ServiceControllerImpl<?> service, Transaction transaction, TaskFactory taskFactory) {
-        return create(service, Collections.EMPTY_LIST, transaction, taskFactory);
-    }
-
-    /**
-     * Creates and releases the undemand dependencies task.
-     * <p>
-     * Invoke this method when the undemand dependencies task must be executed only after other tasks finish execution.
-     * 
-     * @param service          the service whose dependencies will be undemanded by the task
-     * @param taskDependencies the dependencies of the undemand dependencies task
-     * @param transaction      the active transaction
-     * @param taskFactory      the task factory
-     * @return the task controller
-     */
-    static TaskController<Void> create(ServiceControllerImpl<?> service, Collection<TaskController<?>> taskDependencies, Transaction transaction, TaskFactory taskFactory) {
         if (service.getDependencies().length == 0) {
             return null;
         }
-        TaskBuilder<Void> taskBuilder = taskFactory.newTask(new UndemandDependenciesTask(transaction, service));
-        if (!taskDependencies.isEmpty()) {
-            taskBuilder.addDependencies(taskDependencies);
-        }
-        return taskBuilder.release();
+        return taskFactory.newTask(new UndemandDependenciesTask(transaction, service)).release();
     }
 
-    private UndemandDependenciesTask(Transaction transaction, ServiceControllerImpl<?> service) {
+    UndemandDependenciesTask(Transaction transaction, ServiceControllerImpl<?> service) {
         this.transaction = transaction;
         this.service = service;
     }
 
     @Override
-    public void execute(ExecuteContext<Void> context) {
+    public void execute(final ExecuteContext<Void> context) {
         assert context instanceof TaskFactory;
-        try {
-            for (DependencyImpl<?> dependency: service.getDependencies()) {
-                dependency.undemand(transaction, (TaskFactory)context);
-            }
-        } finally {
-            context.complete();
+        final List<TransactionalObject> locks = new ArrayList<TransactionalObject>();
+        for (DependencyImpl<?> dependency: service.getDependencies()) {
+            dependency.collectDemandLocks(locks);
         }
+        // lock beforehand without holding this thread while the dependencies are locked by other transactions
+        TransactionalObject.lockWriteAll(transaction, (TaskFactory)context, locks, new TransactionalObject.LockedWork(context) {
+            @Override
+            void run() {
+                for (DependencyImpl<?> dependency: service.getDependencies()) {
+                    dependency.undemand(transaction, (TaskFactory)context);
+                }
+            }
+        });
     }
 }
@@ -0,0 +1,171 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.msc.test.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jboss.msc.service.DuplicateServiceException;
+import org.jboss.msc.service.Service;
+import org.jboss.msc.service.ServiceBuilder;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.service.StartContext;
+import org.jboss.msc.service.StopContext;
+import org.jboss.msc.test.utils.AbstractServiceTest;
+import org.jboss.msc.test.utils.TestService;
+import org.jboss.msc.txn.BasicTransaction;
+import org.jboss.msc.txn.ServiceController;
+import org.junit.Test;
+
+/**
+ * Installation of several services at once.
+ */
+public class BatchInstallTestCase extends AbstractServiceTest {
+
+    private static final ServiceName firstSN = ServiceName.of("first");
+    private static final ServiceName secondSN = ServiceName.of("second");
+
+    private ServiceBuilder<Void> newBuilder(final BasicTransaction transaction, final List<TestService> services, final ServiceName serviceName, final ServiceName... dependencies) {
+        final ServiceBuilder<Void> serviceBuilder = txnController.getServiceContext().addService(serviceRegistry, serviceName, transaction);
+        for (ServiceName dependency : dependencies) {
+            serviceBuilder.addDependency(dependency);
+        }
+        final TestService service = new TestService(serviceName, serviceBuilder, false);
+        serviceBuilder.setService(service);
+        services.add(service);
+        return serviceBuilder;
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     *   <LI>a chain of 100 services (ACTIVE mode), each depending on the previous one, added to a batch in
+     *   dependency order</LI>
+     *   <LI>batch installed and transaction committed, all services are up</LI>
+     * </UL>
+     */
+    @Test
+    public void installChain() throws InterruptedException {
+        final int length = 100;
+        final BasicTransaction transaction = newTransaction();
+        final List<TestService> services = new ArrayList<TestService>();
+        final List<ServiceBuilder<Void>> serviceBuilders = new ArrayList<ServiceBuilder<Void>>();
+        serviceBuilders.add(newBuilder(transaction, services, ServiceName.of("chain", "0")));
+        for (int i = 1; i < length; i++) {
+            serviceBuilders.add(newBuilder(transaction, services, ServiceName.of("chain", Integer.toString(i)), ServiceName.of("chain", Integer.toString(i - 1))));
+        }
+        final List<ServiceController> controllers = txnController.getServiceContext().installAll(serviceBuilders, transaction);
+        assertEquals(length, controllers.size());
+        // every builder of the batch is installed
+        for (ServiceBuilder<Void> serviceBuilder : serviceBuilders) {
+            assertNull(serviceBuilder.install());
+        }
+        prepare(transaction);
+        commit(transaction);
+        for (TestService service : services) {
+            assertTrue(service.isUp());
+        }
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     *   <LI>first service (ACTIVE mode) and second service (ACTIVE mode) with an alias named first, added to a
+     *   batch</LI>
+     *   <LI>batch installation fails before any service is installed</LI>
+     *   <LI>while the failed transaction is still active, other transactions install first service and services
+     *   named after it, as the failed batch left nothing locked</LI>
+     * </UL>
+     */
+    @Test
+    public void duplicateNameInBatch() throws InterruptedException {
+        final BasicTransaction transaction = newTransaction();
+        // the services do not get their service context, which would create their registrations
+        final AtomicBoolean started = new AtomicBoolean();
+        final List<ServiceBuilder<Void>> serviceBuilders = new ArrayList<ServiceBuilder<Void>>();
+        final ServiceBuilder<Void> firstBuilder = txnController.getServiceContext().addService(serviceRegistry, firstSN, transaction);
+        firstBuilder.setService(new StartRecordingService(started));
+        serviceBuilders.add(firstBuilder);
+        final ServiceBuilder<Void> secondBuilder = txnController.getServiceContext().addService(serviceRegistry, secondSN, transaction);
+        secondBuilder.addAliases(firstSN).setService(new StartRecordingService(started));
+        serviceBuilders.add(secondBuilder);
+        try {
+            txnController.getServiceContext().installAll(serviceBuilders, transaction);
+            fail("DuplicateServiceException expected");
+        } catch (DuplicateServiceException expected) {
+        }
+        final CountDownLatch installed = new CountDownLatch(1);
+        final Thread installer = new Thread() {
+            public void run() {
+                try {
+                    if (addService(serviceRegistry, firstSN) == null) {
+                        return;
+                    }
+                    for (int i = 0; i < 32; i++) {
+                        if (addService(serviceRegistry, firstSN.append(Integer.toString(i))) == null) {
+                            return;
+                        }
+                    }
+                    installed.countDown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        installer.start();
+        try {
+            assertTrue(installed.await(10, TimeUnit.SECONDS));
+        } finally {
+            prepare(transaction);
+            commit(transaction);
+            installer.join();
+        }
+        assertFalse(started.get());
+        assertNotNull(serviceRegistry.getService(firstSN));
+        assertNull(serviceRegistry.getService(secondSN));
+    }
+
+    private static final class StartRecordingService implements Service<Void> {
+        private final AtomicBoolean started;
+
+        private StartRecordingService(final AtomicBoolean started) {
+            this.started = started;
+        }
+
+        @Override
+        public void start(final StartContext<Void> context) {
+            started.set(true);
+            context.complete();
+        }
+
+        @Override
+        public void stop(final StopContext context) {
+            context.complete();
+        }
+    }
+}
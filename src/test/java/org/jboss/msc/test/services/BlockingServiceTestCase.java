@@ -0,0 +1,157 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.test.services;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jboss.msc.service.Service;
+import org.jboss.msc.service.ServiceBuilder;
+import org.jboss.msc.service.ServiceContainerFactory;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.service.ServiceRegistry;
+import org.jboss.msc.service.StartContext;
+import org.jboss.msc.service.StopContext;
+import org.jboss.msc.test.utils.AbstractServiceTest;
+import org.jboss.msc.txn.BasicTransaction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Services marked as blocking, started and stopped by the blocking executor of their container.
+ */
+public class BlockingServiceTestCase extends AbstractServiceTest {
+
+    private static final ServiceName firstSN = ServiceName.of("first");
+    private static final ServiceName secondSN = ServiceName.of("second");
+    private static final String BLOCKING_THREAD = "blocking";
+
+    private ExecutorService blockingExecutor;
+    private ServiceRegistry blockingRegistry;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        blockingExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread(r, BLOCKING_THREAD);
+            }
+        });
+        serviceContainer = ServiceContainerFactory.getInstance().newServiceContainer(blockingExecutor);
+        blockingRegistry = serviceRegistry = serviceContainer.newRegistry();
+    }
+
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        super.tearDown();
+        blockingExecutor.shutdown();
+        assertTrue(blockingExecutor.awaitTermination(60, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     *   <LI>first service (ACTIVE mode), blocking</LI>
+     *   <LI>second service (ACTIVE mode), not blocking</LI>
+     *   <LI>both services started and removed</LI>
+     * </UL>
+     */
+    @Test
+    public void blockingServiceRunsOnBlockingExecutor() throws Exception {
+        final ThreadRecordingService firstService = addService(firstSN, true);
+        final ThreadRecordingService secondService = addService(secondSN, false);
+        assertRanOn(firstService.startThread, true);
+        assertRanOn(secondService.startThread, false);
+        final BasicTransaction txn = newTransaction();
+        txnController.getServiceContext().removeService(blockingRegistry, firstSN, txn);
+        txnController.getServiceContext().removeService(blockingRegistry, secondSN, txn);
+        commit(txn);
+        assertRanOn(firstService.stopThread, true);
+        assertRanOn(secondService.stopThread, false);
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     *   <LI>second service (ACTIVE mode), not blocking, installed and up</LI>
+     *   <LI>first transaction enables second service, which is already enabled, and is prepared: it holds the lock of
+     *   second service</LI>
+     *   <LI>second transaction installs first service (ACTIVE mode), blocking, depending on second service: its start
+     *   waits for the lock of second service</LI>
+     *   <LI>first transaction committed, then second transaction committed</LI>
+     *   <LI>first service, resumed once the lock is released, is started by the blocking executor</LI>
+     * </UL>
+     */
+    @Test
+    public void blockingServiceResumedOnBlockingExecutor() throws Exception {
+        addService(secondSN, false);
+        final BasicTransaction first = newTransaction();
+        blockingRegistry.enableService(secondSN, first);
+        prepare(first);
+        final BasicTransaction second = newTransaction();
+        final ServiceBuilder<Void> serviceBuilder = txnController.getServiceContext().addService(blockingRegistry, firstSN, second);
+        final ThreadRecordingService firstService = new ThreadRecordingService();
+        serviceBuilder.setService(firstService).setBlocking(true).addDependency(secondSN);
+        serviceBuilder.install();
+        commit(first);
+        commit(second);
+        assertRanOn(firstService.startThread, true);
+    }
+
+    private ThreadRecordingService addService(final ServiceName serviceName, final boolean blocking) throws Exception {
+        final BasicTransaction txn = newTransaction();
+        final ServiceBuilder<Void> serviceBuilder = txnController.getServiceContext().addService(blockingRegistry, serviceName, txn);
+        final ThreadRecordingService service = new ThreadRecordingService();
+        serviceBuilder.setService(service).setBlocking(blocking).install();
+        commit(txn);
+        return service;
+    }
+
+    private static void assertRanOn(final AtomicReference<Thread> thread, final boolean blocking) {
+        assertNotNull(thread.get());
+        assertTrue(thread.get().getName(), BLOCKING_THREAD.equals(thread.get().getName()) == blocking);
+    }
+
+    private static final class ThreadRecordingService implements Service<Void> {
+        private final AtomicReference<Thread> startThread = new AtomicReference<Thread>();
+        private final AtomicReference<Thread> stopThread = new AtomicReference<Thread>();
+
+        @Override
+        public void start(final StartContext<Void> context) {
+            startThread.set(Thread.currentThread());
+            context.complete();
+        }
+
+        @Override
+        public void stop(final StopContext context) {
+            stopThread.set(Thread.currentThread());
+            context.complete();
+        }
+    }
+}
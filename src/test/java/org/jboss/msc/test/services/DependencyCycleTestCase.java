@@ -0,0 +1,140 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.test.services;
+
+import static org.jboss.msc.service.DependencyFlag.UNREQUIRED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.msc.service.DependencyFlag;
+import org.jboss.msc.service.ServiceBuilder;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.test.utils.AbstractServiceTest;
+import org.jboss.msc.test.utils.TestService;
+import org.jboss.msc.txn.BasicTransaction;
+import org.jboss.msc.txn.Problem;
+import org.junit.Test;
+
+/**
+ * Dependency cycle detection.
+ */
+public class DependencyCycleTestCase extends AbstractServiceTest {
+
+    private static final ServiceName firstSN = ServiceName.of("first");
+    private static final ServiceName secondSN = ServiceName.of("second");
+    private static final ServiceName thirdSN = ServiceName.of("third");
+
+    private TestService install(final BasicTransaction transaction, final ServiceName serviceName, final ServiceName... dependencies) {
+        return install(transaction, serviceName, null, dependencies);
+    }
+
+    private TestService install(final BasicTransaction transaction, final ServiceName serviceName, final DependencyFlag flag, final ServiceName... dependencies) {
+        final ServiceBuilder<Void> serviceBuilder = txnController.getServiceContext().addService(serviceRegistry, serviceName, transaction);
+        for (ServiceName dependency : dependencies) {
+            serviceBuilder.addDependency(dependency, flag);
+        }
+        final TestService service = new TestService(serviceName, serviceBuilder, false);
+        serviceBuilder.setService(service).install();
+        return service;
+    }
+
+    private static List<String> getProblemMessages(final BasicTransaction transaction) {
+        final List<String> messages = new ArrayList<String>();
+        for (Problem problem : transaction.getProblemReport().getProblems()) {
+            messages.add(problem.getMessage());
+        }
+        return messages;
+    }
+
+    private static void assertCycle(final BasicTransaction transaction, final ServiceName... cycle) {
+        final List<String> messages = getProblemMessages(transaction);
+        assertEquals(messages.toString(), 1, messages.size());
+        for (ServiceName serviceName : cycle) {
+            assertTrue(messages.get(0), messages.get(0).contains(serviceName.toString()));
+        }
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     *   <LI>first service (ACTIVE mode), depends on second service</LI>
+     *   <LI>second service (ACTIVE mode), depends on first service</LI>
+     *   <LI>both installed by the same transaction, which cannot be committed</LI>
+     * </UL>
+     */
+    @Test
+    public void cycleInOneTransaction() throws InterruptedException {
+        final BasicTransaction transaction = newTransaction();
+        install(transaction, firstSN, secondSN);
+        install(transaction, secondSN, firstSN);
+        prepare(transaction, false);
+        assertCycle(transaction, firstSN, secondSN);
+        rollback(transaction);
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     *   <LI>first service (ACTIVE mode), depends on missing second service (UNREQUIRED flag), installed and committed</LI>
+     *   <LI>second service (ACTIVE mode) depending on third service, and third service (ACTIVE mode) depending on first
+     *   service, installed by another transaction, which cannot be committed</LI>
+     * </UL>
+     */
+    @Test
+    public void cycleClosedByLaterTransaction() throws InterruptedException {
+        final BasicTransaction firstTransaction = newTransaction();
+        install(firstTransaction, firstSN, UNREQUIRED, secondSN);
+        prepare(firstTransaction);
+        commit(firstTransaction);
+
+        final BasicTransaction secondTransaction = newTransaction();
+        install(secondTransaction, secondSN, thirdSN);
+        install(secondTransaction, thirdSN, firstSN);
+        prepare(secondTransaction, false);
+        assertCycle(secondTransaction, firstSN, secondSN, thirdSN);
+        rollback(secondTransaction);
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     *   <LI>a chain of 1000 services (ACTIVE mode), each depending on the previous one, installed in reverse order by
+     *   the same transaction</LI>
+     *   <LI>transaction committed, all services are up</LI>
+     * </UL>
+     */
+    @Test
+    public void deepChainWithoutCycle() throws InterruptedException {
+        final int length = 1000;
+        final BasicTransaction transaction = newTransaction();
+        final TestService[] services = new TestService[length];
+        for (int i = length - 1; i > 0; i--) {
+            services[i] = install(transaction, ServiceName.of("chain", Integer.toString(i)), ServiceName.of("chain", Integer.toString(i - 1)));
+        }
+        services[0] = install(transaction, ServiceName.of("chain", "0"));
+        prepare(transaction);
+        commit(transaction);
+        for (TestService service : services) {
+            assertTrue(service.isUp());
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.test.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.jboss.msc.service.ServiceBuilder;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.test.utils.AbstractServiceTest;
+import org.jboss.msc.test.utils.TestService;
+import org.jboss.msc.txn.BasicTransaction;
+import org.junit.Test;
+
+/**
+ * Transactions locking more objects than a single thread unlocks at a time.
+ */
+public class LargeTransactionTestCase extends AbstractServiceTest {
+
+    private static final int SERVICES = 2000;
+
+    private static final ServiceName sharedSN = ServiceName.of("shared");
+
+    private TestService[] install(final BasicTransaction transaction, final ServiceName... dependencies) {
+        final TestService[] services = new TestService[SERVICES];
+        for (int i = 0; i < SERVICES; i++) {
+            final ServiceName serviceName = ServiceName.of("service", Integer.toString(i));
+            final ServiceBuilder<Void> serviceBuilder = txnController.getServiceContext().addService(serviceRegistry, serviceName, transaction);
+            for (ServiceName dependency : dependencies) {
+                serviceBuilder.addDependency(dependency);
+            }
+            services[i] = new TestService(serviceName, serviceBuilder, false);
+            serviceBuilder.setService(services[i]).install();
+        }
+        return services;
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     *   <LI>transaction installs 2000 services (ACTIVE mode)</LI>
+     *   <LI>transaction committed</LI>
+     *   <LI>all services are up and part of the committed registry</LI>
+     * </UL>
+     */
+    @Test
+    public void commitLargeTransaction() throws InterruptedException {
+        final BasicTransaction transaction = newTransaction();
+        final TestService[] services = install(transaction);
+        prepare(transaction);
+        commit(transaction);
+        for (TestService service : services) {
+            assertTrue(service.isUp());
+        }
+        assertEquals(SERVICES, serviceRegistry.getSnapshot().getServiceNames().size());
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     *   <LI>transaction installs 2000 services (ACTIVE mode)</LI>
+     *   <LI>transaction rolled back</LI>
+     *   <LI>none of the services is installed</LI>
+     * </UL>
+     */
+    @Test
+    public void rollbackLargeTransaction() throws InterruptedException {
+        final BasicTransaction transaction = newTransaction();
+        install(transaction);
+        prepare(transaction);
+        rollback(transaction);
+        for (int i = 0; i < SERVICES; i++) {
+            assertNull(serviceRegistry.getService(ServiceName.of("service", Integer.toString(i))));
+        }
+        assertTrue(serviceRegistry.getSnapshot().getServiceNames().isEmpty());
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     *   <LI>shared service (ACTIVE mode), installed and up</LI>
+     *   <LI>transaction installs 2000 services (ACTIVE mode) depending on shared service, and is committed</LI>
+     *   <LI>another transaction removes the 2000 services, and is rolled back</LI>
+     *   <LI>the 2000 services are still up, and stop once shared service is disabled</LI>
+     * </UL>
+     */
+    @Test
+    public void rollbackRemovalOfManyDependents() throws InterruptedException {
+        final TestService sharedService = addService(sharedSN);
+        assertTrue(sharedService.isUp());
+        final BasicTransaction installTransaction = newTransaction();
+        final TestService[] services = install(installTransaction, sharedSN);
+        prepare(installTransaction);
+        commit(installTransaction);
+        for (TestService service : services) {
+            assertTrue(service.isUp());
+        }
+
+        final BasicTransaction removeTransaction = newTransaction();
+        for (int i = 0; i < SERVICES; i++) {
+            txnController.getServiceContext().removeService(serviceRegistry, ServiceName.of("service", Integer.toString(i)), removeTransaction);
+        }
+        prepare(removeTransaction);
+        rollback(removeTransaction);
+        for (TestService service : services) {
+            assertTrue(service.isUp());
+        }
+
+        final BasicTransaction disableTransaction = newTransaction();
+        serviceRegistry.disableService(sharedSN, disableTransaction);
+        prepare(disableTransaction);
+        commit(disableTransaction);
+        assertFalse(sharedService.isUp());
+        for (TestService service : services) {
+            assertFalse(service.isUp());
+        }
+    }
+}
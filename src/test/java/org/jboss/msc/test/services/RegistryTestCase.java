@@ -18,14 +18,24 @@
 package org.jboss.msc.test.services;
 
 import static org.jboss.msc.service.DependencyFlag.UNREQUIRED;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.jboss.msc.service.ServiceBuilder;
 import org.jboss.msc.service.ServiceMode;
 import org.jboss.msc.service.ServiceName;
 import org.jboss.msc.service.ServiceNotFoundException;
 import org.jboss.msc.service.ServiceRegistry;
+import org.jboss.msc.service.ServiceRegistrySnapshot;
+import org.jboss.msc.service.ServiceState;
 import org.jboss.msc.test.utils.AbstractServiceTest;
 import org.jboss.msc.test.utils.CompletionListener;
 import org.jboss.msc.test.utils.TestService;
@@ -383,4 +393,160 @@ public class RegistryTestCase extends AbstractServiceTest {
 
         txnController.commit(transaction, null);
     }
+
+    @Test
+    public void snapshotWhileServiceLocked() throws InterruptedException {
+        final ServiceRegistrySnapshot before = registry1.getSnapshot();
+        assertEquals(new HashSet<ServiceName>(Arrays.asList(serviceAName, serviceBName, serviceCName)), before.getServiceNames());
+        assertSame(serviceA, before.getService(serviceAName));
+        assertEquals(ServiceState.UP, before.getState(serviceAName));
+        assertNull(before.getState(serviceDName));
+
+        final BasicTransaction transaction = newTransaction();
+        registry1.disableService(serviceAName, transaction);
+        prepare(transaction);
+        // service A is locked, its committed state is read without blocking
+        final ServiceRegistrySnapshot during = registry1.getSnapshot();
+        assertEquals(ServiceState.UP, during.getState(serviceAName));
+        commit(transaction);
+        assertFalse(serviceA.isUp());
+
+        assertEquals(ServiceState.DOWN, registry1.getSnapshot().getState(serviceAName));
+        assertEquals(ServiceState.UP, during.getState(serviceAName));
+        assertEquals(ServiceState.UP, before.getState(serviceAName));
+        assertEquals(ServiceState.UP, registry1.getSnapshot().getState(serviceBName));
+    }
+
+    @Test
+    public void snapshotOfRemovedService() throws InterruptedException {
+        final ServiceRegistrySnapshot before = registry1.getSnapshot();
+        assertTrue(removeService(registry1, serviceBName, serviceB));
+
+        final ServiceRegistrySnapshot after = registry1.getSnapshot();
+        assertEquals(new HashSet<ServiceName>(Arrays.asList(serviceAName, serviceCName)), after.getServiceNames());
+        assertNull(after.getService(serviceBName));
+        assertNull(after.getState(serviceBName));
+        assertSame(serviceB, before.getService(serviceBName));
+        assertEquals(ServiceState.UP, before.getState(serviceBName));
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     *   <LI>first transaction installs service first into registry 3, and is prepared</LI>
+     *   <LI>second transaction installs service second into registry 3, names are in different lock shards</LI>
+     *   <LI>second transaction is prepared and committed while first transaction is still active</LI>
+     *   <LI>first transaction committed</LI>
+     * </UL>
+     */
+    @Test
+    public void installDisjointNamesConcurrently() throws InterruptedException {
+        final ServiceName firstName = ServiceName.of("first");
+        final ServiceName secondName = ServiceName.of("second");
+        final BasicTransaction first = newTransaction();
+        final ServiceBuilder<Void> firstBuilder = txnController.getServiceContext().addService(registry3, firstName, first);
+        final TestService firstService = new TestService(firstName, firstBuilder, false);
+        firstBuilder.setService(firstService).install();
+        prepare(first);
+
+        final BasicTransaction second = newTransaction();
+        final ServiceBuilder<Void> secondBuilder = txnController.getServiceContext().addService(registry3, secondName, second);
+        final TestService secondService = new TestService(secondName, secondBuilder, false);
+        secondBuilder.setService(secondService).install();
+        prepare(second);
+        commit(second);
+        assertTrue(secondService.isUp());
+        assertEquals(Collections.singleton(secondName), registry3.getSnapshot().getServiceNames());
+
+        commit(first);
+        assertTrue(firstService.isUp());
+        assertEquals(new HashSet<ServiceName>(Arrays.asList(firstName, secondName)), registry3.getSnapshot().getServiceNames());
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     *   <LI>registry 3 gets services first, second with alias second alias, depending on first, third depending on
+     *   second alias, and other, each one installed and committed</LI>
+     *   <LI>transitive dependents and dependencies are queried, through service names and aliases</LI>
+     *   <LI>third service removed, transitive dependents reflect the removal</LI>
+     * </UL>
+     */
+    @Test
+    public void transitiveDependentsAndDependencies() throws InterruptedException {
+        final ServiceName firstName = ServiceName.of("first");
+        final ServiceName secondName = ServiceName.of("second");
+        final ServiceName secondAlias = ServiceName.of("second", "alias");
+        final ServiceName thirdName = ServiceName.of("third");
+        final ServiceName otherName = ServiceName.of("other");
+        addService(registry3, firstName);
+        final BasicTransaction transaction = newTransaction();
+        final ServiceBuilder<Void> secondBuilder = txnController.getServiceContext().addService(registry3, secondName, transaction);
+        secondBuilder.addAliases(secondAlias).addDependency(firstName);
+        secondBuilder.setService(new TestService(secondName, secondBuilder, false)).install();
+        prepare(transaction);
+        commit(transaction);
+        final TestService third = addService(registry3, thirdName, secondAlias);
+        addService(registry3, otherName);
+
+        assertEquals(new HashSet<ServiceName>(Arrays.asList(secondName, thirdName)), registry3.getTransitiveDependents(firstName));
+        assertEquals(Collections.singleton(thirdName), registry3.getTransitiveDependents(secondAlias));
+        assertEquals(new HashSet<ServiceName>(Arrays.asList(firstName, secondName)), registry3.getTransitiveDependencies(thirdName));
+        assertEquals(Collections.singleton(firstName), registry3.getTransitiveDependencies(secondAlias));
+        assertTrue(registry3.getTransitiveDependents(otherName).isEmpty());
+        assertTrue(registry3.getTransitiveDependents(ServiceName.of("missing")).isEmpty());
+
+        assertTrue(removeService(registry3, thirdName, third));
+        assertEquals(Collections.singleton(secondName), registry3.getTransitiveDependents(firstName));
+        assertTrue(registry3.getTransitiveDependencies(thirdName).isEmpty());
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     *   <LI>transitive dependents and dependencies are queried in registries 1 and 2, dependencies on registry 1 services
+     *   are left out of registry 2 results, and registry 1 services have no dependents</LI>
+     *   <LI>service I with alias I alias, depending on H, installed in registry 2: the results reflect the new service,
+     *   through its name and alias</LI>
+     *   <LI>a service depending on D is installed and rolled back: the results are unchanged</LI>
+     *   <LI>service J depending on I alias installed in registry 2: the results reflect the new service</LI>
+     * </UL>
+     */
+    @Test
+    public void transitiveQueriesAcrossRegistriesAndChanges() throws InterruptedException {
+        assertEquals(Collections.singleton(serviceGName), registry2.getTransitiveDependencies(serviceHName));
+        assertEquals(Collections.singleton(serviceDName), registry2.getTransitiveDependencies(serviceFName));
+        assertEquals(new HashSet<ServiceName>(Arrays.asList(serviceEName, serviceFName)), registry2.getTransitiveDependents(serviceDName));
+        assertTrue(registry2.getTransitiveDependents(serviceHName).isEmpty());
+        assertTrue(registry1.getTransitiveDependents(serviceBName).isEmpty());
+        assertTrue(registry1.getTransitiveDependents(serviceCName).isEmpty());
+
+        final ServiceName serviceIName = ServiceName.of("i");
+        final ServiceName serviceIAlias = ServiceName.of("i", "alias");
+        final BasicTransaction transaction = newTransaction();
+        final ServiceBuilder<Void> serviceIBuilder = txnController.getServiceContext().addService(registry2, serviceIName, transaction);
+        serviceIBuilder.addAliases(serviceIAlias).addDependency(serviceHName);
+        serviceIBuilder.setService(new TestService(serviceIName, serviceIBuilder, false)).install();
+        prepare(transaction);
+        commit(transaction);
+        assertEquals(Collections.singleton(serviceIName), registry2.getTransitiveDependents(serviceHName));
+        assertEquals(new HashSet<ServiceName>(Arrays.asList(serviceHName, serviceIName)), registry2.getTransitiveDependents(serviceGName));
+        assertEquals(new HashSet<ServiceName>(Arrays.asList(serviceGName, serviceHName)), registry2.getTransitiveDependencies(serviceIAlias));
+        assertTrue(registry2.getTransitiveDependents(serviceIAlias).isEmpty());
+
+        final ServiceName rolledBackName = ServiceName.of("rolled", "back");
+        final BasicTransaction rolledBack = newTransaction();
+        final ServiceBuilder<Void> rolledBackBuilder = txnController.getServiceContext().addService(registry2, rolledBackName, rolledBack);
+        rolledBackBuilder.addDependency(serviceDName);
+        rolledBackBuilder.setService(new TestService(rolledBackName, rolledBackBuilder, false)).install();
+        rollback(rolledBack);
+        assertNull(registry2.getService(rolledBackName));
+        assertEquals(new HashSet<ServiceName>(Arrays.asList(serviceEName, serviceFName)), registry2.getTransitiveDependents(serviceDName));
+
+        final ServiceName serviceJName = ServiceName.of("j");
+        assertNotNull(addService(registry2, serviceJName, serviceIAlias));
+        assertEquals(Collections.singleton(serviceJName), registry2.getTransitiveDependents(serviceIName));
+        assertEquals(new HashSet<ServiceName>(Arrays.asList(serviceIName, serviceJName)), registry2.getTransitiveDependents(serviceHName));
+        assertEquals(new HashSet<ServiceName>(Arrays.asList(serviceGName, serviceHName, serviceIName)), registry2.getTransitiveDependencies(serviceJName));
+    }
 }
@@ -0,0 +1,134 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.test.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.msc.service.Service;
+import org.jboss.msc.service.ServiceBuilder;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.service.StartContext;
+import org.jboss.msc.service.StopContext;
+import org.jboss.msc.test.utils.AbstractServiceTest;
+import org.jboss.msc.txn.BasicTransaction;
+import org.jboss.msc.txn.CommitContext;
+import org.jboss.msc.txn.Committable;
+import org.jboss.msc.txn.Revertible;
+import org.jboss.msc.txn.RollbackContext;
+import org.jboss.msc.txn.Validatable;
+import org.jboss.msc.txn.ValidateContext;
+import org.junit.Test;
+
+/**
+ * Services implementing the validatable, revertible and committable parts of their start task.
+ */
+public class ServiceTraitsTestCase extends AbstractServiceTest {
+
+    private static final ServiceName firstSN = ServiceName.of("first");
+
+    /**
+     * Usecase:
+     * <UL>
+     *   <LI>first service (ACTIVE mode), no dependencies</LI>
+     *   <LI>transaction committed</LI>
+     * </UL>
+     */
+    @Test
+    public void committedStart() throws Exception {
+        final BasicTransaction txn = newTransaction();
+        final TraitsService firstService = addService(txn, firstSN);
+        commit(txn);
+        assertEquals(calls("start", "validate", "commit"), firstService.getCalls());
+        assertSame(firstService, serviceRegistry.getRequiredService(firstSN));
+    }
+
+    /**
+     * Usecase:
+     * <UL>
+     *   <LI>first service (ACTIVE mode), no dependencies</LI>
+     *   <LI>transaction reverted</LI>
+     * </UL>
+     */
+    @Test
+    public void revertedStart() throws Exception {
+        final BasicTransaction txn = newTransaction();
+        final TraitsService firstService = addService(txn, firstSN);
+        prepare(txn);
+        rollback(txn);
+        assertEquals(calls("start", "validate", "rollback"), firstService.getCalls());
+        assertNull(serviceRegistry.getService(firstSN));
+    }
+
+    private TraitsService addService(final BasicTransaction txn, final ServiceName serviceName) {
+        final ServiceBuilder<Void> serviceBuilder = txnController.getServiceContext().addService(serviceRegistry, serviceName, txn);
+        final TraitsService service = new TraitsService();
+        serviceBuilder.setService(service).install();
+        return service;
+    }
+
+    private static List<String> calls(final String... calls) {
+        final List<String> list = new ArrayList<String>();
+        for (String call: calls) {
+            list.add(call);
+        }
+        return list;
+    }
+
+    private static final class TraitsService implements Service<Void>, Validatable, Revertible, Committable {
+        private final List<String> calls = new ArrayList<String>();
+
+        @Override
+        public synchronized void start(final StartContext<Void> context) {
+            calls.add("start");
+            context.complete();
+        }
+
+        @Override
+        public void stop(final StopContext context) {
+            context.complete();
+        }
+
+        @Override
+        public synchronized void validate(final ValidateContext context) {
+            calls.add("validate");
+            context.complete();
+        }
+
+        @Override
+        public synchronized void rollback(final RollbackContext context) {
+            calls.add("rollback");
+            context.complete();
+        }
+
+        @Override
+        public synchronized void commit(final CommitContext context) {
+            calls.add("commit");
+            context.complete();
+        }
+
+        synchronized List<String> getCalls() {
+            return new ArrayList<String>(calls);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.test.services;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.msc.service.ServiceBuilder;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.test.utils.AbstractServiceTest;
+import org.jboss.msc.test.utils.CompletionListener;
+import org.jboss.msc.test.utils.TestService;
+import org.jboss.msc.txn.BasicTransaction;
+import org.junit.Test;
+
+/**
+ * Tasks waiting for a service locked by another transaction, on an executor with a single thread.
+ */
+public class SuspendedLockTestCase extends AbstractServiceTest {
+
+    private static final ServiceName firstSN = ServiceName.of("first");
+    private static final ServiceName secondSN = ServiceName.of("second");
+
+    /**
+     * Usecase:
+     * <UL>
+     *   <LI>first service (ACTIVE mode), installed and up</LI>
+     *   <LI>first transaction enables first service, which is already enabled, and is prepared: it holds the lock of first
+     *   service</LI>
+     *   <LI>second transaction installs second service (ACTIVE mode), depending on first service</LI>
+     *   <LI>both transactions share an executor with a single thread</LI>
+     *   <LI>the start of second service waits for the lock of first service without holding the executor thread</LI>
+     *   <LI>first transaction committed, then second transaction committed</LI>
+     * </UL>
+     */
+    @Test
+    public void lockWaitDoesNotHoldExecutorThread() throws Exception {
+        final TestService firstService = addService(firstSN);
+        assertTrue(firstService.isUp());
+
+        final ThreadPoolExecutor executor = newExecutor(1, true);
+        try {
+            final BasicTransaction first = txnController.create(executor);
+            serviceRegistry.enableService(firstSN, first);
+            prepare(first);
+
+            final BasicTransaction second = txnController.create(executor);
+            final ServiceBuilder<Void> serviceBuilder = txnController.getServiceContext().addService(serviceRegistry, secondSN, second);
+            final TestService secondService = new TestService(secondSN, serviceBuilder, false);
+            serviceBuilder.addDependency(firstSN);
+            serviceBuilder.setService(secondService).install();
+            // the start of second service is suspended, every task which can run has run
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (executor.getActiveCount() > 0 || !executor.getQueue().isEmpty()) {
+                assertTrue("executor thread is held by a lock wait", System.nanoTime() < deadline);
+                Thread.sleep(1);
+            }
+            assertFalse(secondService.isUp());
+            final CompletionListener firstCommitted = new CompletionListener();
+            txnController.commit(first, firstCommitted);
+            assertTrue(firstCommitted.awaitCompletion(10, TimeUnit.SECONDS));
+            final CompletionListener secondPrepared = new CompletionListener();
+            txnController.prepare(second, secondPrepared);
+            assertTrue(secondPrepared.awaitCompletion(10, TimeUnit.SECONDS));
+            commit(second);
+            assertTrue(secondService.isUp());
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+}
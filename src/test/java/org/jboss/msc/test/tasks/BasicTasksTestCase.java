@@ -23,12 +23,22 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.jboss.msc.test.utils.AbstractTransactionTest;
+import org.jboss.msc.test.utils.CompletionListener;
 import org.jboss.msc.test.utils.TrackingTask;
+import org.jboss.msc.txn.Executable;
 import org.jboss.msc.txn.ExecuteContext;
 import org.jboss.msc.txn.InvalidTransactionStateException;
+import org.jboss.msc.txn.Revertible;
+import org.jboss.msc.txn.RollbackContext;
 import org.jboss.msc.txn.TaskBuilder;
 import org.jboss.msc.txn.TaskController;
 import org.jboss.msc.txn.BasicTransaction;
@@ -371,4 +381,61 @@ public class BasicTasksTestCase extends AbstractTransactionTest {
             }
         }
     }
+
+    @Test
+    public void dependencyRejectingDependent() throws InterruptedException {
+        final List<String> reverted = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch executing = new CountDownLatch(1);
+        final CountDownLatch finishExecution = new CountDownLatch(1);
+        // the dependency belongs to the first transaction, its dependent to the second one
+        final BasicTransaction first = newTransaction();
+        final TaskController<Object> dependency = txnController.newTask(first, new TrackingTask()).setRevertible(new Revertible() {
+            @Override
+            public void rollback(final RollbackContext context) {
+                reverted.add("dependency");
+                context.complete();
+            }
+        }).release();
+        prepare(first);
+        final BasicTransaction second = newTransaction();
+        txnController.newTask(second, new Executable<Object>() {
+            @Override
+            public void execute(final ExecuteContext<Object> context) {
+                executing.countDown();
+                try {
+                    finishExecution.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    context.complete();
+                }
+            }
+        }).setRevertible(new Revertible() {
+            @Override
+            public void rollback(final RollbackContext context) {
+                reverted.add("dependent");
+                context.complete();
+            }
+        }).addDependency(dependency).release();
+        final CompletionListener firstRolledBack = new CompletionListener();
+        final BasicTransaction third = newTransaction();
+        try {
+            assertTrue(executing.await(10, TimeUnit.SECONDS));
+            // the dependency waits for its dependent to terminate before it is reverted, and takes no more dependents
+            rollback(first, firstRolledBack);
+            final TaskController<Object> other = txnController.newTask(third, new TrackingTask()).release();
+            try {
+                txnController.newTask(third, new TrackingTask()).addDependency(other).addDependency(dependency).release();
+                fail("IllegalStateException expected");
+            } catch (IllegalStateException expected) {
+            }
+        } finally {
+            finishExecution.countDown();
+        }
+        rollback(second);
+        assertTrue(firstRolledBack.awaitCompletion(10, TimeUnit.SECONDS));
+        // the rejected registration did not count as the termination of the dependent
+        assertEquals(Arrays.asList("dependent", "dependency"), reverted);
+        commit(third);
+    }
 }
@@ -0,0 +1,147 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.test.tasks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.msc.test.utils.AbstractTransactionTest;
+import org.jboss.msc.txn.BasicTransaction;
+import org.jboss.msc.txn.CommitContext;
+import org.jboss.msc.txn.Committable;
+import org.jboss.msc.txn.Executable;
+import org.jboss.msc.txn.ExecuteContext;
+import org.jboss.msc.txn.InvalidTransactionStateException;
+import org.junit.Test;
+
+/**
+ * Top level tasks added from many threads at once, so that the task counters of the transaction, spread over stripes,
+ * go from and to zero concurrently on different stripes.
+ */
+public final class ConcurrentTopLevelTasks_TestCase extends AbstractTransactionTest {
+
+    private static final int THREADS = 16;
+    private static final int TASKS_PER_THREAD = 2000;
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>THREADS threads add TASKS_PER_THREAD top level tasks each, every task completing at once</LI>
+     * <LI>transaction prepared and committed once every thread is done</LI>
+     * <LI>every task is executed and committed exactly once</LI>
+     * </UL>
+     */
+    @Test
+    public void addFromManyThreads() throws Exception {
+        final BasicTransaction transaction = newTransaction();
+        final CountingTask task = new CountingTask();
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < TASKS_PER_THREAD; j++) {
+                            txnController.newTask(transaction, task).setCommittable(task).release();
+                        }
+                    } catch (Throwable t) {
+                        failures.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        assertEquals(0, failures.get());
+        prepare(transaction);
+        assertEquals(THREADS * TASKS_PER_THREAD, task.executed.get());
+        commit(transaction);
+        assertEquals(THREADS * TASKS_PER_THREAD, task.committed.get());
+    }
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>THREADS threads add up to TASKS_PER_THREAD top level tasks each, every task completing at once, until the
+     * transaction is not active</LI>
+     * <LI>transaction prepared while the threads are adding tasks, and committed</LI>
+     * <LI>every task whose addition succeeded is executed before the transaction is prepared, and committed</LI>
+     * </UL>
+     */
+    @Test
+    public void addWhilePreparing() throws Exception {
+        final BasicTransaction transaction = newTransaction();
+        final CountingTask task = new CountingTask();
+        final AtomicInteger added = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(THREADS);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            new Thread() {
+                public void run() {
+                    try {
+                        started.countDown();
+                        for (int j = 0; j < TASKS_PER_THREAD; j++) {
+                            txnController.newTask(transaction, task).setCommittable(task).release();
+                            added.incrementAndGet();
+                        }
+                    } catch (InvalidTransactionStateException expected) {
+                    } catch (Throwable t) {
+                        failures.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        assertTrue(started.await(60, TimeUnit.SECONDS));
+        while (added.get() < THREADS * 100) {
+            Thread.sleep(1);
+        }
+        // the transaction is prepared once no task is unfinished, some threads may still be adding tasks until then
+        prepare(transaction);
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        assertEquals(0, failures.get());
+        assertEquals(added.get(), task.executed.get());
+        commit(transaction);
+        assertEquals(added.get(), task.committed.get());
+    }
+
+    private static final class CountingTask implements Executable<Void>, Committable {
+        private final AtomicInteger executed = new AtomicInteger();
+        private final AtomicInteger committed = new AtomicInteger();
+
+        @Override
+        public void execute(final ExecuteContext<Void> context) {
+            executed.incrementAndGet();
+            context.complete();
+        }
+
+        @Override
+        public void commit(final CommitContext context) {
+            committed.incrementAndGet();
+            context.complete();
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.msc.test.tasks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.jboss.msc.test.utils.AbstractTransactionTest;
+import org.jboss.msc.test.utils.CompletionListener;
+import org.jboss.msc.txn.BasicTransaction;
+import org.jboss.msc.txn.DeadlockException;
+import org.jboss.msc.txn.DeadlockPolicy;
+import org.jboss.msc.txn.TransactionController;
+import org.junit.Test;
+
+/**
+ * Waits between transactions under each deadlock policy.
+ */
+public final class DeadlockPolicyTestCase extends AbstractTransactionTest {
+
+    private static final int WORKERS = 8;
+    private static final int OBJECTS = 8;
+    private static final int LOCKS_PER_TRANSACTION = 3;
+    private static final int COMMITS_PER_WORKER = 200;
+    private static final long HOLD_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>wait-die policy</LI>
+     * <LI>younger transaction waits for older one, the wait is given up</LI>
+     * <LI>older transaction waits for younger one until it terminates</LI>
+     * </UL>
+     */
+    @Test
+    public void waitDie() throws Exception {
+        final TransactionController controller = TransactionController.createInstance(DeadlockPolicy.WAIT_DIE);
+        final BasicTransaction older = controller.create(defaultExecutor);
+        final BasicTransaction younger = controller.create(defaultExecutor);
+        try {
+            controller.waitFor(younger, older);
+            fail("DeadlockException expected");
+        } catch (DeadlockException expected) {
+        }
+        final Waiter waiter = new Waiter(controller, older, younger);
+        waiter.awaitParked();
+        terminate(controller, younger, true);
+        assertTrue(waiter.awaitTermination());
+        assertEquals(null, waiter.failure);
+        terminate(controller, older, true);
+    }
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>wound-wait policy</LI>
+     * <LI>younger transaction waits for older one</LI>
+     * <LI>older transaction waits for younger one, the wait of the younger transaction is given up</LI>
+     * <LI>older transaction waits until the younger one terminates</LI>
+     * </UL>
+     */
+    @Test
+    public void woundWait() throws Exception {
+        final TransactionController controller = TransactionController.createInstance(DeadlockPolicy.WOUND_WAIT);
+        final BasicTransaction older = controller.create(defaultExecutor);
+        final BasicTransaction younger = controller.create(defaultExecutor);
+        final Waiter youngerWaiter = new Waiter(controller, younger, older);
+        youngerWaiter.awaitParked();
+        final Waiter olderWaiter = new Waiter(controller, older, younger);
+        assertTrue(youngerWaiter.awaitTermination());
+        assertTrue(youngerWaiter.failure instanceof DeadlockException);
+        olderWaiter.awaitParked();
+        // a wounded transaction does not wait anymore
+        try {
+            controller.waitFor(younger, older);
+            fail("DeadlockException expected");
+        } catch (DeadlockException expected) {
+        }
+        terminate(controller, younger, false);
+        assertTrue(olderWaiter.awaitTermination());
+        assertEquals(null, olderWaiter.failure);
+        terminate(controller, older, true);
+    }
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>lock wait timeout policy</LI>
+     * <LI>transaction waits for another one which does not terminate, the wait is given up after the timeout</LI>
+     * </UL>
+     */
+    @Test
+    public void lockWaitTimeout() throws Exception {
+        final TransactionController controller = TransactionController.createInstance(DeadlockPolicy.timeout(50, TimeUnit.MILLISECONDS));
+        final BasicTransaction dependency = controller.create(defaultExecutor);
+        final BasicTransaction dependent = controller.create(defaultExecutor);
+        final long start = System.nanoTime();
+        try {
+            controller.waitFor(dependent, dependency);
+            fail("DeadlockException expected");
+        } catch (DeadlockException expected) {
+        }
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertFalse(dependency.isTerminated());
+        terminate(controller, dependent, true);
+        terminate(controller, dependency, true);
+    }
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>WORKERS threads running transactions which lock LOCKS_PER_TRANSACTION of OBJECTS objects in random order</LI>
+     * <LI>a transaction whose wait is given up releases its locks, is rolled back and retried</LI>
+     * <LI>run under each deadlock policy</LI>
+     * </UL>
+     */
+    @Test
+    public void highConflictWorkload() throws Exception {
+        runWorkload("detection", DeadlockPolicy.DETECTION);
+        runWorkload("wait-die", DeadlockPolicy.WAIT_DIE);
+        runWorkload("wound-wait", DeadlockPolicy.WOUND_WAIT);
+        runWorkload("timeout", DeadlockPolicy.timeout(1, TimeUnit.MILLISECONDS));
+    }
+
+    private void runWorkload(final String name, final DeadlockPolicy policy) throws Exception {
+        final TransactionController controller = TransactionController.createInstance(policy);
+        final AtomicReferenceArray<BasicTransaction> locks = new AtomicReferenceArray<BasicTransaction>(OBJECTS);
+        final AtomicInteger started = new AtomicInteger();
+        final AtomicInteger commits = new AtomicInteger();
+        final AtomicInteger aborts = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(WORKERS);
+        for (int i = 0; i < WORKERS; i++) {
+            final Random random = new Random(i);
+            new Thread() {
+                public void run() {
+                    try {
+                        final int[] objects = new int[LOCKS_PER_TRANSACTION];
+                        while (commits.get() < WORKERS * COMMITS_PER_WORKER) {
+                            final BasicTransaction transaction = controller.create(defaultExecutor);
+                            started.incrementAndGet();
+                            int locked = 0;
+                            try {
+                                for (; locked < LOCKS_PER_TRANSACTION; locked++) {
+                                    objects[locked] = pickObject(random, objects, locked);
+                                    lock(controller, locks, objects[locked], transaction);
+                                    // work while holding the locks, so that transactions interleave
+                                    LockSupport.parkNanos(HOLD_NANOS);
+                                }
+                            } catch (DeadlockException e) {
+                                unlock(locks, objects, locked);
+                                terminate(controller, transaction, false);
+                                aborts.incrementAndGet();
+                                continue;
+                            }
+                            unlock(locks, objects, locked);
+                            terminate(controller, transaction, true);
+                            commits.incrementAndGet();
+                        }
+                    } catch (Throwable t) {
+                        failures.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        assertTrue(name, done.await(5, TimeUnit.MINUTES));
+        assertEquals(name, 0, failures.get());
+        assertTrue(name, commits.get() >= WORKERS * COMMITS_PER_WORKER);
+        // every transaction either committed, or was aborted and rolled back, and released its locks
+        assertEquals(name, started.get(), commits.get() + aborts.get());
+        for (int i = 0; i < OBJECTS; i++) {
+            assertEquals(name, null, locks.get(i));
+        }
+    }
+
+    private static int pickObject(final Random random, final int[] objects, final int count) {
+        for (;;) {
+            final int object = random.nextInt(OBJECTS);
+            boolean picked = false;
+            for (int i = 0; i < count; i++) {
+                picked |= objects[i] == object;
+            }
+            if (!picked) {
+                return object;
+            }
+        }
+    }
+
+    private static void lock(final TransactionController controller, final AtomicReferenceArray<BasicTransaction> locks,
+            final int object, final BasicTransaction transaction) throws DeadlockException, InterruptedException {
+        while (!locks.compareAndSet(object, null, transaction)) {
+            final BasicTransaction owner = locks.get(object);
+            if (owner != null) {
+                controller.waitFor(transaction, owner);
+            }
+        }
+    }
+
+    private static void unlock(final AtomicReferenceArray<BasicTransaction> locks, final int[] objects, final int count) {
+        // locks are released before the transaction terminates, which wakes up the transactions waiting for it
+        for (int i = 0; i < count; i++) {
+            locks.set(objects[i], null);
+        }
+    }
+
+    private static void terminate(final TransactionController controller, final BasicTransaction transaction, final boolean commit)
+            throws InterruptedException {
+        final CompletionListener listener = new CompletionListener();
+        if (commit) {
+            controller.commit(transaction, listener);
+        } else {
+            controller.rollback(transaction, listener);
+        }
+        listener.awaitCompletion();
+        assertTrue(transaction.isTerminated());
+    }
+
+    private static final class Waiter extends Thread {
+        private final TransactionController controller;
+        private final BasicTransaction dependent;
+        private final BasicTransaction dependency;
+        private final CountDownLatch terminated = new CountDownLatch(1);
+        private volatile Throwable failure;
+
+        private Waiter(final TransactionController controller, final BasicTransaction dependent, final BasicTransaction dependency) {
+            this.controller = controller;
+            this.dependent = dependent;
+            this.dependency = dependency;
+            start();
+        }
+
+        public void run() {
+            try {
+                controller.waitFor(dependent, dependency);
+            } catch (Throwable t) {
+                failure = t;
+            } finally {
+                terminated.countDown();
+            }
+        }
+
+        private void awaitParked() throws InterruptedException {
+            while (getState() != State.WAITING) {
+                assertFalse(terminated.await(1, TimeUnit.MILLISECONDS));
+            }
+        }
+
+        private boolean awaitTermination() throws InterruptedException {
+            return terminated.await(60, TimeUnit.SECONDS);
+        }
+    }
+}
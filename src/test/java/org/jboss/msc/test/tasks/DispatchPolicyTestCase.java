@@ -0,0 +1,159 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.test.tasks;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jboss.msc.test.utils.AbstractTransactionTest;
+import org.jboss.msc.txn.BasicTransaction;
+import org.jboss.msc.txn.DispatchPolicy;
+import org.jboss.msc.txn.Executable;
+import org.jboss.msc.txn.ExecuteContext;
+import org.jboss.msc.txn.Listener;
+import org.jboss.msc.txn.Transaction;
+import org.junit.Test;
+
+/**
+ * Threads running listeners and tasks depending on the transaction dispatch policy.
+ */
+public final class DispatchPolicyTestCase extends AbstractTransactionTest {
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>empty transaction created with the default dispatch policy</LI>
+     * <LI>transaction prepared and committed</LI>
+     * </UL>
+     */
+    @Test
+    public void listenersOnExecutor() throws Exception {
+        final BasicTransaction transaction = txnController.create(defaultExecutor, DispatchPolicy.EXECUTOR);
+        final ThreadListener prepareListener = new ThreadListener();
+        txnController.prepare(transaction, prepareListener);
+        assertNotSame(Thread.currentThread(), prepareListener.awaitThread());
+        final ThreadListener commitListener = new ThreadListener();
+        txnController.commit(transaction, commitListener);
+        assertNotSame(Thread.currentThread(), commitListener.awaitThread());
+    }
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>empty transaction created with the direct when cheap dispatch policy</LI>
+     * <LI>transaction prepared and committed</LI>
+     * </UL>
+     */
+    @Test
+    public void listenersOnCallingThread() throws Exception {
+        final BasicTransaction transaction = txnController.create(defaultExecutor, DispatchPolicy.DIRECT_WHEN_CHEAP);
+        final ThreadListener prepareListener = new ThreadListener();
+        txnController.prepare(transaction, prepareListener);
+        assertSame(Thread.currentThread(), prepareListener.thread.get());
+        final ThreadListener commitListener = new ThreadListener();
+        txnController.commit(transaction, commitListener);
+        assertSame(Thread.currentThread(), commitListener.thread.get());
+    }
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>transaction created with the direct when cheap dispatch policy</LI>
+     * <LI>task installed from the test thread</LI>
+     * <LI>transaction prepared and committed</LI>
+     * </UL>
+     */
+    @Test
+    public void userTaskOnExecutor() throws Exception {
+        final BasicTransaction transaction = txnController.create(defaultExecutor, DispatchPolicy.DIRECT_WHEN_CHEAP);
+        final AtomicReference<Thread> executeThread = new AtomicReference<Thread>();
+        txnController.newTask(transaction, new Executable<Void>() {
+            @Override
+            public void execute(final ExecuteContext<Void> context) {
+                executeThread.set(Thread.currentThread());
+                context.complete();
+            }
+        }).release();
+        prepare(transaction);
+        commit(transaction);
+        assertNotSame(Thread.currentThread(), executeThread.get());
+    }
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>transaction created with the direct when cheap dispatch policy</LI>
+     * <LI>task installed from the test thread, blocking until released</LI>
+     * <LI>transaction prepared while the task is running, then the task is released</LI>
+     * <LI>the prepare listener runs on the thread which completed the task</LI>
+     * </UL>
+     */
+    @Test
+    public void listenerOnCompletingThread() throws Exception {
+        final BasicTransaction transaction = txnController.create(defaultExecutor, DispatchPolicy.DIRECT_WHEN_CHEAP);
+        final AtomicReference<Thread> executeThread = new AtomicReference<Thread>();
+        final CountDownLatch executing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        txnController.newTask(transaction, new Executable<Void>() {
+            @Override
+            public void execute(final ExecuteContext<Void> context) {
+                executeThread.set(Thread.currentThread());
+                executing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                context.complete();
+            }
+        }).release();
+        final ThreadListener prepareListener = new ThreadListener();
+        try {
+            assertTrue(executing.await(60, TimeUnit.SECONDS));
+            txnController.prepare(transaction, prepareListener);
+            assertNull(prepareListener.thread.get());
+        } finally {
+            release.countDown();
+        }
+        assertSame(executeThread.get(), prepareListener.awaitThread());
+        commit(transaction);
+    }
+
+    private static final class ThreadListener implements Listener<Transaction> {
+        private final AtomicReference<Thread> thread = new AtomicReference<Thread>();
+        private final CountDownLatch latch = new CountDownLatch(1);
+
+        @Override
+        public void handleEvent(final Transaction subject) {
+            thread.set(Thread.currentThread());
+            latch.countDown();
+        }
+
+        Thread awaitThread() throws InterruptedException {
+            assertTrue(latch.await(60, TimeUnit.SECONDS));
+            return thread.get();
+        }
+    }
+}
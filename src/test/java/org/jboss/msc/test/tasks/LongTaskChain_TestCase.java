@@ -0,0 +1,103 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.test.tasks;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.jboss.msc.test.utils.AbstractTransactionTest;
+import org.jboss.msc.test.utils.TestCommittable;
+import org.jboss.msc.test.utils.TestExecutable;
+import org.jboss.msc.test.utils.TestRevertible;
+import org.jboss.msc.test.utils.TestValidatable;
+import org.jboss.msc.txn.BasicTransaction;
+import org.jboss.msc.txn.TaskController;
+import org.junit.Test;
+
+/**
+ * Long dependency chains whose intermediate tasks have no executable, validatable, revertible or committable,
+ * so that every phase runs through the whole chain without any executor dispatch.
+ */
+public final class LongTaskChain_TestCase extends AbstractTransactionTest {
+
+    private static final int LENGTH = 100000;
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>first task blocks until the whole chain is installed</LI>
+     * <LI>LENGTH tasks without any component, each depending on the previous one</LI>
+     * <LI>last task depends on the chain</LI>
+     * <LI>transaction committed</LI>
+     * </UL>
+     */
+    @Test
+    public void committedChain() throws Exception {
+        final BasicTransaction transaction = newTransaction();
+        final CountDownLatch signal = new CountDownLatch(1);
+        final TestExecutable<Void> e0 = new TestExecutable<Void>(signal);
+        final TestExecutable<Void> e1 = new TestExecutable<Void>();
+        final TestValidatable v1 = new TestValidatable();
+        final TestRevertible r1 = new TestRevertible();
+        final TestCommittable c1 = new TestCommittable();
+        installChain(transaction, e0, e1, v1, r1, c1, signal);
+        prepare(transaction);
+        assertCalled(e0);
+        assertCalled(e1);
+        assertCalled(v1);
+        commit(transaction);
+        assertCalled(c1);
+        assertNotCalled(r1);
+        assertCallOrder(e0, e1, v1, c1);
+    }
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>first task blocks until the whole chain is installed</LI>
+     * <LI>LENGTH tasks without any component, each depending on the previous one</LI>
+     * <LI>last task depends on the chain</LI>
+     * <LI>transaction reverted</LI>
+     * </UL>
+     */
+    @Test
+    public void revertedChain() throws Exception {
+        final BasicTransaction transaction = newTransaction();
+        final CountDownLatch signal = new CountDownLatch(1);
+        final TestExecutable<Void> e0 = new TestExecutable<Void>(signal);
+        final TestExecutable<Void> e1 = new TestExecutable<Void>();
+        final TestValidatable v1 = new TestValidatable();
+        final TestRevertible r1 = new TestRevertible();
+        final TestCommittable c1 = new TestCommittable();
+        installChain(transaction, e0, e1, v1, r1, c1, signal);
+        prepare(transaction);
+        rollback(transaction);
+        assertCalled(e1);
+        assertCalled(r1);
+        assertNotCalled(c1);
+    }
+
+    private static void installChain(final BasicTransaction transaction, final TestExecutable<Void> e0, final TestExecutable<Void> e1, final TestValidatable v1, final TestRevertible r1, final TestCommittable c1, final CountDownLatch signal) {
+        TaskController<?> previous = txnController.newTask(transaction, e0).release();
+        for (int i = 0; i < LENGTH; i++) {
+            previous = txnController.newTask(transaction).addDependency(previous).release();
+        }
+        newTask(transaction, e1, v1, r1, c1, previous);
+        signal.countDown();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.test.tasks;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.msc.test.utils.AbstractTransactionTest;
+import org.jboss.msc.txn.BasicTransaction;
+import org.jboss.msc.txn.Executable;
+import org.jboss.msc.txn.ExecuteContext;
+import org.jboss.msc.txn.PriorityExecutor;
+import org.jboss.msc.txn.TaskController;
+import org.junit.Test;
+
+/**
+ * Makespan of a skewed task graph on a saturated executor, scheduled in submission order and by priority.  Timings
+ * depend on the machine, so nothing is asserted: the makespans are printed, and this class is not run with the test
+ * suite.  {@link PriorityScheduling_TestCase} checks the scheduling order instead.
+ */
+public final class PrioritySchedulingBenchmark extends AbstractTransactionTest {
+
+    private static final int THREADS = 2;
+    private static final int CHAIN_LENGTH = 20;
+    private static final int WIDTH = 80;
+    private static final long TASK_MILLIS = 10;
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>a chain of CHAIN_LENGTH tasks, the last one with a high priority</LI>
+     * <LI>WIDTH independent tasks</LI>
+     * <LI>every task busy for TASK_MILLIS, on THREADS threads</LI>
+     * <LI>transaction prepared and committed, once with a FIFO and once with a priority executor</LI>
+     * <LI>the time until the transaction is prepared is printed for both executors</LI>
+     * </UL>
+     */
+    @Test
+    public void criticalPathFirst() throws Exception {
+        final ThreadPoolExecutor fifoExecutor = newExecutor(THREADS, true);
+        final ThreadPoolExecutor priorityExecutor = newExecutor(THREADS, true);
+        try {
+            final long fifoMakespan = makespan(fifoExecutor);
+            final long priorityMakespan = makespan(new PriorityExecutor(priorityExecutor));
+            System.out.printf("Makespan of %d chained and %d independent tasks on %d threads: FIFO %d ms, priority %d ms%n",
+                    CHAIN_LENGTH, WIDTH, THREADS, fifoMakespan, priorityMakespan);
+        } finally {
+            fifoExecutor.shutdown();
+            priorityExecutor.shutdown();
+            fifoExecutor.awaitTermination(60, TimeUnit.SECONDS);
+            priorityExecutor.awaitTermination(60, TimeUnit.SECONDS);
+        }
+    }
+
+    private long makespan(final Executor executor) throws Exception {
+        final BasicTransaction transaction = newTransaction(executor);
+        final long start = System.nanoTime();
+        TaskController<Void> previous = txnController.newTask(transaction, new BusyTask()).release();
+        for (int i = 1; i < CHAIN_LENGTH; i++) {
+            previous = txnController.newTask(transaction, new BusyTask()).addDependency(previous).setPriority(i == CHAIN_LENGTH - 1 ? 1 : 0).release();
+        }
+        for (int i = 0; i < WIDTH; i++) {
+            txnController.newTask(transaction, new BusyTask()).release();
+        }
+        prepare(transaction);
+        final long makespan = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        commit(transaction);
+        return makespan;
+    }
+
+    private static final class BusyTask implements Executable<Void> {
+        @Override
+        public void execute(final ExecuteContext<Void> context) {
+            try {
+                Thread.sleep(TASK_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            context.complete();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.test.tasks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.msc.test.utils.AbstractTransactionTest;
+import org.jboss.msc.txn.BasicTransaction;
+import org.jboss.msc.txn.Executable;
+import org.jboss.msc.txn.ExecuteContext;
+import org.jboss.msc.txn.PriorityExecutor;
+import org.jboss.msc.txn.TaskController;
+import org.junit.Test;
+
+/**
+ * Order in which a skewed task graph runs on a saturated executor, scheduled in submission order and by priority.
+ */
+public final class PriorityScheduling_TestCase extends AbstractTransactionTest {
+
+    private static final int THREADS = 2;
+    private static final int CHAIN_LENGTH = 20;
+    private static final int WIDTH = 80;
+    private static final long TASK_MILLIS = 10;
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>a chain of CHAIN_LENGTH tasks, the last one with a high priority</LI>
+     * <LI>WIDTH independent tasks</LI>
+     * <LI>every task busy for TASK_MILLIS, on THREADS threads</LI>
+     * <LI>transaction prepared and committed, once with a FIFO and once with a priority executor</LI>
+     * <LI>the priority executor runs the chain ahead of most independent tasks, the FIFO one behind them</LI>
+     * </UL>
+     */
+    @Test
+    public void criticalPathFirst() throws Exception {
+        final ThreadPoolExecutor fifoExecutor = newExecutor(THREADS, true);
+        final ThreadPoolExecutor priorityExecutor = newExecutor(THREADS, true);
+        try {
+            final int fifoOvertaken = overtakenTasks(fifoExecutor);
+            final int priorityOvertaken = overtakenTasks(new PriorityExecutor(priorityExecutor));
+            assertTrue(priorityOvertaken >= WIDTH / 2);
+            assertTrue(priorityOvertaken > fifoOvertaken);
+        } finally {
+            fifoExecutor.shutdown();
+            priorityExecutor.shutdown();
+            assertTrue(fifoExecutor.awaitTermination(60, TimeUnit.SECONDS));
+            assertTrue(priorityExecutor.awaitTermination(60, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * Runs the task graph and counts the independent tasks which had not started yet when the chain completed.
+     */
+    private int overtakenTasks(final Executor executor) throws Exception {
+        final BasicTransaction transaction = newTransaction(executor);
+        final AtomicInteger started = new AtomicInteger();
+        final AtomicInteger startedBeforeChainEnd = new AtomicInteger(-1);
+        TaskController<Void> previous = txnController.newTask(transaction, new BusyTask(null, null)).release();
+        for (int i = 1; i < CHAIN_LENGTH; i++) {
+            final boolean last = i == CHAIN_LENGTH - 1;
+            final BusyTask task = last ? new BusyTask(started, startedBeforeChainEnd) : new BusyTask(null, null);
+            previous = txnController.newTask(transaction, task).addDependency(previous).setPriority(last ? 1 : 0).release();
+        }
+        for (int i = 0; i < WIDTH; i++) {
+            txnController.newTask(transaction, new BusyTask(started, null)).release();
+        }
+        prepare(transaction);
+        commit(transaction);
+        assertEquals(WIDTH, started.get());
+        return WIDTH - startedBeforeChainEnd.get();
+    }
+
+    private static final class BusyTask implements Executable<Void> {
+        private final AtomicInteger started;
+        private final AtomicInteger startedBeforeEnd;
+
+        /**
+         * @param started the count of started independent tasks, incremented by independent tasks
+         * @param startedBeforeEnd set to the count of started independent tasks when the chain completes
+         */
+        private BusyTask(final AtomicInteger started, final AtomicInteger startedBeforeEnd) {
+            this.started = started;
+            this.startedBeforeEnd = startedBeforeEnd;
+        }
+
+        @Override
+        public void execute(final ExecuteContext<Void> context) {
+            if (started != null && startedBeforeEnd == null) {
+                started.incrementAndGet();
+            }
+            try {
+                Thread.sleep(TASK_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (startedBeforeEnd != null) {
+                startedBeforeEnd.set(started.get());
+            }
+            context.complete();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.test.tasks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.jboss.msc.test.utils.AbstractTransactionTest;
+import org.jboss.msc.test.utils.TestExecutable;
+import org.jboss.msc.txn.BasicTransaction;
+import org.jboss.msc.txn.CommitContext;
+import org.jboss.msc.txn.Committable;
+import org.jboss.msc.txn.Executable;
+import org.jboss.msc.txn.ExecuteContext;
+import org.jboss.msc.txn.Revertible;
+import org.jboss.msc.txn.RollbackContext;
+import org.jboss.msc.txn.TaskController;
+import org.jboss.msc.txn.TaskGraphBuilder;
+import org.junit.Test;
+
+/**
+ * Task graphs installed at once through a {@link TaskGraphBuilder}.
+ */
+public final class TaskGraphBuilderTestCase extends AbstractTransactionTest {
+
+    private static final int SIZE = 1000;
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>graph of SIZE tasks, each one depending on the two tasks added before it</LI>
+     * <LI>transaction committed</LI>
+     * </UL>
+     */
+    @Test
+    public void committedGraph() throws Exception {
+        final BasicTransaction transaction = newTransaction();
+        final OrderedTask task = new OrderedTask();
+        final TaskGraphBuilder graph = txnController.newTaskGraph(transaction);
+        addChain(graph, task);
+        assertEquals(SIZE, graph.release().length);
+        prepare(transaction);
+        commit(transaction);
+        assertEquals(SIZE, task.executed.get());
+        assertEquals(SIZE, task.committed.get());
+        assertEquals(0, task.reverted.get());
+        assertEquals(0, task.outOfOrder.get());
+    }
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>parent task installing a graph of SIZE subtasks, each one depending on the two subtasks added before it</LI>
+     * <LI>the first subtask depends on a task installed before the graph</LI>
+     * <LI>transaction reverted</LI>
+     * </UL>
+     */
+    @Test
+    public void revertedSubtaskGraph() throws Exception {
+        final BasicTransaction transaction = newTransaction();
+        final OrderedTask task = new OrderedTask();
+        final TestExecutable<Void> dependency = new TestExecutable<Void>();
+        final TaskController<Void> dependencyController = txnController.newTask(transaction, dependency).release();
+        txnController.newTask(transaction, new Executable<Void>() {
+            @Override
+            public void execute(final ExecuteContext<Void> context) {
+                final TaskGraphBuilder graph = context.newTaskGraph();
+                addChain(graph, task);
+                graph.addDependency(0, dependencyController);
+                graph.release();
+                context.complete();
+            }
+        }).release();
+        prepare(transaction);
+        rollback(transaction);
+        assertTrue(dependency.wasCalled());
+        assertEquals(SIZE, task.executed.get());
+        assertEquals(SIZE, task.reverted.get());
+        assertEquals(0, task.committed.get());
+        assertEquals(0, task.outOfOrder.get());
+    }
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>dependency on a task added after the dependent is rejected</LI>
+     * </UL>
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void forwardDependency() throws Exception {
+        final BasicTransaction transaction = newTransaction();
+        final TaskGraphBuilder graph = txnController.newTaskGraph(transaction);
+        final int first = graph.addTask();
+        final int second = graph.addTask();
+        try {
+            graph.addDependency(first, second);
+        } finally {
+            graph.release();
+            prepare(transaction);
+            commit(transaction);
+        }
+    }
+
+    private static void addChain(final TaskGraphBuilder graph, final OrderedTask task) {
+        for (int i = 0; i < SIZE; i++) {
+            final int index = graph.addTask(task.forIndex(i));
+            assertEquals(i, index);
+            if (i > 0) graph.addDependency(i, i - 1);
+            if (i > 1) graph.addDependency(i, i - 2);
+            // duplicated edges are ignored
+            if (i > 1) graph.addDependency(i, i - 2);
+        }
+    }
+
+    /**
+     * Records the parts run for each task of a chain, and whether they ran in dependency order.
+     */
+    private static final class OrderedTask {
+        private final AtomicIntegerArray done = new AtomicIntegerArray(SIZE);
+        private final AtomicInteger executed = new AtomicInteger();
+        private final AtomicInteger committed = new AtomicInteger();
+        private final AtomicInteger reverted = new AtomicInteger();
+        private final AtomicInteger outOfOrder = new AtomicInteger();
+
+        Part forIndex(final int index) {
+            return new Part(index);
+        }
+
+        private final class Part implements Executable<Void>, Committable, Revertible {
+            private final int index;
+
+            Part(final int index) {
+                this.index = index;
+            }
+
+            @Override
+            public void execute(final ExecuteContext<Void> context) {
+                if (index > 0 && done.get(index - 1) == 0) {
+                    outOfOrder.incrementAndGet();
+                }
+                done.set(index, 1);
+                executed.incrementAndGet();
+                context.complete();
+            }
+
+            @Override
+            public void commit(final CommitContext context) {
+                committed.incrementAndGet();
+                context.complete();
+            }
+
+            @Override
+            public void rollback(final RollbackContext context) {
+                reverted.incrementAndGet();
+                context.complete();
+            }
+        }
+    }
+}
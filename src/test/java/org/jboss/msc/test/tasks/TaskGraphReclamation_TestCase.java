@@ -0,0 +1,105 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.test.tasks;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.msc.test.utils.AbstractTransactionTest;
+import org.jboss.msc.txn.BasicTransaction;
+import org.jboss.msc.txn.CommitContext;
+import org.jboss.msc.txn.Committable;
+import org.jboss.msc.txn.Executable;
+import org.jboss.msc.txn.ExecuteContext;
+import org.jboss.msc.txn.TaskController;
+import org.junit.Test;
+
+/**
+ * Reachability of a large task graph while its transaction is running, and once it is committed but still referenced.
+ */
+public final class TaskGraphReclamation_TestCase extends AbstractTransactionTest {
+
+    private static final int CHAINS = 5000;
+    private static final int CHAIN_LENGTH = 10;
+    private static final int PAYLOAD = 1024;
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>CHAINS chains of CHAIN_LENGTH tasks, each task holding PAYLOAD bytes</LI>
+     * <LI>transaction prepared, every task is still reachable as it has yet to be committed</LI>
+     * <LI>transaction committed and still referenced afterwards, every task is reclaimed</LI>
+     * </UL>
+     */
+    @Test
+    public void committedGraph() throws Exception {
+        final BasicTransaction transaction = newTransaction();
+        final List<WeakReference<PayloadTask>> tasks = new ArrayList<WeakReference<PayloadTask>>(CHAINS * CHAIN_LENGTH);
+        for (int i = 0; i < CHAINS; i++) {
+            TaskController<Void> previous = null;
+            for (int j = 0; j < CHAIN_LENGTH; j++) {
+                final PayloadTask task = new PayloadTask();
+                previous = previous == null ? txnController.newTask(transaction, task).release()
+                        : txnController.newTask(transaction, task).addDependency(previous).release();
+                tasks.add(new WeakReference<PayloadTask>(task));
+            }
+        }
+        prepare(transaction);
+        collectGarbage();
+        assertEquals(CHAINS * CHAIN_LENGTH, countReachable(tasks));
+        commit(transaction);
+        collectGarbage();
+        assertEquals(0, countReachable(tasks));
+        // the transaction must stay reachable until the check is done
+        transaction.getProblemReport();
+    }
+
+    private static void collectGarbage() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+    }
+
+    private static int countReachable(final List<WeakReference<PayloadTask>> tasks) {
+        int reachable = 0;
+        for (WeakReference<PayloadTask> task : tasks) {
+            if (task.get() != null) {
+                reachable++;
+            }
+        }
+        return reachable;
+    }
+
+    private static final class PayloadTask implements Executable<Void>, Committable {
+        private final byte[] payload = new byte[PAYLOAD];
+
+        @Override
+        public void execute(final ExecuteContext<Void> context) {
+            context.complete();
+        }
+
+        @Override
+        public void commit(final CommitContext context) {
+            context.complete();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.test.tasks;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.msc.test.utils.AbstractTransactionTest;
+import org.jboss.msc.test.utils.CompletionListener;
+import org.jboss.msc.test.utils.TestCommittable;
+import org.jboss.msc.test.utils.TestExecutable;
+import org.jboss.msc.test.utils.TestRevertible;
+import org.jboss.msc.test.utils.TestValidatable;
+import org.jboss.msc.txn.BasicTransaction;
+import org.jboss.msc.txn.ExecuteContext;
+import org.jboss.msc.txn.TaskController;
+import org.junit.Test;
+
+/**
+ * Tasks without validatable and committable, which go through validation without waiting for the transaction
+ * to be prepared.
+ */
+public final class TasksWithoutComponents_TestCase extends AbstractTransactionTest {
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>task0 has no components at all, so it is already validated when installed</LI>
+     * <LI>task1 completes at EXECUTE, depends on task0</LI>
+     * <LI>transaction committed</LI>
+     * </UL>
+     */
+    @Test
+    public void dependentOfValidatedTask() throws Exception {
+        final BasicTransaction transaction = newTransaction();
+        final TaskController<Void> task0Controller = txnController.newTask(transaction).release();
+        final TestExecutable<Void> e1 = new TestExecutable<Void>();
+        final TestValidatable v1 = new TestValidatable();
+        final TestRevertible r1 = new TestRevertible();
+        final TestCommittable c1 = new TestCommittable();
+        newTask(transaction, e1, v1, r1, c1, task0Controller);
+        prepare(transaction);
+        assertCalled(e1);
+        assertCalled(v1);
+        commit(transaction);
+        assertCalled(c1);
+        assertNotCalled(r1);
+        assertCallOrder(e1, v1, c1);
+    }
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>task0 completes at EXECUTE</LI>
+     * <LI>task1 has an executable only, depends on task0</LI>
+     * <LI>task2 completes at EXECUTE, depends on task1</LI>
+     * <LI>transaction committed</LI>
+     * </UL>
+     */
+    @Test
+    public void executableOnlyTaskInChain() throws Exception {
+        final BasicTransaction transaction = newTransaction();
+        final TestExecutable<Void> e0 = new TestExecutable<Void>();
+        final TestValidatable v0 = new TestValidatable();
+        final TestRevertible r0 = new TestRevertible();
+        final TestCommittable c0 = new TestCommittable();
+        final TaskController<Void> task0Controller = newTask(transaction, e0, v0, r0, c0);
+        final TestExecutable<Void> e1 = new TestExecutable<Void>();
+        final TaskController<Void> task1Controller = newTask(transaction, e1, null, null, null, task0Controller);
+        final TestExecutable<Void> e2 = new TestExecutable<Void>();
+        final TestValidatable v2 = new TestValidatable();
+        final TestRevertible r2 = new TestRevertible();
+        final TestCommittable c2 = new TestCommittable();
+        newTask(transaction, e2, v2, r2, c2, task1Controller);
+        prepare(transaction);
+        commit(transaction);
+        assertCallOrder(e0, e1, e2, v0, v2, c0, c2);
+        assertNotCalled(r0);
+        assertNotCalled(r2);
+    }
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>parent task adds a child without components, then cancels once rollback is requested</LI>
+     * <LI>transaction reverted</LI>
+     * </UL>
+     */
+    @Test
+    public void cancelledParentOfValidatedChild() throws Exception {
+        final BasicTransaction transaction = newTransaction();
+        final CountDownLatch childAdded = new CountDownLatch(1);
+        final CountDownLatch rollbackRequested = new CountDownLatch(1);
+        final TestExecutable<Void> e0 = new TestExecutable<Void>(true) {
+            @Override
+            protected void executeInternal(final ExecuteContext<Void> ctx) {
+                ctx.newTask().release();
+                childAdded.countDown();
+                try {
+                    rollbackRequested.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        newTask(transaction, e0, null, null, null);
+        assertTrue(childAdded.await(60, TimeUnit.SECONDS));
+        final CompletionListener rollbackListener = new CompletionListener();
+        txnController.rollback(transaction, rollbackListener);
+        rollbackRequested.countDown();
+        assertTrue(rollbackListener.awaitCompletion(60, TimeUnit.SECONDS));
+        assertReverted(transaction);
+    }
+}
@@ -21,11 +21,11 @@ package org.jboss.msc.test.tasks;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
-import static org.junit.Assert.fail;
 
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jboss.msc.test.utils.AbstractTransactionTest;
 import org.jboss.msc.txn.DeadlockException;
@@ -38,55 +38,125 @@ import org.junit.Test;
  */
 public final class TransactionsTestCase extends AbstractTransactionTest {
 
-    private static final int MAX_ACTIVE_TRANSACTIONS = 64;
+    private static final int ACTIVE_TRANSACTIONS = 5000;
+    private static final int CREATING_THREADS = 8;
+    private static final int WAITING_THREADS = 32;
+    private static final int WAIT_ROUNDS = 500;
 
     @Test
-    public void testMaximumActiveTransactions() throws Exception {
-        // create transactions to fill in the transaction id limit
-        final BasicTransaction[] transactions = new BasicTransaction[MAX_ACTIVE_TRANSACTIONS];
-        for (int i = 0; i < MAX_ACTIVE_TRANSACTIONS; i++) {
-            transactions[i] = newTransaction();
-        }
-        // stress test maximum transaction limit
-        for (int i = 0; i < 10; i++) {
-            // stress test using commit approach
-            try {
-                newTransaction();
-                fail("expected active transactions limit exceeded");
-            } catch (final IllegalStateException expected) {
-            }
-            commit(transactions[0]);
-            transactions[0] = newTransaction();
-            // stress test using rollback approach
-            try {
-                newTransaction();
-                fail("expected active transactions limit exceeded");
-            } catch (final IllegalStateException expected) {
-            }
-            rollback(transactions[0]);
-            transactions[0] = newTransaction();
-            // stress test using prepare / commit approach
-            try {
-                newTransaction();
-                fail("expected active transactions limit exceeded");
-            } catch (final IllegalStateException expected) {
+    public void testManyActiveTransactions() throws Exception {
+        // create far more transactions than there used to be transaction ids, from several threads at once
+        final BasicTransaction[] transactions = new BasicTransaction[ACTIVE_TRANSACTIONS];
+        final CountDownLatch created = new CountDownLatch(CREATING_THREADS);
+        for (int i = 0; i < CREATING_THREADS; i++) {
+            final int first = i;
+            new Thread() {
+                public void run() {
+                    try {
+                        for (int j = first; j < ACTIVE_TRANSACTIONS; j += CREATING_THREADS) {
+                            transactions[j] = newTransaction();
+                        }
+                    } finally {
+                        created.countDown();
+                    }
+                }
+            }.start();
+        }
+        assertTrue(created.await(60, TimeUnit.SECONDS));
+        // waits and deadlocks are still tracked between transactions registered late
+        final BasicTransaction[] pair = new BasicTransaction[] { transactions[100], transactions[ACTIVE_TRANSACTIONS - 1] };
+        final AtomicInteger deadlocks = new AtomicInteger();
+        final CountDownLatch waited = new CountDownLatch(2);
+        for (int i = 0; i < 2; i++) {
+            final BasicTransaction dependent = pair[i];
+            final BasicTransaction dependency = pair[1 - i];
+            new Thread() {
+                public void run() {
+                    try {
+                        txnController.waitFor(dependent, dependency);
+                    } catch (final DeadlockException expected) {
+                        deadlocks.incrementAndGet();
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        waited.countDown();
+                    }
+                }
+            }.start();
+        }
+        // only one of the waits can be registered, the other one is a deadlock
+        while (deadlocks.get() == 0) {
+            Thread.sleep(1);
+        }
+        prepare(pair[1]);
+        commit(pair[1]);
+        assertTrue(waited.await(60, TimeUnit.SECONDS));
+        assertEquals(1, deadlocks.get());
+        // release all transactions to free all resources, alternating commits and rollbacks
+        for (int i = 0; i < ACTIVE_TRANSACTIONS - 1; i++) {
+            if (i % 2 == 0) {
+                commit(transactions[i]);
+            } else {
+                rollback(transactions[i]);
             }
-            prepare(transactions[0]);
-            commit(transactions[0]);
-            transactions[0] = newTransaction();
-            // stress test using prepare / rollback approach
-            try {
-                newTransaction();
-                fail("expected active transactions limit exceeded");
-            } catch (final IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void testConcurrentWaitRegistration() throws Exception {
+        // every round, all threads wait for the same transaction at once, which is then terminated
+        final BasicTransaction[] dependents = new BasicTransaction[WAITING_THREADS];
+        final BasicTransaction[] holders = new BasicTransaction[WAIT_ROUNDS];
+        for (int i = 0; i < WAITING_THREADS; i++) {
+            dependents[i] = newTransaction();
+        }
+        for (int i = 0; i < WAIT_ROUNDS; i++) {
+            holders[i] = newTransaction();
+        }
+        final Thread[] threads = new Thread[WAITING_THREADS];
+        final AtomicInteger[] rounds = new AtomicInteger[WAITING_THREADS];
+        final AtomicInteger failures = new AtomicInteger();
+        for (int i = 0; i < WAITING_THREADS; i++) {
+            final BasicTransaction dependent = dependents[i];
+            final AtomicInteger round = rounds[i] = new AtomicInteger(-1);
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < WAIT_ROUNDS; j++) {
+                            round.set(j);
+                            txnController.waitFor(dependent, holders[j]);
+                        }
+                    } catch (final Exception e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            };
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (int j = 0; j < WAIT_ROUNDS; j++) {
+            // terminate the holder once every thread waits for it
+            for (int i = 0; i < WAITING_THREADS; i++) {
+                while (rounds[i].get() != j || threads[i].getState() != Thread.State.WAITING) {
+                    Thread.yield();
+                }
             }
-            prepare(transactions[0]);
-            rollback(transactions[0]);
-            transactions[0] = newTransaction();
+            rollback(holders[j]);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failures.get());
+        // every thread went through every round, its waits ending as each holder terminated
+        for (AtomicInteger round : rounds) {
+            assertEquals(WAIT_ROUNDS - 1, round.get());
+        }
+        for (BasicTransaction holder : holders) {
+            assertTrue(holder.isTerminated());
         }
-        // release all transactions to free all transaction id resources
-        for (int i = 0; i < MAX_ACTIVE_TRANSACTIONS; i++) {
-            rollback(transactions[i]);
+        for (BasicTransaction dependent : dependents) {
+            rollback(dependent);
         }
     }
 
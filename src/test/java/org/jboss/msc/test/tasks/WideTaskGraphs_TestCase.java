@@ -0,0 +1,174 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.test.tasks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.msc.test.utils.AbstractTransactionTest;
+import org.jboss.msc.txn.BasicTransaction;
+import org.jboss.msc.txn.Committable;
+import org.jboss.msc.txn.CommitContext;
+import org.jboss.msc.txn.Executable;
+import org.jboss.msc.txn.ExecuteContext;
+import org.jboss.msc.txn.Revertible;
+import org.jboss.msc.txn.RollbackContext;
+import org.jboss.msc.txn.TaskController;
+import org.junit.Test;
+
+/**
+ * Wide fan-in and fan-out task graphs, installed and completed concurrently from many threads.
+ */
+public final class WideTaskGraphs_TestCase extends AbstractTransactionTest {
+
+    private static final int WIDTH = 2000;
+    private static final int INSTALLERS = 8;
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>WIDTH independent tasks, all completing concurrently</LI>
+     * <LI>one task depending on all of them</LI>
+     * <LI>transaction committed</LI>
+     * </UL>
+     */
+    @Test
+    public void fanIn() throws Exception {
+        final BasicTransaction transaction = newTransaction();
+        final Counter counter = new Counter();
+        final TaskController<?>[] dependencies = new TaskController<?>[WIDTH];
+        for (int i = 0; i < WIDTH; i++) {
+            dependencies[i] = txnController.newTask(transaction, counter).setCommittable(counter).release();
+        }
+        final AtomicInteger executedBeforeSink = new AtomicInteger(-1);
+        txnController.newTask(transaction, new Executable<Void>() {
+            @Override
+            public void execute(final ExecuteContext<Void> context) {
+                executedBeforeSink.set(counter.executed.get());
+                context.complete();
+            }
+        }).addDependencies(dependencies).release();
+        prepare(transaction);
+        commit(transaction);
+        assertEquals(WIDTH, executedBeforeSink.get());
+        assertEquals(WIDTH, counter.committed.get());
+    }
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>one task, completing while its dependents are being installed</LI>
+     * <LI>WIDTH dependent tasks installed concurrently from several threads</LI>
+     * <LI>transaction committed</LI>
+     * </UL>
+     */
+    @Test
+    public void fanOut() throws Exception {
+        final BasicTransaction transaction = newTransaction();
+        final Counter counter = new Counter();
+        installFanOut(transaction, counter);
+        prepare(transaction);
+        commit(transaction);
+        assertEquals(WIDTH + 1, counter.executed.get());
+        assertEquals(WIDTH + 1, counter.committed.get());
+        assertEquals(0, counter.reverted.get());
+    }
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>one task, completing while its dependents are being installed</LI>
+     * <LI>WIDTH dependent tasks installed concurrently from several threads</LI>
+     * <LI>transaction reverted</LI>
+     * </UL>
+     */
+    @Test
+    public void fanOutReverted() throws Exception {
+        final BasicTransaction transaction = newTransaction();
+        final Counter counter = new Counter();
+        installFanOut(transaction, counter);
+        prepare(transaction);
+        rollback(transaction);
+        assertEquals(WIDTH + 1, counter.executed.get());
+        assertEquals(WIDTH + 1, counter.reverted.get());
+        assertEquals(0, counter.committed.get());
+    }
+
+    private void installFanOut(final BasicTransaction transaction, final Counter counter) throws InterruptedException {
+        final CountDownLatch sourceLatch = new CountDownLatch(1);
+        final TaskController<Void> source = txnController.newTask(transaction, new Executable<Void>() {
+            @Override
+            public void execute(final ExecuteContext<Void> context) {
+                try {
+                    sourceLatch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                counter.execute(context);
+            }
+        }).setCommittable(counter).setRevertible(counter).release();
+        final CountDownLatch installed = new CountDownLatch(INSTALLERS);
+        for (int i = 0; i < INSTALLERS; i++) {
+            final boolean releaser = i == 0;
+            new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < WIDTH / INSTALLERS; j++) {
+                            if (releaser && j == WIDTH / INSTALLERS / 2) {
+                                sourceLatch.countDown();
+                            }
+                            txnController.newTask(transaction, counter).setCommittable(counter).setRevertible(counter).addDependency(source).release();
+                        }
+                    } finally {
+                        installed.countDown();
+                    }
+                }
+            }.start();
+        }
+        assertTrue(installed.await(60, TimeUnit.SECONDS));
+    }
+
+    private static final class Counter implements Executable<Void>, Committable, Revertible {
+        private final AtomicInteger executed = new AtomicInteger();
+        private final AtomicInteger committed = new AtomicInteger();
+        private final AtomicInteger reverted = new AtomicInteger();
+
+        @Override
+        public void execute(final ExecuteContext<Void> context) {
+            executed.incrementAndGet();
+            context.complete();
+        }
+
+        @Override
+        public void commit(final CommitContext context) {
+            committed.incrementAndGet();
+            context.complete();
+        }
+
+        @Override
+        public void rollback(final RollbackContext context) {
+            reverted.incrementAndGet();
+            context.complete();
+        }
+    }
+}
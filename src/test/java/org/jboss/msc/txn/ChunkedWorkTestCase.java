@@ -0,0 +1,197 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.txn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+/**
+ * Work on large sets of {@link TransactionalObject transactional objects}, split in chunks among the starting thread
+ * and helpers submitted to an executor.
+ */
+public final class ChunkedWorkTestCase {
+
+    private static final int OBJECTS = 5000;
+    private static final int FAILING_OBJECTS = 100;
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>OBJECTS objects processed with helpers run by a thread pool</LI>
+     * <LI>every object is processed exactly once, and completion is notified once</LI>
+     * </UL>
+     */
+    @Test
+    public void helpersRun() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            assertProcessedOnce(executor);
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(60, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>OBJECTS objects processed with an executor rejecting every helper</LI>
+     * <LI>the starting thread processes every object exactly once, and completion is notified once</LI>
+     * </UL>
+     */
+    @Test
+    public void helpersRejected() throws Exception {
+        assertProcessedOnce(new Executor() {
+            public void execute(final Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        });
+    }
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>OBJECTS objects processed with an executor running the first helper and rejecting the following ones</LI>
+     * <LI>every object is processed exactly once, and completion is notified once</LI>
+     * </UL>
+     */
+    @Test
+    public void helpersPartiallyRejected() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final AtomicInteger submitted = new AtomicInteger();
+            assertProcessedOnce(new Executor() {
+                public void execute(final Runnable command) {
+                    if (submitted.getAndIncrement() > 0) {
+                        throw new RejectedExecutionException();
+                    }
+                    executor.execute(command);
+                }
+            });
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(60, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>OBJECTS objects processed with helpers run by a thread pool, processing every FAILING_OBJECTS-th object
+     * throws an exception</LI>
+     * <LI>every other object is processed exactly once, and completion is notified once</LI>
+     * </UL>
+     */
+    @Test
+    public void processFailing() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final TransactionalObject[] objects = newObjects();
+            final AtomicIntegerArray processedObjects = new AtomicIntegerArray(OBJECTS);
+            final AtomicInteger processedNotifications = new AtomicInteger();
+            final CountDownLatch notified = new CountDownLatch(1);
+            new TransactionalObject.ChunkedWork(objects) {
+                @Override
+                void process(final TransactionalObject object) {
+                    final int index = ((IndexedObject) object).index;
+                    if (index % FAILING_OBJECTS == 0) {
+                        throw new IllegalStateException("object " + index);
+                    }
+                    processedObjects.incrementAndGet(index);
+                }
+
+                @Override
+                void processed() {
+                    processedNotifications.incrementAndGet();
+                    notified.countDown();
+                }
+            }.start(executor);
+            assertTrue(notified.await(60, TimeUnit.SECONDS));
+            for (int i = 0; i < OBJECTS; i++) {
+                assertEquals(i % FAILING_OBJECTS == 0 ? 0 : 1, processedObjects.get(i));
+            }
+            assertEquals(1, processedNotifications.get());
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(60, TimeUnit.SECONDS);
+        }
+    }
+
+    private static TransactionalObject[] newObjects() {
+        final TransactionalObject[] objects = new TransactionalObject[OBJECTS];
+        for (int i = 0; i < OBJECTS; i++) {
+            objects[i] = new IndexedObject(i);
+        }
+        return objects;
+    }
+
+    private static void assertProcessedOnce(final Executor executor) throws InterruptedException {
+        final TransactionalObject[] objects = newObjects();
+        final AtomicIntegerArray processedObjects = new AtomicIntegerArray(OBJECTS);
+        final AtomicInteger processedNotifications = new AtomicInteger();
+        final CountDownLatch notified = new CountDownLatch(1);
+        final TransactionalObject.ChunkedWork work = new TransactionalObject.ChunkedWork(objects) {
+            @Override
+            void process(final TransactionalObject object) {
+                processedObjects.incrementAndGet(((IndexedObject) object).index);
+            }
+
+            @Override
+            void processed() {
+                processedNotifications.incrementAndGet();
+                notified.countDown();
+            }
+        };
+        work.start(executor);
+        // the thread processing the last chunk notifies completion once the chunks are no longer pending
+        assertTrue(notified.await(60, TimeUnit.SECONDS));
+        for (int i = 0; i < OBJECTS; i++) {
+            assertEquals(1, processedObjects.get(i));
+        }
+        assertEquals(1, processedNotifications.get());
+    }
+
+    private static final class IndexedObject extends TransactionalObject {
+        private final int index;
+
+        IndexedObject(final int index) {
+            this.index = index;
+        }
+
+        @Override
+        Object takeSnapshot() {
+            return null;
+        }
+
+        @Override
+        void revert(final Object snapshot) {
+        }
+    }
+}
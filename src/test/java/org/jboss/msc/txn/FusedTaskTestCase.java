@@ -0,0 +1,85 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.txn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.msc.test.utils.AbstractTransactionTest;
+import org.junit.Test;
+
+/**
+ * Chains of steps run as a single task, some of them on an executor of their own.
+ */
+public final class FusedTaskTestCase extends AbstractTransactionTest {
+
+    private static final String STEP_THREAD = "step";
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>a chain of three steps, the second one with an executor of its own</LI>
+     * <LI>the second step runs on its executor, the first and the third ones never do</LI>
+     * </UL>
+     */
+    @Test
+    public void stepOnItsOwnExecutor() throws Exception {
+        final ExecutorService stepExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread(r, STEP_THREAD);
+            }
+        });
+        try {
+            final BasicTransaction transaction = newTransaction();
+            final FusedTask fusedTask = new FusedTask(transaction);
+            final ThreadRecordingStep second = new ThreadRecordingStep();
+            final TaskController<Thread> firstController = fusedTask.addStep(new ThreadRecordingStep());
+            final TaskController<Thread> secondController = fusedTask.addStep(second, second, stepExecutor);
+            final TaskController<Thread> thirdController = fusedTask.addStep(new ThreadRecordingStep());
+            fusedTask.newTask(transaction.getTaskFactory()).release();
+            prepare(transaction);
+            commit(transaction);
+            assertRanOn(firstController.getResult(), false);
+            assertRanOn(secondController.getResult(), true);
+            assertRanOn(thirdController.getResult(), false);
+        } finally {
+            stepExecutor.shutdown();
+            assertTrue(stepExecutor.awaitTermination(60, TimeUnit.SECONDS));
+        }
+    }
+
+    private static void assertRanOn(final Thread thread, final boolean stepThread) {
+        assertNotNull(thread);
+        assertEquals(thread.getName(), stepThread, STEP_THREAD.equals(thread.getName()));
+    }
+
+    private static final class ThreadRecordingStep implements Executable<Thread> {
+        @Override
+        public void execute(final ExecuteContext<Thread> context) {
+            context.complete(Thread.currentThread());
+        }
+    }
+}
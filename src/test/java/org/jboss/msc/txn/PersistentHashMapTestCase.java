@@ -0,0 +1,169 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.msc.txn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Mappings, versions and iteration of the {@link PersistentHashMap}.
+ */
+public final class PersistentHashMapTestCase {
+
+    private static final int SIZE = 5000;
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>SIZE distinct keys added one at a time</LI>
+     * <LI>every key is found and iteration yields every value exactly once</LI>
+     * </UL>
+     */
+    @Test
+    public void manyKeys() {
+        PersistentHashMap<Integer, String> map = PersistentHashMap.empty();
+        for (int i = 0; i < SIZE; i ++) {
+            map = map.with(i, "value" + i);
+        }
+        for (int i = 0; i < SIZE; i ++) {
+            assertEquals("value" + i, map.get(i));
+        }
+        assertNull(map.get(SIZE));
+        assertIteration(map, SIZE, "value");
+    }
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>keys whose hash codes are all equal, so that they end up in a collision node</LI>
+     * <LI>every key is found, replaced and iterated over exactly once</LI>
+     * </UL>
+     */
+    @Test
+    public void collidingKeys() {
+        PersistentHashMap<CollidingKey, String> map = PersistentHashMap.empty();
+        for (int i = 0; i < 100; i ++) {
+            map = map.with(new CollidingKey(i), "value" + i);
+        }
+        for (int i = 0; i < 100; i ++) {
+            assertEquals("value" + i, map.get(new CollidingKey(i)));
+        }
+        assertNull(map.get(new CollidingKey(100)));
+        final PersistentHashMap<CollidingKey, String> replaced = map.with(new CollidingKey(50), "replaced");
+        assertEquals("replaced", replaced.get(new CollidingKey(50)));
+        assertEquals("value50", map.get(new CollidingKey(50)));
+        assertIteration(map, 100, "value");
+        final Set<String> values = collect(replaced, 100);
+        assertTrue(values.contains("replaced"));
+        assertTrue(!values.contains("value50"));
+    }
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>every value of a map of SIZE keys is replaced</LI>
+     * <LI>the number of values is unchanged, and replacing a value by itself returns the same map</LI>
+     * </UL>
+     */
+    @Test
+    public void replaceValues() {
+        PersistentHashMap<Integer, String> map = PersistentHashMap.empty();
+        for (int i = 0; i < SIZE; i ++) {
+            map = map.with(i, "value" + i);
+        }
+        for (int i = 0; i < SIZE; i ++) {
+            map = map.with(i, "replaced" + i);
+        }
+        assertIteration(map, SIZE, "replaced");
+        final String value = map.get(0);
+        assertSame(map, map.with(0, value));
+    }
+
+    /**
+     * Scenario:
+     * <UL>
+     * <LI>a version of the map is kept after every addition and replacement</LI>
+     * <LI>every kept version still holds exactly the mappings it had when it was created</LI>
+     * </UL>
+     */
+    @Test
+    public void oldVersionsUnchanged() {
+        @SuppressWarnings("unchecked")
+        final PersistentHashMap<Integer, String>[] versions = new PersistentHashMap[SIZE + 1];
+        versions[0] = PersistentHashMap.empty();
+        for (int i = 0; i < SIZE; i ++) {
+            versions[i + 1] = versions[i].with(i, "value" + i);
+        }
+        final PersistentHashMap<Integer, String> replaced = versions[SIZE].with(0, "replaced");
+        assertEquals("replaced", replaced.get(0));
+        for (int version = 0; version <= SIZE; version += 100) {
+            for (int i = 0; i < SIZE; i ++) {
+                if (i < version) {
+                    assertEquals("value" + i, versions[version].get(i));
+                } else {
+                    assertNull(versions[version].get(i));
+                }
+            }
+            assertIteration(versions[version], version, "value");
+        }
+    }
+
+    private static void assertIteration(final PersistentHashMap<?, String> map, final int size, final String prefix) {
+        final Set<String> values = collect(map, size);
+        for (int i = 0; i < size; i ++) {
+            assertTrue(values.contains(prefix + i));
+        }
+    }
+
+    private static Set<String> collect(final PersistentHashMap<?, String> map, final int size) {
+        final Set<String> values = new HashSet<String>();
+        int count = 0;
+        for (String value : map.values()) {
+            assertTrue("duplicate value " + value, values.add(value));
+            count ++;
+        }
+        assertEquals(size, count);
+        return values;
+    }
+
+    private static final class CollidingKey {
+        private final int id;
+
+        CollidingKey(final int id) {
+            this.id = id;
+        }
+
+        @Override
+        public int hashCode() {
+            return 42;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            return obj instanceof CollidingKey && ((CollidingKey) obj).id == id;
+        }
+    }
+}